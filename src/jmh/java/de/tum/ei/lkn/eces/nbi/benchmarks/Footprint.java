@@ -0,0 +1,115 @@
+package de.tum.ei.lkn.eces.nbi.benchmarks;
+
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongObjectMap;
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongSortedSet;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Measures the heap used by the indexes of the NBI, compared to the boxed
+ * collections they replace. Values are shared, so that only the overhead of
+ * the collections is measured.
+ *
+ * Usage (through the benchmarks profile):
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec \
+ *     -Dbenchmark.main=de.tum.ei.lkn.eces.nbi.benchmarks.Footprint \
+ *     -Dbenchmark.args="1000000"
+ * </pre>
+ *
+ * The only (optional) argument is the number of entries (default 1M). The
+ * sorted indexes (children of each resource) are measured with
+ * {@value #CHILDREN} children per parent.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class Footprint {
+    // Children per parent in the sorted indexes
+    private static final int CHILDREN = 100;
+
+    private Footprint() {
+    }
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        PrintStream out = System.out;
+        out.println("Heap used for " + entries + " entries:");
+        out.println("  ConcurrentHashMap<Long, V>   " + format(measureBoxedMap(entries), entries));
+        out.println("  ConcurrentLongObjectMap<V>   " + format(measurePrimitiveMap(entries), entries));
+        out.println("Heap used for " + entries + " entries in sorted indexes of " + CHILDREN + " entries:");
+        out.println("  ConcurrentSkipListMap<Long, V> " + format(measureSkipLists(entries), entries));
+        out.println("  ConcurrentLongSortedSet        " + format(measureSortedSets(entries), entries));
+    }
+
+    private static long measureBoxedMap(int entries) {
+        Object value = new Object();
+        long before = usedHeap();
+        ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<>();
+        for(long key = 0; key < entries; key++)
+            map.put(key, value);
+        long used = usedHeap() - before;
+        if(map.size() != entries)
+            throw new IllegalStateException("Missing entries");
+        return used;
+    }
+
+    private static long measurePrimitiveMap(int entries) {
+        Object value = new Object();
+        long before = usedHeap();
+        ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<>();
+        for(long key = 0; key < entries; key++)
+            map.put(key, value);
+        long used = usedHeap() - before;
+        if(map.size() != entries)
+            throw new IllegalStateException("Missing entries");
+        return used;
+    }
+
+    private static long measureSkipLists(int entries) {
+        Object value = new Object();
+        long before = usedHeap();
+        ConcurrentLongObjectMap<ConcurrentSkipListMap<Long, Object>> indexes = new ConcurrentLongObjectMap<>();
+        for(long key = 0; key < entries; key++) {
+            ConcurrentSkipListMap<Long, Object> index = indexes.get(key / CHILDREN);
+            if(index == null) {
+                index = new ConcurrentSkipListMap<>();
+                indexes.put(key / CHILDREN, index);
+            }
+            index.put(key, value);
+        }
+        long used = usedHeap() - before;
+        if(indexes.size() != (entries + CHILDREN - 1) / CHILDREN)
+            throw new IllegalStateException("Missing entries");
+        return used;
+    }
+
+    private static long measureSortedSets(int entries) {
+        long before = usedHeap();
+        ConcurrentLongObjectMap<ConcurrentLongSortedSet> indexes = new ConcurrentLongObjectMap<>();
+        for(long key = 0; key < entries; key++) {
+            ConcurrentLongSortedSet index = indexes.get(key / CHILDREN);
+            if(index == null) {
+                index = new ConcurrentLongSortedSet();
+                indexes.put(key / CHILDREN, index);
+            }
+            index.add(key);
+        }
+        long used = usedHeap() - before;
+        if(indexes.size() != (entries + CHILDREN - 1) / CHILDREN)
+            throw new IllegalStateException("Missing entries");
+        return used;
+    }
+
+    private static String format(long bytes, int entries) {
+        return String.format("%8.1f MiB (%.1f B per entry)", bytes / (1024.0 * 1024), (double) bytes / entries);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,113 @@
+package de.tum.ei.lkn.eces.nbi.benchmarks;
+
+import de.tum.ei.lkn.eces.nbi.NBISystem;
+import de.tum.ei.lkn.eces.nbi.TinyNetwork;
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import de.tum.ei.lkn.eces.nbi.json.JsonFields;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmarks of the NBI handlers, over HTTP.
+ *
+ * The TMS is a real one over the two-host network of the tests (see
+ * {@link TinyNetwork}). Each benchmark creates a resource and removes it, so
+ * that the state of the NBI and of the TMS does not grow over the run.
+ *
+ * @author Amaury Van Bemten
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandlerBenchmark {
+    private static final int NBI_PORT = 8095;
+    private static final String BASE_URL = "http://localhost:" + NBI_PORT;
+
+    private NBISystem nbiSystem;
+    private CloseableHttpClient client;
+    private JsonFields tenantResponse;
+    private JsonFields idResponse;
+
+    private long tenantId;
+    private long cookie;
+    private long sourceId;
+    private long destinationId;
+
+    @Setup
+    public void setUp() throws IOException, InvalidRequestException {
+        nbiSystem = TinyNetwork.startNBI(NBI_PORT);
+        client = HttpClients.createDefault();
+        tenantResponse = new JsonFields("id", "cookie");
+        idResponse = new JsonFields("id");
+
+        tenantResponse.read(post("/newTenant", "{\"name\": \"benchmark\"}"));
+        tenantId = tenantResponse.getLong(0);
+        cookie = tenantResponse.getLong(1);
+        sourceId = newVM("lundi");
+        destinationId = newVM("mardi");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        nbiSystem.stop();
+    }
+
+    @Benchmark
+    public long newAndRemoveTenant() throws IOException, InvalidRequestException {
+        tenantResponse.read(post("/newTenant", "{\"name\": \"tenant\"}"));
+        long id = tenantResponse.getLong(0);
+        post("/removeTenant", "{\"tenantId\": " + id + ", \"cookie\": " + tenantResponse.getLong(1) + "}");
+        return id;
+    }
+
+    @Benchmark
+    public long newAndRemoveVM() throws IOException, InvalidRequestException {
+        long id = newVM("vm");
+        post("/removeVM", "{\"vmId\": " + id + ", \"cookie\": " + cookie + "}");
+        return id;
+    }
+
+    @Benchmark
+    public long newAndRemoveFlow() throws IOException, InvalidRequestException {
+        idResponse.read(post("/newFlow", "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", " +
+                "\"name\": \"flow\", \"srcIp\": \"10.152.1.1\", \"dstIp\": \"10.152.1.2\", " +
+                "\"srcPort\": 4, \"dstPort\": 41, \"protocol\": 17, " +
+                "\"source\": " + sourceId + ", \"destination\": " + destinationId + ", " +
+                "\"rate\": 25, \"burst\": 5, \"latency\": 22}"));
+        long id = idResponse.getLong(0);
+        post("/removeFlow", "{\"flowId\": " + id + ", \"cookie\": " + cookie + "}");
+        return id;
+    }
+
+    // Creates a VM for the tenant and returns its ID
+    private long newVM(String name) throws IOException, InvalidRequestException {
+        idResponse.read(post("/newVM", "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"name\": \"" + name + "\"}"));
+        return idResponse.getLong(0);
+    }
+
+    // Sends a request over the persistent connection and returns the body of the response
+    private byte[] post(String path, String body) throws IOException {
+        HttpPost post = new HttpPost(BASE_URL + path);
+        post.setEntity(new ByteArrayEntity(body.getBytes(StandardCharsets.UTF_8), ContentType.APPLICATION_JSON));
+        try(CloseableHttpResponse response = client.execute(post)) {
+            byte[] content = EntityUtils.toByteArray(response.getEntity());
+            if(response.getStatusLine().getStatusCode() != 200)
+                throw new IllegalStateException(path + " failed: " + new String(content, StandardCharsets.UTF_8));
+            return content;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package de.tum.ei.lkn.eces.nbi.benchmarks;
+
+import de.tum.ei.lkn.eces.nbi.NBISystem;
+import de.tum.ei.lkn.eces.nbi.TinyNetwork;
+import de.tum.ei.lkn.eces.nbi.client.NBIClient;
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import de.tum.ei.lkn.eces.nbi.json.JsonFields;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the NBI.
+ *
+ * Boots an NBI over the two-host network of the tests (see
+ * {@link TinyNetwork}) and sends it requests at a fixed rate, following a
+ * weighted mix of creations and removals of tenants, VMs and flows. Requests
+ * are issued at their scheduled time whether or not the previous ones have
+ * been answered, and latencies are measured from that scheduled time, so
+ * that a stalled NBI shows up in the percentiles instead of silently slowing
+ * the load down. A removal drawn when there is nothing to remove creates
+ * the resource instead, and is reported as a creation.
+ *
+ * Usage (through the benchmarks profile):
+ * <pre>
+ * mvn -P benchmarks test-compile exec:exec \
+ *     -Dbenchmark.main=de.tum.ei.lkn.eces.nbi.benchmarks.LoadGenerator \
+ *     -Dbenchmark.args="--rate 2000 --duration 60 --mix newFlow=4,removeFlow=4,newVM=1,removeVM=1"
+ * </pre>
+ *
+ * Options:
+ * <ul>
+ *     <li>--rate: requests per second (default 1000).</li>
+ *     <li>--duration: measurement duration in seconds (default 30).</li>
+ *     <li>--warmup: warmup duration in seconds, not recorded (default 10).</li>
+ *     <li>--connections: concurrent requests, and connections, to the NBI (default 64).</li>
+ *     <li>--protocol: http1 (one request at a time per connection) or h2c
+ *     (requests multiplexed over as few connections as possible) (default http1).</li>
+ *     <li>--tenants: tenants created upfront, owning the VMs and flows (default 16).</li>
+ *     <li>--mix: weights of the operations (default newTenant=1,removeTenant=1,newVM=2,removeVM=2,newFlow=4,removeFlow=4).</li>
+ *     <li>--port: port of the NBI (default 8096).</li>
+ *     <li>--hgrm: file to which the percentile distribution of all requests is written.</li>
+ * </ul>
+ *
+ * @author Amaury Van Bemten
+ */
+public class LoadGenerator {
+    private enum Operation {
+        NEW_TENANT("newTenant", null),
+        REMOVE_TENANT("removeTenant", NEW_TENANT),
+        NEW_VM("newVM", null),
+        REMOVE_VM("removeVM", NEW_VM),
+        NEW_FLOW("newFlow", null),
+        REMOVE_FLOW("removeFlow", NEW_FLOW);
+
+        private final String path;
+        // Operation performed instead of a removal when there is nothing to remove
+        private final Operation creation;
+
+        Operation(String path, Operation creation) {
+            this.path = path;
+            this.creation = creation;
+        }
+    }
+
+    // Highest recordable latency (us) and precision of the histograms
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final ThreadLocal<JsonFields> TENANT_RESPONSE = ThreadLocal.withInitial(() -> new JsonFields("id", "cookie"));
+    private static final ThreadLocal<JsonFields> ID_RESPONSE = ThreadLocal.withInitial(() -> new JsonFields("id"));
+
+    private final NBIClient client;
+    private final int[] weights;
+    private final int totalWeight;
+
+    // Tenants created upfront: {id, cookie, source VM ID, destination VM ID}
+    private final long[][] baseTenants;
+    // Resources created during the run, which removals draw from: {id, cookie}
+    private final Queue<long[]> tenants = new ConcurrentLinkedQueue<>();
+    private final Queue<long[]> vms = new ConcurrentLinkedQueue<>();
+    private final Queue<long[]> flows = new ConcurrentLinkedQueue<>();
+
+    private final Histogram[] latencies;
+    private final LongAdder[] errors;
+    private final Histogram allLatencies;
+    private volatile boolean recording;
+
+    private LoadGenerator(int port, NBIClient.Protocol protocol, int connections, int[] weights, int numberOfTenants) throws IOException {
+        this.client = new NBIClient("localhost", port, protocol, connections, TimeUnit.MICROSECONDS.toMillis(HIGHEST_LATENCY));
+        this.weights = weights;
+        int total = 0;
+        for(int weight : weights)
+            total += weight;
+        this.totalWeight = total;
+
+        this.latencies = new Histogram[Operation.values().length];
+        this.errors = new LongAdder[Operation.values().length];
+        for(int i = 0; i < latencies.length; i++) {
+            latencies[i] = new ConcurrentHistogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+            errors[i] = new LongAdder();
+        }
+        this.allLatencies = new ConcurrentHistogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+
+        this.baseTenants = new long[numberOfTenants][];
+        for(int i = 0; i < numberOfTenants; i++) {
+            long[] tenant = newTenant();
+            if(tenant == null)
+                throw new IllegalStateException("Unable to create the tenants");
+            long source = newVM(tenant, "lundi");
+            long destination = newVM(tenant, "mardi");
+            if(source < 0 || destination < 0)
+                throw new IllegalStateException("Unable to create the VMs");
+            baseTenants[i] = new long[]{tenant[0], tenant[1], source, destination};
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rate = 1000;
+        int duration = 30;
+        int warmup = 10;
+        int connections = 64;
+        int numberOfTenants = 16;
+        int port = 8096;
+        NBIClient.Protocol protocol = NBIClient.Protocol.HTTP_1_1;
+        String mix = "newTenant=1,removeTenant=1,newVM=2,removeVM=2,newFlow=4,removeFlow=4";
+        String hgrm = null;
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            switch(args[i]) {
+                case "--rate": rate = Integer.parseInt(args[i + 1]); break;
+                case "--duration": duration = Integer.parseInt(args[i + 1]); break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--connections": connections = Integer.parseInt(args[i + 1]); break;
+                case "--tenants": numberOfTenants = Integer.parseInt(args[i + 1]); break;
+                case "--mix": mix = args[i + 1]; break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--protocol": protocol = parseProtocol(args[i + 1]); break;
+                case "--hgrm": hgrm = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        NBISystem nbiSystem = TinyNetwork.startNBI(port);
+        try {
+            LoadGenerator generator = new LoadGenerator(port, protocol, connections, parseMix(mix), numberOfTenants);
+            generator.run(rate, warmup, duration, connections);
+            generator.report(System.out, duration);
+            if(hgrm != null) {
+                try(PrintStream out = new PrintStream(new FileOutputStream(hgrm), false, "UTF-8")) {
+                    // Microseconds, reported in milliseconds
+                    generator.allLatencies.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+            generator.client.close();
+        }
+        finally {
+            nbiSystem.stop();
+        }
+    }
+
+    private static NBIClient.Protocol parseProtocol(String protocol) {
+        switch(protocol) {
+            case "http1": return NBIClient.Protocol.HTTP_1_1;
+            case "h2c": return NBIClient.Protocol.H2C;
+            default: throw new IllegalArgumentException("Unknown protocol: " + protocol);
+        }
+    }
+
+    // Parses "operation=weight,..." into weights indexed by operation
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[Operation.values().length];
+        for(String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            Operation operation = null;
+            for(Operation candidate : Operation.values())
+                if(candidate.path.equals(parts[0]))
+                    operation = candidate;
+            if(operation == null || parts.length != 2)
+                throw new IllegalArgumentException("Invalid mix entry: " + entry);
+            weights[operation.ordinal()] = Integer.parseInt(parts[1]);
+        }
+        return weights;
+    }
+
+    // Issues requests at a fixed rate during the warmup and the measurement
+    private void run(int rate, int warmup, int duration, int connections) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long recordingStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = recordingStart + TimeUnit.SECONDS.toNanos(duration);
+
+        for(long scheduled = start; scheduled < end; scheduled += period) {
+            long delay = scheduled - System.nanoTime();
+            if(delay > 0)
+                LockSupport.parkNanos(delay);
+            if(!recording && scheduled >= recordingStart)
+                recording = true;
+
+            long intendedStart = scheduled;
+            boolean recorded = recording;
+            Operation operation = pick();
+            workers.execute(() -> {
+                // A removal with nothing to remove creates the resource instead, and is recorded as a creation
+                Operation performed = operation;
+                long[] target = null;
+                if(operation.creation != null) {
+                    target = removable(operation).poll();
+                    if(target == null)
+                        performed = operation.creation;
+                }
+                boolean success = execute(performed, target);
+                if(recorded) {
+                    long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+                    latencies[performed.ordinal()].recordValue(Math.min(latency, HIGHEST_LATENCY));
+                    allLatencies.recordValue(Math.min(latency, HIGHEST_LATENCY));
+                    if(!success)
+                        errors[performed.ordinal()].increment();
+                }
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    // Draws an operation according to the weights of the mix
+    private Operation pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for(Operation operation : Operation.values()) {
+            value -= weights[operation.ordinal()];
+            if(value < 0)
+                return operation;
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    // Resources which a removal draws from
+    private Queue<long[]> removable(Operation removal) {
+        switch(removal) {
+            case REMOVE_TENANT: return tenants;
+            case REMOVE_VM: return vms;
+            case REMOVE_FLOW: return flows;
+            default: throw new IllegalStateException("Not a removal: " + removal);
+        }
+    }
+
+    // Performs an operation, on the given {id, cookie} target for removals
+    private boolean execute(Operation operation, long[] target) {
+        long[] base = baseTenants[ThreadLocalRandom.current().nextInt(baseTenants.length)];
+        try {
+            switch(operation) {
+                case REMOVE_TENANT:
+                    return post(Operation.REMOVE_TENANT, "{\"tenantId\": " + target[0] + ", \"cookie\": " + target[1] + "}") != null;
+                case NEW_TENANT:
+                    long[] created = newTenant();
+                    if(created == null)
+                        return false;
+                    tenants.add(created);
+                    return true;
+                case REMOVE_VM:
+                    return post(Operation.REMOVE_VM, "{\"vmId\": " + target[0] + ", \"cookie\": " + target[1] + "}") != null;
+                case NEW_VM:
+                    long vmId = newVM(base, "vm");
+                    if(vmId < 0)
+                        return false;
+                    vms.add(new long[]{vmId, base[1]});
+                    return true;
+                case REMOVE_FLOW:
+                    return post(Operation.REMOVE_FLOW, "{\"flowId\": " + target[0] + ", \"cookie\": " + target[1] + "}") != null;
+                case NEW_FLOW:
+                    byte[] response = post(Operation.NEW_FLOW, "{\"tenantId\": " + base[0] + ", \"cookie\": " + base[1] + ", " +
+                            "\"name\": \"flow\", \"srcIp\": \"10.152.1.1\", \"dstIp\": \"10.152.1.2\", " +
+                            "\"srcPort\": 4, \"dstPort\": 41, \"protocol\": 17, " +
+                            "\"source\": " + base[2] + ", \"destination\": " + base[3] + ", " +
+                            "\"rate\": 25, \"burst\": 5, \"latency\": 22}");
+                    if(response == null)
+                        return false;
+                    JsonFields fields = ID_RESPONSE.get();
+                    fields.read(response);
+                    flows.add(new long[]{fields.getLong(0), base[1]});
+                    return true;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+        catch(IOException | InvalidRequestException e) {
+            return false;
+        }
+    }
+
+    // Creates a tenant and returns {id, cookie}, null on failure
+    private long[] newTenant() throws IOException {
+        byte[] response = post(Operation.NEW_TENANT, "{\"name\": \"tenant\"}");
+        if(response == null)
+            return null;
+        JsonFields fields = TENANT_RESPONSE.get();
+        try {
+            fields.read(response);
+        }
+        catch(InvalidRequestException e) {
+            return null;
+        }
+        return new long[]{fields.getLong(0), fields.getLong(1)};
+    }
+
+    // Creates a VM for a tenant and returns its ID, -1 on failure
+    private long newVM(long[] tenant, String name) throws IOException {
+        byte[] response = post(Operation.NEW_VM, "{\"tenantId\": " + tenant[0] + ", \"cookie\": " + tenant[1] + ", \"name\": \"" + name + "\"}");
+        if(response == null)
+            return -1;
+        JsonFields fields = ID_RESPONSE.get();
+        try {
+            fields.read(response);
+        }
+        catch(InvalidRequestException e) {
+            return -1;
+        }
+        return fields.getLong(0);
+    }
+
+    // Sends a request and returns the body of the response, null if the request failed
+    private byte[] post(Operation operation, String body) throws IOException {
+        NBIClient.Reply reply = client.call("/" + operation.path, body.getBytes(StandardCharsets.UTF_8));
+        return reply.isOk() ? reply.getBody() : null;
+    }
+
+    private void report(PrintStream out, int duration) {
+        out.printf("%-14s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "req/s", "p50 (us)", "p90 (us)", "p99 (us)", "p99.9 (us)", "max (us)");
+        for(Operation operation : Operation.values())
+            if(latencies[operation.ordinal()].getTotalCount() > 0)
+                report(out, operation.path, latencies[operation.ordinal()], errors[operation.ordinal()].sum(), duration);
+        long totalErrors = 0;
+        for(LongAdder adder : errors)
+            totalErrors += adder.sum();
+        report(out, "all", allLatencies, totalErrors, duration);
+    }
+
+    private void report(PrintStream out, String name, Histogram histogram, long errors, int duration) {
+        out.printf("%-14s %10d %8d %10.1f %10d %10d %10d %10d %10d%n",
+                name, histogram.getTotalCount(), errors, (double) histogram.getTotalCount() / duration,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+                histogram.getMaxValue());
+    }
+}
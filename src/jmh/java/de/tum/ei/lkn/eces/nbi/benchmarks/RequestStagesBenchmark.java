@@ -0,0 +1,172 @@
+package de.tum.ei.lkn.eces.nbi.benchmarks;
+
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongLongMap;
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongObjectMap;
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import de.tum.ei.lkn.eces.nbi.json.JsonFields;
+import de.tum.ei.lkn.eces.nbi.json.JsonWriter;
+import de.tum.ei.lkn.eces.nbi.requests.FlowSpec;
+import de.tum.ei.lkn.eces.nbi.tokens.TokenGenerator;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the stages of the processing of the NBI requests, in
+ * isolation: decoding of the body, validation, cookie check, registry
+ * lookup and encoding of the response.
+ *
+ * {@link #parseFlowWithJSONObject()} decodes the body of a flow request
+ * like the NBI did before {@link JsonFields}, for comparison with
+ * {@link #parseFlow()} and {@link #validateFlow()}. Their allocation rates
+ * are reported when running with the GC profiler ({@code -prof gc}).
+ *
+ * @author Amaury Van Bemten
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestStagesBenchmark {
+    // Number of registered resources
+    private static final int RESOURCES = 1 << 16;
+
+    private byte[] tenantBody;
+    private byte[] vmBody;
+    private byte[] flowBody;
+    private JsonFields tenantFields;
+    private JsonFields vmFields;
+    private JsonFields flowFields;
+    private JsonFields decodedFlowFields;
+
+    private ConcurrentLongLongMap cookies;
+    private ConcurrentLongObjectMap<Object> resources;
+    private long[] ids;
+    private int next;
+
+    private OutputStream sink;
+
+    @Setup
+    public void setUp() throws InvalidRequestException {
+        tenantBody = "{\"name\": \"tenant1\"}".getBytes(StandardCharsets.UTF_8);
+        vmBody = "{\"name\": \"vm1\", \"tenantId\": 1, \"cookie\": 4503599627370495}".getBytes(StandardCharsets.UTF_8);
+        flowBody = ("{\"tenantId\": 1, \"cookie\": 4503599627370495, \"name\": \"flow1\", " +
+                "\"srcIp\": \"10.152.1.1\", \"dstIp\": \"10.152.1.2\", \"srcPort\": 4, \"dstPort\": 41, \"protocol\": 17, " +
+                "\"source\": 2, \"destination\": 3, \"rate\": 25, \"burst\": 5, \"latency\": 22}").getBytes(StandardCharsets.UTF_8);
+
+        String[] flowNames = new String[2 + FlowSpec.FIELDS.length];
+        flowNames[0] = "tenantId";
+        flowNames[1] = "cookie";
+        System.arraycopy(FlowSpec.FIELDS, 0, flowNames, 2, FlowSpec.FIELDS.length);
+        tenantFields = new JsonFields("name");
+        vmFields = new JsonFields("tenantId", "cookie", "name");
+        flowFields = new JsonFields(flowNames);
+        decodedFlowFields = new JsonFields(flowNames);
+        decodedFlowFields.read(flowBody);
+
+        cookies = new ConcurrentLongLongMap();
+        resources = new ConcurrentLongObjectMap<>();
+        ids = new long[RESOURCES];
+        for(int i = 0; i < RESOURCES; i++) {
+            // Spread IDs, as when resources are created and removed over time
+            ids[i] = i * 7L + 3;
+            cookies.put(ids[i], TokenGenerator.nextToken());
+            resources.put(ids[i], new Object());
+        }
+
+        sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+    }
+
+    @Benchmark
+    public JsonFields parseTenant() throws InvalidRequestException {
+        tenantFields.read(tenantBody);
+        return tenantFields;
+    }
+
+    @Benchmark
+    public JsonFields parseVM() throws InvalidRequestException {
+        vmFields.read(vmBody);
+        return vmFields;
+    }
+
+    @Benchmark
+    public JsonFields parseFlow() throws InvalidRequestException {
+        flowFields.read(flowBody);
+        return flowFields;
+    }
+
+    // Previous decoding path: body as a string, JSONObject, boxed values, InetAddress parsing
+    @Benchmark
+    public FlowSpec parseFlowWithJSONObject() throws UnknownHostException {
+        JSONObject json = new JSONObject(new String(flowBody, StandardCharsets.UTF_8));
+        return new FlowSpec((String) json.get("name"),
+                ByteBuffer.wrap(Inet4Address.getByName((String) json.get("srcIp")).getAddress()).getInt(),
+                ByteBuffer.wrap(Inet4Address.getByName((String) json.get("dstIp")).getAddress()).getInt(),
+                (int) json.get("srcPort"), (int) json.get("dstPort"), (int) json.get("protocol"),
+                ((Number) json.get("source")).longValue(), ((Number) json.get("destination")).longValue(),
+                ((Number) json.get("rate")).longValue(), ((Number) json.get("burst")).longValue(),
+                ((Number) json.get("latency")).doubleValue());
+    }
+
+    @Benchmark
+    public FlowSpec validateFlow() throws InvalidRequestException {
+        return FlowSpec.fromFields(decodedFlowFields, 2);
+    }
+
+    @Benchmark
+    public boolean checkCookie() {
+        long id = ids[next++ & (RESOURCES - 1)];
+        return TokenGenerator.matches(cookies.get(id, 0), id);
+    }
+
+    @Benchmark
+    public Object lookupRegistry() {
+        return resources.get(ids[next++ & (RESOURCES - 1)]);
+    }
+
+    @Benchmark
+    public void encodeTenantResponse() throws IOException {
+        JsonWriter.get()
+                .beginObject()
+                .field("id", 12)
+                .field("cookie", 4503599627370495L)
+                .endObject()
+                .writeTo(sink);
+    }
+
+    @Benchmark
+    public void encodeVMResponse() throws IOException {
+        JsonWriter.get()
+                .beginObject()
+                .field("id", 13)
+                .field("management", "10.152.1.1:22")
+                .endObject()
+                .writeTo(sink);
+    }
+
+    @Benchmark
+    public void encodeFlowResponse() throws IOException {
+        JsonWriter.get()
+                .beginObject()
+                .field("id", 14)
+                .endObject()
+                .writeTo(sink);
+    }
+}
@@ -2,6 +2,7 @@ package de.tum.ei.lkn.eces.nbi;
 
 import de.tum.ei.lkn.eces.core.Component;
 import de.tum.ei.lkn.eces.core.annotations.ComponentBelongsTo;
+import de.tum.ei.lkn.eces.nbi.tokens.TokenGenerator;
 
 /**
  * Component representing the cookie for a tenant.
@@ -10,13 +11,31 @@ import de.tum.ei.lkn.eces.core.annotations.ComponentBelongsTo;
  */
 @ComponentBelongsTo(system = NBISystem.class)
 public class Cookie extends Component {
-    private int cookie;
+    private long cookie;
 
-    public Cookie(int cookie) {
+    public Cookie(long cookie) {
         this.cookie = cookie;
     }
 
-    public int getCookie() {
+    /**
+     * @return A new cookie with a random value.
+     */
+    public static Cookie generate() {
+        return new Cookie(TokenGenerator.nextToken());
+    }
+
+    public long getCookie() {
         return cookie;
     }
+
+    /**
+     * Checks a cookie provided by a client, in constant time (see
+     * {@link TokenGenerator#matches(long, long)}).
+     *
+     * @param cookie The provided cookie.
+     * @return Whether it is this cookie.
+     */
+    public boolean matches(long cookie) {
+        return TokenGenerator.matches(this.cookie, cookie);
+    }
 }
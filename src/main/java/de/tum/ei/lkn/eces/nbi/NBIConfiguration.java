@@ -0,0 +1,390 @@
+package de.tum.ei.lkn.eces.nbi;
+
+import de.tum.ei.lkn.eces.nbi.journal.Journal;
+import de.tum.ei.lkn.eces.nbi.scheduling.VirtualThreads;
+import de.tum.ei.lkn.eces.nbi.server.NBIServerFactory;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration of an {@link NBISystem}: port, HTTP server (including
+ * HTTP/2), load shedding and journal.
+ *
+ * Requests are served by a pool of worker threads, fed by a bounded queue of
+ * pending jobs. On top of that, the number of requests processed at once (in
+ * particular, waiting for the TenantManagerSystem) is limited: requests
+ * beyond that limit are rejected right away with a 503 and a
+ * {@code Retry-After} header, so that the latency of the accepted requests
+ * does not grow without bound when the TenantManagerSystem falls behind.
+ *
+ * The in-flight limit is the one meant to fire first: it must be lower than
+ * the number of threads handling requests, so that threads remain to answer
+ * the requests beyond it with a 503. The queue only holds requests waiting
+ * for one of these threads. Requests arriving faster than they can be
+ * rejected, and which do not fit in the queue, are also answered with a 503
+ * (by the thread which accepted them, without reaching the NBI) instead of
+ * having their connections closed.
+ *
+ * Setters can be chained and the defaults are the ones of Jetty where they
+ * exist.
+ *
+ * @author Amaury Van Bemten
+ */
+public class NBIConfiguration {
+    private int port = 8091;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int minThreads = 8;
+    private int maxThreads = 200;
+    private int threadIdleTimeoutMillis = 60000;
+    private int maxQueuedRequests = 1024;
+    private int acceptQueueSize = 0;
+    private long connectionIdleTimeoutMillis = 30000;
+    private int maxConnections = 0;
+    private int maxInFlightRequests = 150;
+    private int retryAfterSeconds = 1;
+    private double auditSamplingRate = 1;
+    private boolean virtualThreads = false;
+    private boolean http2 = true;
+    private int maxConcurrentStreams = 128;
+    private Path journalDirectory = null;
+    private long journalSegmentSize = Journal.DEFAULT_SEGMENT_SIZE;
+    private double tenantRate = 0;
+    private int tenantBurst = 100;
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param port Port on which the REST API is exposed (0 for any free port).
+     * @return This configuration.
+     */
+    public NBIConfiguration setPort(int port) {
+        check(port >= 0 && port <= 65535, "port", port);
+        this.port = port;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism Maximum number of tenants whose operations are
+     *                    processed concurrently.
+     * @return This configuration.
+     */
+    public NBIConfiguration setParallelism(int parallelism) {
+        check(parallelism >= 1, "parallelism", parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    /**
+     * @param minThreads Number of worker threads kept alive when idle.
+     * @return This configuration.
+     */
+    public NBIConfiguration setMinThreads(int minThreads) {
+        check(minThreads >= 1, "minimum number of threads", minThreads);
+        this.minThreads = minThreads;
+        return this;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * @param maxThreads Maximum number of worker threads (including the ones
+     *                   accepting and selecting connections).
+     * @return This configuration.
+     */
+    public NBIConfiguration setMaxThreads(int maxThreads) {
+        check(maxThreads >= 1, "maximum number of threads", maxThreads);
+        this.maxThreads = maxThreads;
+        return this;
+    }
+
+    public int getThreadIdleTimeoutMillis() {
+        return threadIdleTimeoutMillis;
+    }
+
+    /**
+     * @param threadIdleTimeoutMillis Time after which an idle worker thread
+     *                                beyond the minimum is stopped.
+     * @return This configuration.
+     */
+    public NBIConfiguration setThreadIdleTimeoutMillis(int threadIdleTimeoutMillis) {
+        check(threadIdleTimeoutMillis >= 0, "thread idle timeout", threadIdleTimeoutMillis);
+        this.threadIdleTimeoutMillis = threadIdleTimeoutMillis;
+        return this;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * @param maxQueuedRequests Maximum number of jobs (e.g., requests) waiting
+     *                          for a worker thread, beyond which requests are
+     *                          rejected with a 503.
+     * @return This configuration.
+     */
+    public NBIConfiguration setMaxQueuedRequests(int maxQueuedRequests) {
+        check(maxQueuedRequests >= 1, "maximum number of queued requests", maxQueuedRequests);
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    /**
+     * @param acceptQueueSize Backlog of connections waiting to be accepted
+     *                        (0 for the default of the OS).
+     * @return This configuration.
+     */
+    public NBIConfiguration setAcceptQueueSize(int acceptQueueSize) {
+        check(acceptQueueSize >= 0, "accept queue size", acceptQueueSize);
+        this.acceptQueueSize = acceptQueueSize;
+        return this;
+    }
+
+    public long getConnectionIdleTimeoutMillis() {
+        return connectionIdleTimeoutMillis;
+    }
+
+    /**
+     * @param connectionIdleTimeoutMillis Time after which an idle connection
+     *                                    is closed.
+     * @return This configuration.
+     */
+    public NBIConfiguration setConnectionIdleTimeoutMillis(long connectionIdleTimeoutMillis) {
+        check(connectionIdleTimeoutMillis >= 0, "connection idle timeout", connectionIdleTimeoutMillis);
+        this.connectionIdleTimeoutMillis = connectionIdleTimeoutMillis;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections Maximum number of open connections, beyond which
+     *                       new connections are not accepted anymore (0 for
+     *                       no limit).
+     * @return This configuration.
+     */
+    public NBIConfiguration setMaxConnections(int maxConnections) {
+        check(maxConnections >= 0, "maximum number of connections", maxConnections);
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    /**
+     * @param maxInFlightRequests Maximum number of requests processed at
+     *                            once, beyond which requests are rejected
+     *                            with a 503. It must be lower than the
+     *                            maximum number of threads minus the ones
+     *                            accepting and selecting connections, so that
+     *                            threads remain to reject the requests beyond
+     *                            it.
+     * @return This configuration.
+     */
+    public NBIConfiguration setMaxInFlightRequests(int maxInFlightRequests) {
+        check(maxInFlightRequests >= 1, "maximum number of in-flight requests", maxInFlightRequests);
+        this.maxInFlightRequests = maxInFlightRequests;
+        return this;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @param retryAfterSeconds Delay after which clients are advised to
+     *                          retry a rejected request.
+     * @return This configuration.
+     */
+    public NBIConfiguration setRetryAfterSeconds(int retryAfterSeconds) {
+        check(retryAfterSeconds >= 0, "retry delay", retryAfterSeconds);
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    public double getAuditSamplingRate() {
+        return auditSamplingRate;
+    }
+
+    /**
+     * @param auditSamplingRate Fraction of the requests written to the audit
+     *                          log, between 0 and 1.
+     * @return This configuration.
+     */
+    public NBIConfiguration setAuditSamplingRate(double auditSamplingRate) {
+        check(auditSamplingRate >= 0 && auditSamplingRate <= 1, "audit sampling rate", auditSamplingRate);
+        this.auditSamplingRate = auditSamplingRate;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs the requests and the lanes of the tenants on virtual threads
+     * (Java 21 and later). Waiting requests then do not hold platform
+     * threads: the thread settings are ignored, the number of requests
+     * processed at once is only bounded by the maximum number of in-flight
+     * requests and the calls to the TenantManagerSystem by the parallelism.
+     *
+     * @param virtualThreads Whether to use virtual threads.
+     * @return This configuration.
+     * @throws UnsupportedOperationException if virtual threads are requested
+     *                                       but not supported by the JDK.
+     */
+    public NBIConfiguration setVirtualThreads(boolean virtualThreads) {
+        if(virtualThreads && !VirtualThreads.isAvailable())
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Connections are persistent and HTTP/1.1 requests can be pipelined in
+     * any case. On top of that, clients can talk HTTP/2 over cleartext
+     * (h2c, by prior knowledge or upgrade) on the same port, multiplexing
+     * their requests over a few connections.
+     *
+     * @param http2 Whether HTTP/2 is accepted.
+     * @return This configuration.
+     */
+    public NBIConfiguration setHttp2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * @param maxConcurrentStreams Maximum number of requests multiplexed at
+     *                             once over an HTTP/2 connection.
+     * @return This configuration.
+     */
+    public NBIConfiguration setMaxConcurrentStreams(int maxConcurrentStreams) {
+        check(maxConcurrentStreams >= 1, "maximum number of concurrent streams", maxConcurrentStreams);
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        return this;
+    }
+
+    public Path getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * Journals the creations and removals of resources in a directory, from
+     * which they are recreated when an NBI is started again with the same
+     * directory (see {@link Journal}). Requests are only acknowledged once
+     * their operations are durable.
+     *
+     * @param journalDirectory Directory of the journal, null (the default)
+     *                         for no journal.
+     * @return This configuration.
+     */
+    public NBIConfiguration setJournalDirectory(Path journalDirectory) {
+        this.journalDirectory = journalDirectory;
+        return this;
+    }
+
+    public long getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /**
+     * @param journalSegmentSize Size of the files of the journal, after which
+     *                           a new file is started and the previous ones
+     *                           are compacted.
+     * @return This configuration.
+     */
+    public NBIConfiguration setJournalSegmentSize(long journalSegmentSize) {
+        check(journalSegmentSize >= 4096 && journalSegmentSize <= Integer.MAX_VALUE, "journal segment size", journalSegmentSize);
+        this.journalSegmentSize = journalSegmentSize;
+        return this;
+    }
+
+    public double getTenantRate() {
+        return tenantRate;
+    }
+
+    /**
+     * Limits the rate of the operations of each tenant (creations and
+     * removals, a batch counting as many operations as it contains).
+     * Requests of a tenant exceeding its rate are rejected with a 429.
+     *
+     * @param tenantRate Sustained number of operations per second of each
+     *                   tenant, 0 (the default) for no limit.
+     * @return This configuration.
+     */
+    public NBIConfiguration setTenantRate(double tenantRate) {
+        check(tenantRate >= 0, "tenant rate", tenantRate);
+        this.tenantRate = tenantRate;
+        return this;
+    }
+
+    public int getTenantBurst() {
+        return tenantBurst;
+    }
+
+    /**
+     * @param tenantBurst Number of operations a tenant can submit at once
+     *                    when its rate is limited.
+     * @return This configuration.
+     */
+    public NBIConfiguration setTenantBurst(int tenantBurst) {
+        check(tenantBurst >= 1, "tenant burst", tenantBurst);
+        this.tenantBurst = tenantBurst;
+        return this;
+    }
+
+    /**
+     * Checks the settings which depend on each other, which cannot be checked
+     * by their setters (they can be called in any order).
+     *
+     * @throws IllegalArgumentException if the settings are inconsistent.
+     */
+    public void validate() {
+        // Virtual threads are not pooled
+        if(virtualThreads)
+            return;
+
+        if(minThreads > maxThreads)
+            throw new IllegalArgumentException("Invalid minimum number of threads (" + minThreads + " given, more than the maximum of " + maxThreads + ")");
+
+        int workerThreads = maxThreads - NBIServerFactory.getConnectorThreads(maxThreads);
+        if(maxInFlightRequests >= workerThreads)
+            throw new IllegalArgumentException("Invalid maximum number of in-flight requests (" + maxInFlightRequests + " given, not less than the " + workerThreads + " threads handling requests)");
+
+        if(maxInFlightRequests > maxQueuedRequests + maxThreads)
+            throw new IllegalArgumentException("Invalid maximum number of in-flight requests (" + maxInFlightRequests + " given, more than the " + (maxQueuedRequests + maxThreads) + " queued and running requests)");
+    }
+
+    private static void check(boolean valid, String name, Object value) {
+        if(!valid)
+            throw new IllegalArgumentException("Invalid " + name + " (" + value + " given)");
+    }
+}
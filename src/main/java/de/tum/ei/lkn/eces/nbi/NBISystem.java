@@ -2,594 +2,1838 @@ package de.tum.ei.lkn.eces.nbi;
 
 import de.tum.ei.lkn.eces.core.Controller;
 import de.tum.ei.lkn.eces.core.RootSystem;
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongLongMap;
+import de.tum.ei.lkn.eces.nbi.collections.Recycler;
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import de.tum.ei.lkn.eces.nbi.json.JsonFields;
+import de.tum.ei.lkn.eces.nbi.json.JsonReader;
+import de.tum.ei.lkn.eces.nbi.json.JsonWriter;
+import de.tum.ei.lkn.eces.nbi.journal.Journal;
+import de.tum.ei.lkn.eces.nbi.journal.JournalState;
+import de.tum.ei.lkn.eces.nbi.logging.AuditLog;
+import de.tum.ei.lkn.eces.nbi.logging.LogContext;
 import de.tum.ei.lkn.eces.nbi.mappers.CookieMapper;
+import de.tum.ei.lkn.eces.nbi.metrics.ErrorReason;
+import de.tum.ei.lkn.eces.nbi.metrics.NBIMetrics;
+import de.tum.ei.lkn.eces.nbi.metrics.RouteMetrics;
+import de.tum.ei.lkn.eces.nbi.metrics.TenantManagerCall;
+import de.tum.ei.lkn.eces.nbi.registry.ResourceRegistry;
+import de.tum.ei.lkn.eces.nbi.requests.AdmissionCache;
+import de.tum.ei.lkn.eces.nbi.requests.FlowSpec;
+import de.tum.ei.lkn.eces.nbi.requests.IdempotencyCache;
+import de.tum.ei.lkn.eces.nbi.requests.Ipv4;
+import de.tum.ei.lkn.eces.nbi.scheduling.JobRegistry;
+import de.tum.ei.lkn.eces.nbi.scheduling.TenantRateLimiter;
+import de.tum.ei.lkn.eces.nbi.scheduling.TenantScheduler;
+import de.tum.ei.lkn.eces.nbi.scheduling.VirtualThreads;
+import de.tum.ei.lkn.eces.nbi.server.NBIServerFactory;
+import de.tum.ei.lkn.eces.nbi.tokens.TokenGenerator;
 import de.tum.ei.lkn.eces.tenantmanager.Flow;
 import de.tum.ei.lkn.eces.tenantmanager.Tenant;
 import de.tum.ei.lkn.eces.tenantmanager.TenantManagerSystem;
 import de.tum.ei.lkn.eces.tenantmanager.VirtualMachine;
 import de.tum.ei.lkn.eces.tenantmanager.exceptions.TenantManagerException;
-import org.json.JSONException;
-import org.json.JSONObject;
+import spark.HaltException;
 import spark.Request;
 import spark.Response;
+import spark.Route;
+import spark.Service;
 import spark.Spark;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
-import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
 
 /**
  * Northbound interface (SBI) system responsible for exposing an interface to applications.
  *
  * The system allows applications to request flow embeddings through a REST API.
+ * Spark serves routes from a pool of worker threads, so the tenants, VMs and
+ * flows are kept in a concurrent {@link ResourceRegistry} and removals are
+ * performed atomically: a resource is only torn down by the request which
+ * actually removed it from the registry. Removing a tenant or a VM also
+ * unregisters the resources it contained.
+ *
+ * All the operations on the resources of a tenant are run through the
+ * {@link TenantScheduler}: calls to the TenantManagerSystem for one tenant are
+ * serialized in its own lane, while lanes of different tenants run in
+ * parallel. A slow flow embedding of one tenant thus only delays the
+ * requests of that tenant. Tenants can be given more turns than others
+ * with {@link #setTenantWeight(long, int)}, and the rate of the operations
+ * of each tenant can be limited (see
+ * {@link NBIConfiguration#setTenantRate(double)}): requests beyond it are
+ * rejected by a {@link TenantRateLimiter} before reaching the lanes.
+ *
+ * Each NBI runs its own embedded HTTP server (a Spark {@link Service}), with
+ * its own port and thread pool, so that several NBIs can be started in the
+ * same JVM, e.g. to spread the tenants of a controller over several
+ * listeners.
+ *
+ * Flows can also be created asynchronously ({@code /newFlow?async=true}):
+ * the request then only returns the ID of a job, whose outcome is
+ * retrieved (and possibly waited for) through {@code /jobs/:id}.
+ *
+ * Creation requests can carry a {@code requestId}: a retry with the same ID
+ * (and body) is answered with the response to the first request, from an
+ * {@link IdempotencyCache}, instead of creating the resource again.
+ *
+ * Flows refused by the TenantManagerSystem are remembered in an
+ * {@link AdmissionCache} until a flow or a VM is removed: retries of an
+ * infeasible flow are refused again without being routed, nor waiting in
+ * the lane of the tenant.
+ *
+ * Tenants, their VMs and their flows can be read back through
+ * {@code /tenants/:id}, {@code /tenants/:id/vms} and
+ * {@code /tenants/:id/flows}. Listings are served from the registry without
+ * going through the lanes of the tenants, page by page (the cursor being the
+ * last ID of the previous page) and streamed as they are encoded.
+ *
+ * Counters and latency histograms of the routes and of the calls to the
+ * TenantManagerSystem are exposed in the Prometheus format at
+ * {@code /metrics} (see {@link NBIMetrics}).
+ *
+ * Resources are identified by IDs assigned by the NBI. When a journal
+ * directory is configured, creations and removals are written to a
+ * {@link Journal} before being acknowledged, and the resources it describes
+ * are recreated (under the same IDs and cookies) when the NBI starts, the
+ * tenants being replayed in parallel in their lanes.
  *
  * @author Amaury Van Bemten
  */
 public class NBISystem extends RootSystem {
-    private Map<Long, Tenant> tenants;
-    private Map<Long, VirtualMachine> vms;
-    private Map<Long, Flow> flows;
+    // Maximum number of asynchronous jobs pending or whose result has not been fetched
+    private static final int MAX_JOBS = 10000;
+    // Time after which the result of a job can be discarded if not fetched
+    private static final long JOB_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // Maximum time a client can wait for the completion of a job in a single request
+    private static final long MAX_JOB_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // Maximum number of entries of the audit log waiting to be written
+    private static final int AUDIT_LOG_CAPACITY = 8192;
+    // Number of elements listed per page by default and at most
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    // Size of the chunks in which listings are streamed
+    private static final int STREAM_CHUNK_SIZE = 16 * 1024;
+    // Maximum number of request IDs remembered, time during which they are and maximum length
+    private static final int MAX_REQUEST_IDS = 100000;
+    private static final long REQUEST_ID_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_REQUEST_ID_LENGTH = 64;
+    // Maximum number of refused flow specifications remembered
+    private static final int MAX_REFUSED_FLOWS = 10000;
+
+    // Indices of the fields decoded from the bodies of the requests
+    private static final int TENANT_NAME = 0;
+    private static final int ID = 0; // tenant, VM or flow ID
+    private static final int COOKIE = 1;
+    private static final int NAME = 2;
+    private static final int FLOWS = 2;
+    private static final int FLOW_SPEC = 2;
+    private static final int IDS = 2;
+    private static final int TENANT_REQUEST_ID = 1;
+    private static final int VM_REQUEST_ID = 3;
+    private static final int FLOW_REQUEST_ID = FLOW_SPEC + FlowSpec.FIELDS.length;
+
+    // Identifiers of the embedded servers of the NBIs
+    private static final AtomicInteger SERVER_COUNTER = new AtomicInteger();
+
+    // Request attribute marking requests refused by the TenantManagerSystem
+    private static final String TENANT_MANAGER_ERROR = "nbi.tenantManagerError";
+
+    // Decoders of the bodies of the requests, reused by each worker thread (or passed on between virtual threads)
+    private static final Recycler<JsonFields> TENANT_DECODER = Recycler.withInitial(() -> new JsonFields(1, "name", "requestId"));
+    private static final Recycler<JsonFields> VM_DECODER = Recycler.withInitial(() -> new JsonFields(1, "tenantId", "cookie", "name", "requestId"));
+    private static final Recycler<JsonFields> FLOW_DECODER = Recycler.withInitial(() -> new JsonFields(1, withRequestId(FlowSpec.withFields("tenantId", "cookie"))));
+    private static final Recycler<JsonFields> FLOWS_DECODER = Recycler.withInitial(() -> new JsonFields("tenantId", "cookie", "flows"));
+    private static final Recycler<JsonFields> FLOW_SPEC_DECODER = Recycler.withInitial(() -> new JsonFields(FlowSpec.FIELDS));
+    private static final Recycler<JsonFields> REMOVE_FLOW_DECODER = Recycler.withInitial(() -> new JsonFields("flowId", "cookie"));
+    private static final Recycler<JsonFields> REMOVE_VM_DECODER = Recycler.withInitial(() -> new JsonFields("vmId", "cookie"));
+    private static final Recycler<JsonFields> REMOVE_FLOWS_DECODER = Recycler.withInitial(() -> new JsonFields("tenantId", "cookie", "flowIds"));
+    private static final Recycler<JsonFields> REMOVE_VMS_DECODER = Recycler.withInitial(() -> new JsonFields("tenantId", "cookie", "vmIds"));
+    private static final Recycler<JsonFields> REMOVE_TENANT_DECODER = Recycler.withInitial(() -> new JsonFields("tenantId", "cookie"));
+
+    private ResourceRegistry registry;
 
     private TenantManagerSystem tenantManagerSystem;
 
+    private TenantScheduler scheduler;
+    // Null if the rate of the tenants is not limited
+    private TenantRateLimiter rateLimiter;
+    private JobRegistry<Long> flowJobs;
+
+    // Responses to the creation requests by request ID, and number of retries answered from them
+    private IdempotencyCache requestIds;
+    private LongAdder repeatedRequests;
+
+    // Flows refused since the last removal, and number of flows refused again from it
+    private AdmissionCache refusedFlows;
+    private LongAdder cachedRefusals;
+
     private CookieMapper cookieMapper;
+    // Cookies of the tenants by tenant ID, kept coherent with the Cookie components
+    private ConcurrentLongLongMap cookies;
+
+    private NBIMetrics metrics;
+    private AuditLog auditLog;
+    // Null if the NBI is not journaled
+    private Journal journal;
+    // Threads forcing the journal to disk for the asynchronous requests, outside of the lanes (null if not journaled)
+    private ExecutorService journalSyncs;
+
+    private NBIConfiguration configuration;
+
+    // HTTP server of this instance and number of requests it is processing
+    private Service http;
+    private AtomicInteger inFlightRequests;
+
+    /**
+     * Handler of a route, recording its metrics in the given route metrics.
+     */
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(Request request, Response response, RouteMetrics route);
+    }
+
+    /**
+     * Encoder of the fields of the elements of a listing.
+     */
+    @FunctionalInterface
+    private interface ElementEncoder<T> {
+        void encode(JsonWriter json, long id, T element);
+    }
 
     public NBISystem(TenantManagerSystem tenantManagerSystem, Controller controller) {
         this(tenantManagerSystem, controller, 8091);
     }
 
     public NBISystem(TenantManagerSystem tenantManagerSystem, Controller controller, int port) {
+        this(tenantManagerSystem, controller, port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the NBI.
+     *
+     * @param tenantManagerSystem Tenant manager to which calls are forwarded.
+     * @param controller ECES controller.
+     * @param port Port on which the REST API is exposed.
+     * @param parallelism Maximum number of tenants whose operations are
+     *                    processed concurrently.
+     */
+    public NBISystem(TenantManagerSystem tenantManagerSystem, Controller controller, int port, int parallelism) {
+        this(tenantManagerSystem, controller, new NBIConfiguration().setPort(port).setParallelism(parallelism));
+    }
+
+    /**
+     * Creates the NBI.
+     *
+     * @param tenantManagerSystem Tenant manager to which calls are forwarded.
+     * @param controller ECES controller.
+     * @param configuration Configuration of the NBI.
+     * @throws IllegalArgumentException if the configuration is inconsistent.
+     */
+    public NBISystem(TenantManagerSystem tenantManagerSystem, Controller controller, NBIConfiguration configuration) {
         super(controller);
 
-        tenants = new HashMap<>();
-        vms = new HashMap<>();
-        flows = new HashMap<>();
+        configuration.validate();
+        this.configuration = configuration;
+        registry = new ResourceRegistry();
 
         this.tenantManagerSystem = tenantManagerSystem;
+        this.scheduler = new TenantScheduler(configuration.getParallelism(), configuration.isVirtualThreads());
+        if(configuration.getTenantRate() > 0)
+            this.rateLimiter = new TenantRateLimiter(configuration.getTenantRate(), configuration.getTenantBurst());
+        this.flowJobs = new JobRegistry<>(MAX_JOBS, JOB_RETENTION_MILLIS);
+        this.requestIds = new IdempotencyCache(MAX_REQUEST_IDS, REQUEST_ID_RETENTION_MILLIS);
+        this.repeatedRequests = new LongAdder();
+        this.refusedFlows = new AdmissionCache(MAX_REFUSED_FLOWS);
+        this.cachedRefusals = new LongAdder();
 
         cookieMapper = new CookieMapper(controller);
+        cookies = new ConcurrentLongLongMap();
+
+        auditLog = new AuditLog(AUDIT_LOG_CAPACITY, configuration.getAuditSamplingRate());
+
+        inFlightRequests = new AtomicInteger();
+        metrics = new NBIMetrics();
+        metrics.gauge("nbi_tenants", "Registered tenants.", registry::getNumberOfTenants);
+        metrics.gauge("nbi_vms", "Registered VMs.", registry::getNumberOfVMs);
+        metrics.gauge("nbi_flows", "Registered flows.", registry::getNumberOfFlows);
+        metrics.gauge("nbi_active_lanes", "Tenants with pending or running operations.", scheduler::getNumberOfActiveLanes);
+        metrics.gauge("nbi_jobs", "Asynchronous jobs pending or whose result has not been fetched.", flowJobs::size);
+        metrics.gauge("nbi_in_flight_requests", "Requests being processed.", inFlightRequests::get);
+        metrics.gauge("nbi_request_ids", "Request IDs whose responses are remembered.", requestIds::size);
+        metrics.counter("nbi_repeated_requests_total", "Retried requests answered with the response to the first request.", repeatedRequests::sum);
+        metrics.gauge("nbi_refused_flows", "Flow specifications refused since the last removal.", refusedFlows::size);
+        metrics.counter("nbi_cached_refusals_total", "Flows refused again without calling the TenantManagerSystem.", cachedRefusals::sum);
+        metrics.counter("nbi_audit_log_entries_total", "Requests written to the audit log.", auditLog::getEntries);
+        metrics.counter("nbi_audit_log_dropped_total", "Requests not written to the audit log because it was full.", auditLog::getDropped);
+
+        if(configuration.getJournalDirectory() != null) {
+            try {
+                journal = new Journal(configuration.getJournalDirectory(), configuration.getJournalSegmentSize());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open the journal", e);
+            }
+            metrics.counter("nbi_journal_flushes_total", "Times the journal was forced to disk.", journal::getFlushes);
+            if(configuration.isVirtualThreads()) {
+                journalSyncs = VirtualThreads.newExecutor("nbi-sync-");
+            }
+            else {
+                AtomicInteger threadCounter = new AtomicInteger();
+                journalSyncs = Executors.newFixedThreadPool(configuration.getParallelism(), runnable -> {
+                    Thread thread = new Thread(runnable, "nbi-sync-" + threadCounter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            recover(journal.getRecoveredState());
+        }
 
-        Spark.port(port);
-        Spark.post("/newTenant", this::newTenant);
-        Spark.post("/newVM", this::newVM);
-        Spark.post("/newFlow", this::newFlow);
-        Spark.post("/removeTenant", this::removeTenant);
-        Spark.post("/removeVM", this::removeVM);
-        Spark.post("/removeFlow", this::removeFlow);
-        Spark.awaitInitialization();
+        String serverIdentifier = "nbi-" + SERVER_COUNTER.incrementAndGet();
+        NBIServerFactory serverFactory = new NBIServerFactory(configuration);
+        metrics.counter("nbi_queue_rejections_total", "Requests rejected because they did not fit in the queue of the thread pool.", serverFactory::getRejectedRequests);
+        EmbeddedServers.add(serverIdentifier, new EmbeddedJettyFactory(serverFactory));
+        http = Service.ignite()
+                .embeddedServerIdentifier(serverIdentifier)
+                .port(configuration.getPort())
+                .threadPool(configuration.getMaxThreads(), configuration.getMinThreads(), configuration.getThreadIdleTimeoutMillis());
+        http.post("/newTenant", route("newTenant", this::newTenant));
+        http.post("/newVM", route("newVM", this::newVM));
+        http.post("/newFlow", route("newFlow", this::newFlow));
+        http.post("/newFlows", route("newFlows", this::newFlows));
+        http.post("/removeTenant", route("removeTenant", this::removeTenant));
+        http.post("/removeVM", route("removeVM", this::removeVM));
+        http.post("/removeFlow", route("removeFlow", this::removeFlow));
+        http.post("/removeVMs", route("removeVMs", this::removeVMs));
+        http.post("/removeFlows", route("removeFlows", this::removeFlows));
+        http.get("/jobs/:id", route("jobs", this::getJob));
+        http.get("/tenants/:id", route("tenant", this::getTenant));
+        http.get("/tenants/:id/vms", route("tenantVMs", this::getTenantVMs));
+        http.get("/tenants/:id/flows", route("tenantFlows", this::getTenantFlows));
+        http.get("/metrics", this::scrapeMetrics);
+        http.awaitInitialization();
+    }
+
+    ResourceRegistry getRegistry() {
+        return registry;
+    }
+
+    NBIMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Port on which the REST API is exposed.
+     */
+    public int getPort() {
+        return http.port();
     }
 
     public void stop() {
-        Spark.stop();
-        Spark.awaitStop();
+        http.stop();
+        http.awaitStop();
+        scheduler.shutdown();
+        auditLog.close();
+        if(journal != null) {
+            journalSyncs.shutdown();
+            journal.close();
+        }
+    }
+
+    /**
+     * Sets the fraction of the requests written to the audit log (all by
+     * default). The audit log is written at INFO level to the logger of
+     * {@link AuditLog}.
+     *
+     * @param samplingRate Fraction of the requests, between 0 and 1.
+     */
+    public void setAuditSamplingRate(double samplingRate) {
+        auditLog.setSamplingRate(samplingRate);
+    }
+
+    /**
+     * Sets the weight of a tenant: when the TenantManagerSystem is busy, a
+     * tenant of weight w gets w turns for each turn of a tenant of weight 1.
+     *
+     * @param tenantId ID of the tenant.
+     * @param weight Weight of the tenant, 1 by default.
+     */
+    public void setTenantWeight(long tenantId, int weight) {
+        scheduler.setWeight(tenantId, weight);
+    }
+
+    private static String[] withRequestId(String... keys) {
+        String[] result = Arrays.copyOf(keys, keys.length + 1);
+        result[keys.length] = "requestId";
+        return result;
+    }
+
+    // Wraps the handler of a route with the recording of the number, outcome and duration of its requests
+    private Route route(String name, Handler handler) {
+        RouteMetrics route = metrics.route(name);
+        return (request, response) -> {
+            long start = System.nanoTime();
+            int status = 200;
+            String error = null;
+            boolean admitted = inFlightRequests.incrementAndGet() <= configuration.getMaxInFlightRequests();
+            try {
+                // Shedding load instead of queuing behind the requests in progress
+                if(!admitted) {
+                    response.header("Retry-After", String.valueOf(configuration.getRetryAfterSeconds()));
+                    throw Spark.halt(503, "Too many requests in progress");
+                }
+
+                return handler.handle(request, response, route);
+            }
+            catch(HaltException e) {
+                route.error(errorReason(request, e));
+                status = e.statusCode();
+                error = e.body();
+                throw e;
+            }
+            catch(RuntimeException e) {
+                route.error(ErrorReason.INTERNAL);
+                status = 500;
+                error = e.toString();
+                throw e;
+            }
+            finally {
+                inFlightRequests.decrementAndGet();
+                long duration = System.nanoTime() - start;
+                route.request(duration);
+                auditLog.record(request, status, error, duration);
+                // Each request has its own virtual thread: the writer, decoders and token generator it used go to the next ones
+                if(configuration.isVirtualThreads())
+                    Recycler.releaseAll();
+            }
+        };
+    }
+
+    // Classifies the rejection of a request
+    private static ErrorReason errorReason(Request request, HaltException e) {
+        if(request.attribute(TENANT_MANAGER_ERROR) != null)
+            return ErrorReason.TENANT_MANAGER;
+        if(e.statusCode() == 503)
+            return ErrorReason.OVERLOADED;
+        if(e.statusCode() == 429)
+            return ErrorReason.THROTTLED;
+        if(e.statusCode() >= 500)
+            return ErrorReason.INTERNAL;
+
+        String body = e.body();
+        if("Invalid cookie".equals(body))
+            return ErrorReason.INVALID_COOKIE;
+        if("This is not a valid JSON format".equals(body))
+            return ErrorReason.INVALID_JSON;
+        if(body != null && body.startsWith("A key is missing"))
+            return ErrorReason.MISSING_KEY;
+        return ErrorReason.INVALID_REQUEST;
+    }
+
+    // Rejects a request whose operation was refused by the TenantManagerSystem
+    private static HaltException refuse(Request request, TenantManagerException e) {
+        request.attribute(TENANT_MANAGER_ERROR, Boolean.TRUE);
+        return Spark.halt(400, e.getMessage());
+    }
+
+    private Object scrapeMetrics(Request request, Response response) {
+        response.type(NBIMetrics.CONTENT_TYPE);
+        return metrics.scrape();
+    }
+
+    // Sends the JSON document of a writer as the body of a response
+    private Object send(Response response, JsonWriter json) {
+        response.type("application/json");
+        try {
+            json.writeTo(response.raw());
+        } catch (IOException e) {
+            logger.error("Unable to send the response: " + e.getMessage());
+        }
+
+        // Already written
+        return "";
     }
 
-    private JSONObject getJONObject(String string) {
-        JSONObject json;
+    // Sends an encoded JSON document as the body of a response
+    private Object send(Response response, byte[] json) {
+        response.type("application/json");
+        HttpServletResponse raw = response.raw();
+        raw.setCharacterEncoding("UTF-8");
+        raw.setContentLength(json.length);
         try {
-            json = new JSONObject(string);
+            raw.getOutputStream().write(json);
+        } catch (IOException e) {
+            logger.error("Unable to send the response: " + e.getMessage());
         }
-        catch(JSONException e) {
+
+        // Already written
+        return "";
+    }
+
+    // Reads the optional request ID of a creation request (null if absent), halts with a 400 if it is not valid
+    private String getRequestId(JsonFields fields, int index, LogContext logContext) {
+        if(!fields.has(index))
             return null;
+
+        if(!fields.isString(index)) {
+            String message = "Request ID should be a string";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
         }
+        String requestId = fields.getString(index);
 
-        return json;
+        if(requestId.isEmpty() || requestId.length() > MAX_REQUEST_ID_LENGTH) {
+            String message = "Request ID should have between 1 and " + MAX_REQUEST_ID_LENGTH + " characters";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+        return requestId;
     }
 
-    private Object newTenant(Request request, Response response) {
-        String preErrorLogMessage = request.pathInfo() + ": " + request.body().replace("\n", " ") + ": ";
+    // Key of a creation request in the idempotency cache: its request ID scoped to the route and to the tenant, null if it has no request ID
+    private static String requestKey(String route, long tenantId, String requestId) {
+        if(requestId == null)
+            return null;
+        return route + '/' + tenantId + '/' + requestId;
+    }
 
-        logger.info(preErrorLogMessage);
+    // Performs a creation request and sends its response, at most once per request key: retries get the response to the first request
+    // Only performed requests are charged to the rate limit of the tenant, not the retries answered from the cache
+    private Object sendOnce(Request request, Response response, String key, long tenantId, int operations, LogContext logContext, Supplier<JsonWriter> operation) {
+        if(key == null) {
+            throttle(tenantId, operations, response, logContext);
+            return send(response, operation.get());
+        }
 
-        JSONObject json = getJONObject(request.body());
-        if(json == null) {
-            logger.error(request.body() + " is not a valid JSON format!");
-            return Spark.halt(400, "This is not a valid JSON format");
+        CRC32 fingerprint = new CRC32();
+        fingerprint.update(request.bodyAsBytes());
+        while(true) {
+            IdempotencyCache.Entry first = requestIds.register(key, fingerprint.getValue());
+            if(first == null)
+                break;
+
+            if(first.getFingerprint() != fingerprint.getValue()) {
+                String message = "Request ID already used for another request";
+                logger.error(logContext + message);
+                throw Spark.halt(400, message);
+            }
+
+            byte[] body;
+            try {
+                body = first.getResponse().get(MAX_JOB_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                String message = "Request with the same ID still in progress";
+                logger.error(logContext + message);
+                response.header("Retry-After", String.valueOf(configuration.getRetryAfterSeconds()));
+                throw Spark.halt(409, message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Spark.halt(503, "Interrupted");
+            } catch (ExecutionException e) {
+                // Not reachable: responses are never completed exceptionally
+                throw Spark.halt(500, "Internal error");
+            }
+
+            if(body != null) {
+                repeatedRequests.increment();
+                return send(response, body);
+            }
+            // The first request failed (without side effect), this one is performed
         }
 
-        Object nameObj;
+        JsonWriter result;
         try {
-            nameObj = json.get("name");
+            throttle(tenantId, operations, response, logContext);
+            result = operation.get();
+        } catch (RuntimeException e) {
+            requestIds.abandon(key);
+            throw e;
         }
-        catch(JSONException e) {
-            String message = "A key is missing: " + e;
-            logger.error(message);
-            return Spark.halt(400, message);
+        requestIds.complete(key, result.toByteArray());
+        return send(response, result);
+    }
+
+    // Decodes the JSON body of a request into the fields of a decoder, halts with a 400 if it is not valid
+    private JsonFields readBody(Request request, Recycler<JsonFields> decoder, RouteMetrics route, LogContext logContext) {
+        long start = System.nanoTime();
+        JsonFields fields = decoder.get();
+        try {
+            fields.read(request.bodyAsBytes());
         }
+        catch(InvalidRequestException e) {
+            logger.error(logContext + e.getMessage());
+            throw Spark.halt(400, e.getMessage());
+        }
+        finally {
+            route.parsing(System.nanoTime() - start);
+        }
+
+        return fields;
+    }
+
+    private Object newTenant(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
 
-        if(!(nameObj instanceof String)) {
+        JsonFields fields = readBody(request, TENANT_DECODER, route, logContext);
+
+        if(!fields.isString(TENANT_NAME)) {
             String message = "Name should be a string";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        String name = (String) nameObj;
+        String name = fields.getString(TENANT_NAME);
 
         if(name.equals("")) {
             String message = "Name should not be empty";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
         if(name.length() > 15) {
             String message = "Name should be at most 15 characters";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
+        }
+
+        // The response carries the cookie of the tenant: answering retries would give it to whoever knows the request ID
+        if(fields.has(TENANT_REQUEST_ID)) {
+            String message = "Request IDs are not supported for tenants";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
         // Everything is fine, let's create him
         Tenant tenant;
         try {
-            tenant = tenantManagerSystem.createTenant(name);
+            tenant = metrics.call(TenantManagerCall.CREATE_TENANT, () -> tenantManagerSystem.createTenant(name));
         } catch (TenantManagerException e) {
             logger.error(e.getMessage());
-            return Spark.halt(400, e.getMessage());
+            return refuse(request, e);
         }
 
-        Cookie cookie = new Cookie(Math.abs(new Random().nextInt()));
-        cookieMapper.attachComponent(tenant.getEntity(), cookie);
-        tenants.put(tenant.getId(), tenant);
-        response.type("application/json");
-        return "{\"id\": " + tenant.getId() + ", \"cookie\": " + cookie.getCookie() + "}";
+        long tenantId = registry.newId();
+        Cookie cookie = Cookie.generate();
+        if(journal != null)
+            journal.createTenant(tenantId, cookie.getCookie(), name);
+        attachCookie(tenantId, tenant, cookie);
+        registry.addTenant(tenantId, tenant);
+        syncJournal();
+        return send(response, JsonWriter.get()
+                .beginObject()
+                .field("id", tenantId)
+                .field("cookie", cookie.getCookie())
+                .endObject());
     }
 
-    private Object newVM(Request request, Response response) {
-        String preErrorLogMessage = request.pathInfo() + ": " + request.body().replace("\n", " ") + ": ";
+    private Object newVM(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
 
-        logger.info(preErrorLogMessage);
+        JsonFields fields = readBody(request, VM_DECODER, route, logContext);
 
-        JSONObject json = getJONObject(request.body());
-        if(json == null) {
-            logger.error(request.body() + " is not a valid JSON format!");
-            return Spark.halt(400, "This is not a valid JSON format");
+        if(!fields.isString(NAME)) {
+            String message = "Name should be a string";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
         }
+        String name = fields.getString(NAME);
 
-        Object nameObj, tenantIdObj, cookieObj;
-        try {
-            nameObj = json.get("name");
-            tenantIdObj = json.get("tenantId");
-            cookieObj = json.get("cookie");
+        if(!fields.isLong(ID)) {
+            String message = "Tenant ID should be an integer";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
+        }
+        long tenantId = fields.getLong(ID);
 
+        if(!fields.isLong(COOKIE)) {
+            String message = "Cookie should be an integer";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
         }
-        catch(JSONException e) {
-            String message = "A key is missing: " + e;
-            logger.error(message);
+        long cookie = fields.getLong(COOKIE);
+
+        // Checking tenant exists
+        Tenant tenant = registry.getTenant(tenantId);
+        if(tenant == null) {
+            String message = "Invalid tenant ID";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
-        if(!(nameObj instanceof String)) {
-            String message = "Name should be a string";
-            logger.error(preErrorLogMessage + message);
+        // Checking cookie
+        if(!checkCookie(tenantId, tenant, cookie)) {
+            String message = "Invalid cookie";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        String name = (String) nameObj;
 
-        if(!(tenantIdObj instanceof Integer) & !(tenantIdObj instanceof Long)) {
+        String requestId = getRequestId(fields, VM_REQUEST_ID, logContext);
+
+        return sendOnce(request, response, requestKey("newVM", tenantId, requestId), tenantId, 1, logContext, () -> {
+            long vmId = registry.newId();
+            VirtualMachine vm;
+            try {
+                vm = scheduler.execute(tenantId, () -> {
+                    // The tenant might have been removed while we were waiting in its lane
+                    if(registry.getTenant(tenantId) != tenant) {
+                        String message = "Invalid tenant ID";
+                        logger.error(logContext + message);
+                        throw Spark.halt(400, message);
+                    }
+
+                    VirtualMachine newVM = metrics.call(TenantManagerCall.CREATE_VM, () -> tenantManagerSystem.createVirtualMachine(tenant, name));
+                    if(journal != null)
+                        journal.createVM(vmId, tenantId, name);
+                    registry.addVM(vmId, tenantId, newVM);
+                    return newVM;
+                });
+            } catch (TenantManagerException e) {
+                logger.error(e.getMessage());
+                throw refuse(request, e);
+            }
+            syncJournal();
+
+            return JsonWriter.get()
+                    .beginObject()
+                    .field("id", vmId)
+                    .field("management", (vm.getManagementConnection() == null) ? "unknown" : String.valueOf(vm.getManagementConnection()))
+                    .endObject();
+        });
+    }
+
+    private Object newFlow(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        JsonFields fields = readBody(request, FLOW_DECODER, route, logContext);
+
+        if(!fields.isLong(ID)) {
             String message = "Tenant ID should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long tenantId = 0;
-        if(tenantIdObj instanceof Long)
-            tenantId = (long) tenantIdObj;
-        if(tenantIdObj instanceof Integer)
-            tenantId = ((Integer) tenantIdObj).longValue();
+        long tenantId = fields.getLong(ID);
 
-        if(!(cookieObj instanceof Integer)) {
+        if(!fields.isLong(COOKIE)) {
             String message = "Cookie should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        int cookie = (int) cookieObj;
+        long cookie = fields.getLong(COOKIE);
+
+        FlowSpec spec;
+        try {
+            spec = FlowSpec.fromFields(fields, FLOW_SPEC);
+        }
+        catch(InvalidRequestException e) {
+            logger.error(logContext + e.getMessage());
+            return Spark.halt(400, e.getMessage());
+        }
 
         // Checking tenant exists
-        if(!tenants.containsKey(tenantId)) {
+        Tenant tenant = registry.getTenant(tenantId);
+        if(tenant == null) {
             String message = "Invalid tenant ID";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
         // Checking cookie
-        if(cookieMapper.get(tenants.get(tenantId).getEntity()).getCookie() != cookie) {
+        if(!checkCookie(tenantId, tenant, cookie)) {
             String message = "Invalid cookie";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
-        VirtualMachine vm;
-        try {
-            vm = tenantManagerSystem.createVirtualMachine(tenants.get(tenantId), name);
-        } catch (TenantManagerException e) {
-            logger.error(e.getMessage());
-            return Spark.halt(400, e.getMessage());
+        // Checking VMs exist and belong to tenant
+        VirtualMachine source = getTenantVM(spec.getSource(), tenantId);
+        if(source == null) {
+            String message = "Invalid source VM ID";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
+        }
+        VirtualMachine destination = getTenantVM(spec.getDestination(), tenantId);
+        if(destination == null) {
+            String message = "Invalid destination VM ID";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
         }
 
-        vms.put(vm.getId(), vm);
-        response.type("application/json");
-        return "{\"id\": " + vm.getId() + ", \"management\": \"" + ((vm.getManagementConnection() == null) ? "unknown" : vm.getManagementConnection()) + "\"}";
+        // Flows already refused are refused again without waiting in the lane (asynchronous requests still get a job)
+        boolean async = "true".equals(request.queryParams("async"));
+        if(!async) {
+            try {
+                checkAdmission(spec);
+            } catch (TenantManagerException e) {
+                logger.error(logContext + e.getMessage());
+                return refuse(request, e);
+            }
+        }
+
+        String requestKey = requestKey("newFlow", tenantId, getRequestId(fields, FLOW_REQUEST_ID, logContext));
+
+        return sendOnce(request, response, requestKey, tenantId, 1, logContext, () -> {
+            long flowId = registry.newId();
+            TenantScheduler.Task<Long> admission = () -> {
+                // The tenant or the VMs might have been removed while we were waiting in the lane
+                if(registry.getTenant(tenantId) != tenant || registry.getVM(spec.getSource()) != source || registry.getVM(spec.getDestination()) != destination) {
+                    String message = "Invalid tenant or VM ID";
+                    logger.error(logContext + message);
+                    throw Spark.halt(400, message);
+                }
+
+                embedFlow(flowId, tenantId, spec, source, destination);
+                return flowId;
+            };
+
+            // Asynchronous mode: the embedding is only queued and a job ID is returned
+            if(async) {
+                JobRegistry.Job<Long> job = flowJobs.create(tenantId, cookie);
+                if(job == null) {
+                    String message = "Too many pending jobs";
+                    logger.error(logContext + message);
+                    response.header("Retry-After", String.valueOf(configuration.getRetryAfterSeconds()));
+                    throw Spark.halt(503, message);
+                }
+
+                BiConsumer<Long, Throwable> completion = (id, e) -> {
+                    if(e instanceof TenantManagerException)
+                        logger.error(e.getMessage());
+                    if(e == null) {
+                        try {
+                            syncJournal();
+                        } catch (RuntimeException syncError) {
+                            e = syncError;
+                        }
+                    }
+                    // Retries get the flow instead of the job, which is removed once fetched, and failed requests are performed again
+                    if(requestKey != null) {
+                        if(e == null)
+                            requestIds.update(requestKey, JsonWriter.get().beginObject().field("id", id).endObject().toByteArray());
+                        else
+                            requestIds.abandon(requestKey);
+                    }
+                    job.complete(e == null ? id : null, e);
+                };
+                // The journal is forced to disk outside of the lane, which goes on with the next tasks of the tenant meanwhile
+                CompletableFuture<Long> embedding = scheduler.submit(tenantId, admission);
+                if(journalSyncs == null)
+                    embedding.whenComplete(completion);
+                else
+                    embedding.whenCompleteAsync(completion, journalSyncs);
+
+                return JsonWriter.get()
+                        .beginObject()
+                        .field("job", job.getId())
+                        .endObject();
+            }
+
+            try {
+                scheduler.execute(tenantId, admission);
+            } catch (TenantManagerException e) {
+                logger.error(e.getMessage());
+                throw refuse(request, e);
+            }
+            syncJournal();
+
+            return JsonWriter.get()
+                    .beginObject()
+                    .field("id", flowId)
+                    .endObject();
+        });
     }
 
-    private Object newFlow(Request request, Response response) {
-        String preErrorLogMessage = request.pathInfo() + ": " + request.body().replace("\n", " ") + ": ";
+    private Object newFlows(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
 
-        logger.info(preErrorLogMessage);
+        JsonFields fields = readBody(request, FLOWS_DECODER, route, logContext);
 
-        JSONObject json = getJONObject(request.body());
-        if(json == null) {
-            logger.error(request.body() + " is not a valid JSON format!");
-            return Spark.halt(400, "This is not a valid JSON format");
+        if(!fields.isLong(ID)) {
+            String message = "Tenant ID should be an integer";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
         }
+        long tenantId = fields.getLong(ID);
 
-        Object nameObj, tenantIdObj, cookieObj, srcIpObj, dstIpObj, srcPortObj, dstPortObj, protocolObj, srcObj, dstObj, rateObj, burstObj, latencyObj;
-        try {
-            nameObj = json.get("name");
-            tenantIdObj = json.get("tenantId");
-            cookieObj = json.get("cookie");
-            srcIpObj = json.get("srcIp");
-            dstIpObj = json.get("dstIp");
-            srcPortObj = json.get("srcPort");
-            dstPortObj = json.get("dstPort");
-            protocolObj = json.get("protocol");
-            srcObj = json.get("source");
-            dstObj = json.get("destination");
-            rateObj = json.get("rate"); // bps
-            burstObj = json.get("burst"); // bytes
-            latencyObj = json.get("latency"); // ms
-        }
-        catch(JSONException e) {
-            String message = "A key is missing: " + e;
-            logger.error(message);
-            return Spark.halt(400, message);
-        }
-
-        if(!(nameObj instanceof String)) {
-            String message = "Name should be a string";
-            logger.error(preErrorLogMessage + message);
+        if(!fields.isLong(COOKIE)) {
+            String message = "Cookie should be an integer";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        String name = (String) nameObj;
+        long cookie = fields.getLong(COOKIE);
 
-        if(!(tenantIdObj instanceof Integer) & !(tenantIdObj instanceof Long)) {
-            String message = "Tenant ID should be an integer";
-            logger.error(preErrorLogMessage + message);
+        if(fields.getKind(FLOWS) != JsonReader.Kind.ARRAY) {
+            String message = "Flows should be an array";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long tenantId = 0;
-        if(tenantIdObj instanceof Long)
-            tenantId = (long) tenantIdObj;
-        if(tenantIdObj instanceof Integer)
-            tenantId = ((Integer) tenantIdObj).longValue();
 
-        if(!(cookieObj instanceof Integer)) {
-            String message = "Cookie should be an integer";
-            logger.error(preErrorLogMessage + message);
+        // Checking tenant exists
+        Tenant tenant = registry.getTenant(tenantId);
+        if(tenant == null) {
+            String message = "Invalid tenant ID";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        int cookie = (int) cookieObj;
 
-        if(!(srcIpObj instanceof String)) {
-            String message = "Source IP should be a string representing an IP";
-            logger.error(preErrorLogMessage + message);
+        // Checking cookie (once for the whole batch)
+        if(!checkCookie(tenantId, tenant, cookie)) {
+            String message = "Invalid cookie";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        InetAddress srcIp;
+
+        // Validating the whole batch up front: invalid flows get an error and are not admitted
+        List<FlowSpec> specs = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        JsonReader flowsReader = fields.enter(FLOWS);
+        JsonFields flowFields = FLOW_SPEC_DECODER.get();
         try {
-            srcIp = Inet4Address.getByName((String) srcIpObj);
-        } catch (UnknownHostException e) {
-            String message = "Source IP is not a valid IPv4 address";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+            flowsReader.beginArray();
+            while(flowsReader.nextElement()) {
+                JsonReader.Kind kind = flowsReader.readValue();
+                if(kind != JsonReader.Kind.OBJECT) {
+                    // Scalars are consumed by readValue
+                    if(kind == JsonReader.Kind.ARRAY)
+                        flowsReader.skipNested();
+                    specs.add(null);
+                    errors.add("Flow should be a JSON object");
+                    continue;
+                }
+
+                try {
+                    flowFields.read(flowsReader);
+                    specs.add(FlowSpec.fromFields(flowFields, 0));
+                    errors.add(null);
+                }
+                catch(InvalidRequestException e) {
+                    specs.add(null);
+                    errors.add(e.getMessage());
+                }
+            }
+        }
+        catch(InvalidRequestException e) {
+            // Not reachable: the syntax of the array was checked when decoding the body
+            logger.error(logContext + e.getMessage());
+            return Spark.halt(400, e.getMessage());
         }
 
-        if(!(dstIpObj instanceof String)) {
-            String message = "Destination IP should be a string representing an IP";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+        int numberOfFlows = specs.size();
+        VirtualMachine[] sources = new VirtualMachine[numberOfFlows];
+        VirtualMachine[] destinations = new VirtualMachine[numberOfFlows];
+        long[] ids = new long[numberOfFlows];
+        for(int i = 0; i < numberOfFlows; i++) {
+            FlowSpec spec = specs.get(i);
+            if(spec == null)
+                continue;
+
+            sources[i] = getTenantVM(spec.getSource(), tenantId);
+            destinations[i] = getTenantVM(spec.getDestination(), tenantId);
+            if(sources[i] == null)
+                errors.set(i, "Invalid source VM ID");
+            else if(destinations[i] == null)
+                errors.set(i, "Invalid destination VM ID");
         }
-        InetAddress dstIp;
+
+        // Each flow of the batch counts as an operation of the tenant
+        throttle(tenantId, Math.max(1, numberOfFlows), response, logContext);
+
+        // Admitting the valid flows in a single pass in the lane of the tenant
         try {
-            dstIp = Inet4Address.getByName((String) dstIpObj);
-        } catch (UnknownHostException e) {
-            String message = "Destination IP is not a valid IPv4 address";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+            scheduler.execute(tenantId, () -> {
+                // The tenant might have been removed while we were waiting in its lane
+                if(registry.getTenant(tenantId) != tenant) {
+                    String message = "Invalid tenant ID";
+                    logger.error(logContext + message);
+                    throw Spark.halt(400, message);
+                }
+
+                for(int i = 0; i < numberOfFlows; i++) {
+                    if(errors.get(i) != null)
+                        continue;
+
+                    FlowSpec spec = specs.get(i);
+                    if(registry.getVM(spec.getSource()) != sources[i] || registry.getVM(spec.getDestination()) != destinations[i]) {
+                        errors.set(i, "Invalid source or destination VM ID");
+                        continue;
+                    }
+
+                    try {
+                        ids[i] = registry.newId();
+                        embedFlow(ids[i], tenantId, spec, sources[i], destinations[i]);
+                    } catch (TenantManagerException e) {
+                        errors.set(i, e.getMessage());
+                    }
+                }
+                return null;
+            });
+        } catch (TenantManagerException e) {
+            logger.error(e.getMessage());
+            return refuse(request, e);
+        }
+        syncJournal();
+
+        logFailures(logContext, "flows", errors);
+        JsonWriter result = JsonWriter.get()
+                .beginObject()
+                .name("flows")
+                .beginArray();
+        for(int i = 0; i < numberOfFlows; i++) {
+            result.beginObject();
+            if(errors.get(i) == null)
+                result.field("id", ids[i]);
+            else
+                result.field("error", errors.get(i));
+            result.endObject();
         }
+        result.endArray()
+                .endObject();
 
-        if(!(srcPortObj instanceof Integer)) {
-            String message = "Source port should be an integer";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+        return send(response, result);
+    }
+
+    // Attaches a cookie to a tenant and caches it
+    private void attachCookie(long tenantId, Tenant tenant, Cookie cookie) {
+        cookieMapper.attachComponent(tenant.getEntity(), cookie);
+        cookies.put(tenantId, cookie.getCookie());
+    }
+
+    // Uncaches the cookie of a tenant and detaches it
+    private void detachCookie(long tenantId, Tenant tenant) {
+        cookies.remove(tenantId);
+        cookieMapper.detachComponent(tenant.getEntity());
+    }
+
+    // Checks the cookie provided for a tenant, the Cookie component is only looked up if it is not cached
+    private boolean checkCookie(long tenantId, Tenant tenant, long cookie) {
+        // Tokens are never 0
+        long expected = cookies.get(tenantId, 0);
+        if(expected == 0) {
+            Cookie component = cookieMapper.get(tenant.getEntity());
+            return component != null && component.matches(cookie);
         }
-        int srcPort = (int) srcPortObj;
+        return TokenGenerator.matches(expected, cookie);
+    }
 
-        if(!(dstPortObj instanceof Integer)) {
-            String message = "Destination port should be an integer";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Returns the VM with the given ID if it exists and belongs to the given tenant, null otherwise
+    private VirtualMachine getTenantVM(long vmId, long tenantId) {
+        VirtualMachine vm = registry.getVM(vmId);
+        if(vm == null || registry.getTenantOfVM(vmId) != tenantId)
+            return null;
+        return vm;
+    }
+
+    // Embeds, journals and registers a flow, must be run in the lane of the tenant owning the VMs
+    private void embedFlow(long flowId, long tenantId, FlowSpec spec, VirtualMachine source, VirtualMachine destination) throws TenantManagerException {
+        checkAdmission(spec);
+        long epoch = refusedFlows.getEpoch();
+        Flow flow;
+        try {
+            flow = createFlow(spec, source, destination);
+        } catch (TenantManagerException e) {
+            refusedFlows.refuse(spec, epoch, e.getMessage());
+            throw e;
         }
-        int dstPort = (int) dstPortObj;
+        if(journal != null)
+            journal.createFlow(flowId, tenantId, spec);
+        registry.addFlow(flowId, spec.getSource(), spec.getDestination(), flow);
+    }
 
-        if(!(protocolObj instanceof Integer)) {
-            String message = "Protocol number should be an integer";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Rejects the request if the tenant exceeded its rate of operations
+    private void throttle(long tenantId, int operations, Response response, LogContext logContext) {
+        if(rateLimiter == null)
+            return;
+
+        long waitNanos = rateLimiter.acquire(tenantId, operations);
+        if(waitNanos > 0) {
+            String message = "Too many requests for this tenant";
+            logger.error(logContext + message);
+            response.header("Retry-After", String.valueOf(Math.max(1, (waitNanos + 999999999) / 1000000000)));
+            throw Spark.halt(429, message);
         }
-        int protocol = (int) protocolObj;
+    }
 
-        // Checking tenant exists
-        if(!tenants.containsKey(tenantId)) {
-            String message = "Invalid tenant ID";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Refuses a flow refused by the TenantManagerSystem since the last removal
+    private void checkAdmission(FlowSpec spec) throws TenantManagerException {
+        String refusal = refusedFlows.getRefusal(spec);
+        if(refusal != null) {
+            cachedRefusals.increment();
+            throw new TenantManagerException(refusal);
         }
+    }
 
-        // Checking cookie
-        if(cookieMapper.get(tenants.get(tenantId).getEntity()).getCookie() != cookie) {
-            String message = "Invalid cookie";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Deletes a flow from the TenantManagerSystem, the capacity it frees might make refused flows feasible
+    private void deleteFlow(Flow flow) throws TenantManagerException {
+        try {
+            metrics.call(TenantManagerCall.DELETE_FLOW, () -> {
+                tenantManagerSystem.deleteFlow(flow);
+                return null;
+            });
+        } finally {
+            refusedFlows.invalidate();
         }
+    }
 
-        // Checking source
-        if(!(srcObj instanceof Integer) && !(srcObj instanceof Long)) {
-            String message = "Source VM ID should be an integer";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Deletes a VM (and its flows) from the TenantManagerSystem
+    private void deleteVM(VirtualMachine vm) throws TenantManagerException {
+        try {
+            metrics.call(TenantManagerCall.DELETE_VM, () -> {
+                tenantManagerSystem.deleteVM(vm);
+                return null;
+            });
+        } finally {
+            refusedFlows.invalidate();
         }
-        long src = 0;
-        if(srcObj instanceof Long)
-            src = (long) srcObj;
-        if(srcObj instanceof Integer)
-            src = ((Integer) srcObj).longValue();
+    }
 
-        // Checking VM exists
-        if(!vms.containsKey(src) || vms.get(src).getTenant().getId() != tenantId) {
-            String message = "Invalid source VM ID";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Deletes a tenant (and its VMs and flows) from the TenantManagerSystem
+    private void deleteTenant(Tenant tenant) throws TenantManagerException {
+        try {
+            metrics.call(TenantManagerCall.DELETE_TENANT, () -> {
+                tenantManagerSystem.deleteTenant(tenant);
+                return null;
+            });
+        } finally {
+            refusedFlows.invalidate();
         }
+    }
 
-        // Checking destination
-        if(!(dstObj instanceof Integer) && !(dstObj instanceof Long)) {
-            String message = "Destination VM ID should be an integer";
-            logger.error(preErrorLogMessage + message);
-            return Spark.halt(400, message);
+    // Creates a flow in the TenantManagerSystem
+    private Flow createFlow(FlowSpec spec, VirtualMachine source, VirtualMachine destination) throws TenantManagerException {
+        return metrics.call(TenantManagerCall.CREATE_FLOW, () -> tenantManagerSystem.createFlow(spec.getName(), source, destination,
+                Ipv4.toInetAddress(spec.getSrcIp()), Ipv4.toInetAddress(spec.getDstIp()), spec.getSrcPort(), spec.getDstPort(), spec.getProtocol(),
+                spec.getRate(), spec.getBurst(), spec.getLatency()));
+    }
+
+    // Waits for the operations journaled so far to be durable, before acknowledging them
+    private void syncJournal() {
+        if(journal != null)
+            journal.sync();
+    }
+
+    // Recreates the resources described by the journal, tenants being replayed in parallel in their lanes
+    private void recover(JournalState state) {
+        registry.reserveIds(state.getLastId());
+
+        Map<Long, List<JournalState.VMEntry>> vms = new HashMap<>();
+        for(JournalState.VMEntry vm : state.getVMs())
+            vms.computeIfAbsent(vm.getTenantId(), id -> new ArrayList<>()).add(vm);
+        Map<Long, List<JournalState.FlowEntry>> flows = new HashMap<>();
+        for(JournalState.FlowEntry flow : state.getFlows())
+            flows.computeIfAbsent(flow.getTenantId(), id -> new ArrayList<>()).add(flow);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> replays = new ArrayList<>();
+        for(JournalState.TenantEntry tenant : state.getTenants()) {
+            List<JournalState.VMEntry> tenantVMs = vms.getOrDefault(tenant.getId(), Collections.emptyList());
+            List<JournalState.FlowEntry> tenantFlows = flows.getOrDefault(tenant.getId(), Collections.emptyList());
+            replays.add(scheduler.submit(tenant.getId(), () -> {
+                replay(tenant, tenantVMs, tenantFlows);
+                return null;
+            }));
+        }
+        for(CompletableFuture<Void> replay : replays) {
+            try {
+                replay.join();
+            } catch (CompletionException e) {
+                logger.error("Unable to recover a tenant: " + e.getCause());
+            }
         }
-        long dst = 0;
-        if(dstObj instanceof Long)
-            dst = (long) dstObj;
-        if(dstObj instanceof Integer)
-            dst = ((Integer) dstObj).longValue();
+        // Resources which could not be recreated were journaled as removed
+        journal.sync();
 
-        // Checking VM exists and belongs to tenant
-        if(!vms.containsKey(dst) || vms.get(dst).getTenant().getId() != tenantId) {
-            String message = "Invalid destination VM ID";
-            logger.error(preErrorLogMessage + message);
+        logger.info("Recovered " + registry.getNumberOfTenants() + " tenants, " + registry.getNumberOfVMs() + " VMs and "
+                + registry.getNumberOfFlows() + " flows in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    // Recreates a tenant, its VMs and its flows, in its lane, and journals the removal of the ones which cannot be recreated
+    private void replay(JournalState.TenantEntry entry, List<JournalState.VMEntry> vms, List<JournalState.FlowEntry> flows) {
+        long tenantId = entry.getId();
+        Tenant tenant;
+        try {
+            tenant = metrics.call(TenantManagerCall.CREATE_TENANT, () -> tenantManagerSystem.createTenant(entry.getName()));
+        } catch (TenantManagerException e) {
+            logger.error("Unable to recover tenant " + tenantId + ": " + e.getMessage());
+            journal.removeTenant(tenantId);
+            return;
+        }
+        attachCookie(tenantId, tenant, new Cookie(entry.getCookie()));
+        registry.addTenant(tenantId, tenant);
+
+        for(JournalState.VMEntry vm : vms) {
+            try {
+                VirtualMachine newVM = metrics.call(TenantManagerCall.CREATE_VM, () -> tenantManagerSystem.createVirtualMachine(tenant, vm.getName()));
+                registry.addVM(vm.getId(), tenantId, newVM);
+            } catch (TenantManagerException e) {
+                logger.error("Unable to recover VM " + vm.getId() + ": " + e.getMessage());
+                journal.removeVM(vm.getId());
+            }
+        }
+
+        for(JournalState.FlowEntry flow : flows) {
+            FlowSpec spec = flow.getSpec();
+            VirtualMachine source = registry.getVM(spec.getSource());
+            VirtualMachine destination = registry.getVM(spec.getDestination());
+            // Flows of VMs which could not be recreated are removed with them
+            if(source == null || destination == null)
+                continue;
+
+            try {
+                registry.addFlow(flow.getId(), spec.getSource(), spec.getDestination(), createFlow(spec, source, destination));
+            } catch (TenantManagerException e) {
+                logger.error("Unable to recover flow " + flow.getId() + ": " + e.getMessage());
+                journal.removeFlow(flow.getId());
+            }
+        }
+    }
+
+    private Object getJob(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        long jobId;
+        try {
+            jobId = Long.parseLong(request.params(":id"));
+        }
+        catch(NumberFormatException e) {
+            String message = "Job ID should be an integer";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
-        // Checking rate
-        if(!(rateObj instanceof Integer) & !(rateObj instanceof Long)) {
-            String message = "Rate should be a number";
-            logger.error(preErrorLogMessage + message);
+        String cookieParam = request.queryParams("cookie");
+        if(cookieParam == null) {
+            String message = "A key is missing: cookie";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long rate = 0;
-        if(burstObj instanceof Long)
-            rate = (long) rateObj;
-        if(burstObj instanceof Integer)
-            rate = ((Integer) rateObj).longValue();
+        long cookie;
+        try {
+            cookie = Long.parseLong(cookieParam);
+        }
+        catch(NumberFormatException e) {
+            String message = "Cookie should be an integer";
+            logger.error(logContext + message);
+            return Spark.halt(400, message);
+        }
+
+        // Long polling: time to wait for the completion of the job
+        long wait = 0;
+        String waitParam = request.queryParams("wait");
+        if(waitParam != null) {
+            try {
+                wait = Math.min(Math.max(Long.parseLong(waitParam), 0), MAX_JOB_WAIT_MILLIS);
+            }
+            catch(NumberFormatException e) {
+                String message = "Wait time should be an integer";
+                logger.error(logContext + message);
+                return Spark.halt(400, message);
+            }
+        }
 
-        // Checking burst
-        if(!(burstObj instanceof Integer) & !(burstObj instanceof Long)) {
-            String message = "Burst should be an int/long";
-            logger.error(preErrorLogMessage + message);
+        // Checking job exists
+        JobRegistry.Job<Long> job = flowJobs.get(jobId);
+        if(job == null) {
+            String message = "Invalid job ID";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long burst = 0;
-        if(burstObj instanceof Long)
-            burst = (long) burstObj;
-        if(burstObj instanceof Integer)
-            burst = ((Integer) burstObj).longValue();
 
-        // Checking latency
-        if(!(latencyObj instanceof Number)) {
-            String message = "Rate should be a number";
-            logger.error(preErrorLogMessage + message);
+        // Checking cookie
+        if(!TokenGenerator.matches(job.getCookie(), cookie)) {
+            String message = "Invalid cookie";
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        double latency = ((Number) latencyObj).doubleValue();
 
-        Flow flow;
+        long flowId;
         try {
-            flow = tenantManagerSystem.createFlow(name, vms.get(src), vms.get(dst), srcIp, dstIp, srcPort, dstPort, protocol, rate, burst, latency);
-        } catch (TenantManagerException e) {
-            logger.error(e.getMessage());
-            return Spark.halt(400, e.getMessage());
+            flowId = job.getResult().get(wait, TimeUnit.MILLISECONDS);
+        }
+        catch(TimeoutException e) {
+            return send(response, JsonWriter.get().beginObject().field("status", "pending").endObject());
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return send(response, JsonWriter.get().beginObject().field("status", "pending").endObject());
+        }
+        catch(ExecutionException e) {
+            // The outcome of the job is only returned once
+            flowJobs.remove(job);
+            Throwable cause = e.getCause();
+            String error;
+            if(cause instanceof HaltException)
+                error = ((HaltException) cause).body();
+            else if(cause instanceof TenantManagerException)
+                error = cause.getMessage();
+            else
+                error = "Internal error";
+            return send(response, JsonWriter.get()
+                    .beginObject()
+                    .field("status", "failed")
+                    .field("error", error)
+                    .endObject());
         }
 
-        flows.put(flow.getId(), flow);
-        response.type("application/json");
-        return "{\"id\": " + flow.getId() + "}";
+        flowJobs.remove(job);
+        return send(response, JsonWriter.get()
+                .beginObject()
+                .field("status", "done")
+                .field("id", flowId)
+                .endObject());
+    }
+
+    private Object getTenant(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        long tenantId = getReadTenant(request, logContext);
+        return send(response, JsonWriter.get()
+                .beginObject()
+                .field("id", tenantId)
+                .field("vms", registry.getNumberOfVMs(tenantId))
+                .field("flows", registry.getNumberOfFlows(tenantId))
+                .endObject());
+    }
+
+    private Object getTenantVMs(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        long tenantId = getReadTenant(request, logContext);
+        int limit = getPageSize(request, logContext);
+        Long after = getQueryLong(request, "after", "Cursor should be an integer", logContext);
+        return sendPage(response, "vms", registry.getVMs(tenantId, after), registry::getVM, limit, (json, id, vm) -> json
+                .field("id", id)
+                .field("management", (vm.getManagementConnection() == null) ? "unknown" : String.valueOf(vm.getManagementConnection())));
     }
 
-    private Object removeFlow(Request request, Response response) {
-        String preErrorLogMessage = request.pathInfo() + ": " + request.body().replace("\n", " ") + ": ";
+    private Object getTenantFlows(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
 
-        logger.info(preErrorLogMessage);
+        long tenantId = getReadTenant(request, logContext);
+        int limit = getPageSize(request, logContext);
+        Long after = getQueryLong(request, "after", "Cursor should be an integer", logContext);
+        return sendPage(response, "flows", registry.getFlows(tenantId, after), registry::getFlow, limit, (json, id, flow) -> json
+                .field("id", id)
+                .field("source", registry.getSource(id))
+                .field("destination", registry.getDestination(id)));
+    }
+
+    // Returns the ID of the tenant designated by the path of a read request, halts with a 400 if it does not exist or the cookie is invalid
+    private long getReadTenant(Request request, LogContext logContext) {
+        long tenantId;
+        try {
+            tenantId = Long.parseLong(request.params(":id"));
+        }
+        catch(NumberFormatException e) {
+            String message = "Tenant ID should be an integer";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
 
-        JSONObject json = getJONObject(request.body());
-        if(json == null) {
-            logger.error(request.body() + " is not a valid JSON format!");
-            return Spark.halt(400, "This is not a valid JSON format");
+        Long cookie = getQueryLong(request, "cookie", "Cookie should be an integer", logContext);
+        if(cookie == null) {
+            String message = "A key is missing: cookie";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
         }
 
-        Object flowIdObj, cookieObj;
+        // Checking tenant exists
+        Tenant tenant = registry.getTenant(tenantId);
+        if(tenant == null) {
+            String message = "Invalid tenant ID";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+
+        // Checking cookie
+        if(!checkCookie(tenantId, tenant, cookie)) {
+            String message = "Invalid cookie";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+
+        return tenantId;
+    }
+
+    // Returns the number of elements to list, halts with a 400 if it is not valid
+    private int getPageSize(Request request, LogContext logContext) {
+        Long limit = getQueryLong(request, "limit", "Limit should be an integer", logContext);
+        if(limit == null)
+            return DEFAULT_PAGE_SIZE;
+
+        if(limit < 1) {
+            String message = "Limit should be positive";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+        return (int) Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    // Parses an optional integer query parameter (null if absent), halts with a 400 if it is not an integer
+    private Long getQueryLong(Request request, String name, String message, LogContext logContext) {
+        String value = request.queryParams(name);
+        if(value == null)
+            return null;
+
         try {
-            flowIdObj = json.get("flowId");
-            cookieObj = json.get("cookie");
+            return Long.parseLong(value);
         }
-        catch(JSONException e) {
-            String message = "A key is missing: " + e;
-            logger.error(message);
-            return Spark.halt(400, message);
+        catch(NumberFormatException e) {
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+    }
+
+    // Streams a page of a listing, followed by the cursor of the next page if there are more elements (elements removed meanwhile are skipped)
+    private <T> Object sendPage(Response response, String name, PrimitiveIterator.OfLong ids, LongFunction<T> lookup, int limit, ElementEncoder<T> encoder) {
+        response.type("application/json");
+        HttpServletResponse raw = response.raw();
+        raw.setCharacterEncoding("UTF-8");
+
+        JsonWriter json = JsonWriter.get()
+                .beginObject()
+                .name(name)
+                .beginArray();
+        try {
+            OutputStream output = raw.getOutputStream();
+            int count = 0;
+            long last = 0;
+            boolean more = false;
+            while(ids.hasNext()) {
+                long id = ids.nextLong();
+                T element = lookup.apply(id);
+                if(element == null)
+                    continue;
+                if(count == limit) {
+                    more = true;
+                    break;
+                }
+
+                json.beginObject();
+                encoder.encode(json, id, element);
+                json.endObject();
+                last = id;
+                count++;
+                if(json.size() >= STREAM_CHUNK_SIZE)
+                    json.flushTo(output);
+            }
+
+            json.endArray();
+            if(more)
+                json.field("next", last);
+            json.endObject();
+            json.flushTo(output);
+        } catch (IOException e) {
+            logger.error("Unable to send the response: " + e.getMessage());
         }
 
-        if(!(flowIdObj instanceof Integer) && !(flowIdObj instanceof Long)) {
+        // Already written
+        return "";
+    }
+
+    private Object removeFlow(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        JsonFields fields = readBody(request, REMOVE_FLOW_DECODER, route, logContext);
+
+        if(!fields.isLong(ID)) {
             String message = "Flow ID should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long flowId = 0;
-        if(flowIdObj instanceof Long)
-            flowId = (long) flowIdObj;
-        if(flowIdObj instanceof Integer)
-            flowId = ((Integer) flowIdObj).longValue();
+        long flowId = fields.getLong(ID);
 
-        if(!(cookieObj instanceof Integer)) {
+        if(!fields.isLong(COOKIE)) {
             String message = "Cookie should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        int cookie = (int) cookieObj;
+        long cookie = fields.getLong(COOKIE);
 
         // Checking flow exists
-        if(!flows.containsKey(flowId)) {
+        Flow flow = registry.getFlow(flowId);
+        if(flow == null) {
             String message = "Invalid flow ID";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
         // Checking cookie
-        if(cookieMapper.get(flows.get(flowId).getSource().getTenant().getEntity()).getCookie() != cookie) {
+        long tenantId = registry.getTenantOfFlow(flowId);
+        if(!checkCookie(tenantId, flow.getSource().getTenant(), cookie)) {
             String message = "Invalid cookie";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
-        tenantManagerSystem.deleteFlow(flows.get(flowId));
-        flows.remove(flowId);
-        response.type("application/json");
-        return "{\"success\": 1}";
-    }
+        throttle(tenantId, 1, response, logContext);
 
-    private Object removeVM(Request request, Response response) {
-        String preErrorLogMessage = request.pathInfo() + ": " + request.body().replace("\n", " ") + ": ";
+        try {
+            scheduler.execute(tenantId, () -> {
+                // Only the request which unregisters the flow tears it down
+                if(!registry.removeFlow(flowId, flow)) {
+                    String message = "Invalid flow ID";
+                    logger.error(logContext + message);
+                    throw Spark.halt(400, message);
+                }
+                if(journal != null)
+                    journal.removeFlow(flowId);
+
+                deleteFlow(flow);
+                return null;
+            });
+        } catch (TenantManagerException e) {
+            logger.error(e.getMessage());
+            return refuse(request, e);
+        }
+        syncJournal();
 
-        logger.info(preErrorLogMessage);
+        return send(response, JsonWriter.get().beginObject().field("success", 1).endObject());
+    }
 
-        JSONObject json = getJONObject(request.body());
-        if(json == null) {
-            logger.error(request.body() + " is not a valid JSON format!");
-            return Spark.halt(400, "This is not a valid JSON format");
-        }
+    private Object removeVM(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
 
-        Object vmIdObj, cookieObj;
-        try {
-            vmIdObj = json.get("vmId");
-            cookieObj = json.get("cookie");
-        }
-        catch(JSONException e) {
-            String message = "A key is missing: " + e;
-            logger.error(message);
-            return Spark.halt(400, message);
-        }
+        JsonFields fields = readBody(request, REMOVE_VM_DECODER, route, logContext);
 
-        if(!(vmIdObj instanceof Integer) && !(vmIdObj instanceof Long)) {
+        if(!fields.isLong(ID)) {
             String message = "VM ID should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long vmId = 0;
-        if(vmIdObj instanceof Long)
-            vmId = (long) vmIdObj;
-        if(vmIdObj instanceof Integer)
-            vmId = ((Integer) vmIdObj).longValue();
+        long vmId = fields.getLong(ID);
 
-        if(!(cookieObj instanceof Integer)) {
+        if(!fields.isLong(COOKIE)) {
             String message = "Cookie should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        int cookie = (int) cookieObj;
+        long cookie = fields.getLong(COOKIE);
 
         // Checking VM exists
-        if(!vms.containsKey(vmId)) {
+        VirtualMachine vm = registry.getVM(vmId);
+        if(vm == null) {
             String message = "Invalid VM ID";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
         // Checking cookie
-        if(cookieMapper.get(vms.get(vmId).getTenant().getEntity()).getCookie() != cookie) {
+        long tenantId = registry.getTenantOfVM(vmId);
+        if(!checkCookie(tenantId, vm.getTenant(), cookie)) {
             String message = "Invalid cookie";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
-        tenantManagerSystem.deleteVM(vms.get(vmId));
-        vms.remove(vmId);
-        response.type("application/json");
-        return "{\"success\": 1}";
+        throttle(tenantId, 1, response, logContext);
+
+        try {
+            scheduler.execute(tenantId, () -> {
+                // Only the request which unregisters the VM tears it down
+                if(!registry.removeVM(vmId, vm)) {
+                    String message = "Invalid VM ID";
+                    logger.error(logContext + message);
+                    throw Spark.halt(400, message);
+                }
+                if(journal != null)
+                    journal.removeVM(vmId);
+
+                deleteVM(vm);
+                return null;
+            });
+        } catch (TenantManagerException e) {
+            logger.error(e.getMessage());
+            return refuse(request, e);
+        }
+        syncJournal();
+
+        return send(response, JsonWriter.get().beginObject().field("success", 1).endObject());
     }
 
-    private Object removeTenant(Request request, Response response) {
-        String preErrorLogMessage = request.pathInfo() + ": " + request.body().replace("\n", " ") + ": ";
+    private Object removeFlows(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        JsonFields fields = readBody(request, REMOVE_FLOWS_DECODER, route, logContext);
+        long tenantId = getBatchTenant(request, fields, "Flow IDs", logContext);
+
+        // Validating the whole batch up front: flows which do not exist or belong to another tenant get an error
+        Long[] ids = readIds(fields.enter(IDS), logContext);
+        String[] errors = new String[ids.length];
+        Flow[] flows = new Flow[ids.length];
+        for(int i = 0; i < ids.length; i++) {
+            if(ids[i] == null) {
+                errors[i] = "Flow ID should be an integer";
+                continue;
+            }
+
+            flows[i] = registry.getFlow(ids[i]);
+            if(flows[i] == null || registry.getTenantOfFlow(ids[i]) != tenantId)
+                errors[i] = "Invalid flow ID";
+        }
 
-        logger.info(preErrorLogMessage);
+        throttle(tenantId, Math.max(1, ids.length), response, logContext);
 
-        JSONObject json = getJONObject(request.body());
-        if(json == null) {
-            logger.error(request.body() + " is not a valid JSON format!");
-            return Spark.halt(400, "This is not a valid JSON format");
+        // Removing the flows in a single pass in the lane of the tenant
+        try {
+            scheduler.execute(tenantId, () -> {
+                for(int i = 0; i < ids.length; i++) {
+                    if(errors[i] != null)
+                        continue;
+
+                    // Only the request which unregisters the flow tears it down
+                    if(!registry.removeFlow(ids[i], flows[i])) {
+                        errors[i] = "Invalid flow ID";
+                        continue;
+                    }
+                    if(journal != null)
+                        journal.removeFlow(ids[i]);
+
+                    try {
+                        deleteFlow(flows[i]);
+                    } catch (TenantManagerException e) {
+                        errors[i] = e.getMessage();
+                    }
+                }
+                return null;
+            });
+        } catch (TenantManagerException e) {
+            logger.error(e.getMessage());
+            return refuse(request, e);
         }
+        syncJournal();
 
-        Object tenantIdObj, cookieObj;
+        return sendRemovals(response, "flows", ids, errors, logContext);
+    }
+
+    private Object removeVMs(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        JsonFields fields = readBody(request, REMOVE_VMS_DECODER, route, logContext);
+        long tenantId = getBatchTenant(request, fields, "VM IDs", logContext);
+
+        // Validating the whole batch up front: VMs which do not exist or belong to another tenant get an error
+        Long[] ids = readIds(fields.enter(IDS), logContext);
+        String[] errors = new String[ids.length];
+        VirtualMachine[] vms = new VirtualMachine[ids.length];
+        for(int i = 0; i < ids.length; i++) {
+            if(ids[i] == null) {
+                errors[i] = "VM ID should be an integer";
+                continue;
+            }
+
+            vms[i] = getTenantVM(ids[i], tenantId);
+            if(vms[i] == null)
+                errors[i] = "Invalid VM ID";
+        }
+
+        throttle(tenantId, Math.max(1, ids.length), response, logContext);
+
+        // Removing the VMs in a single pass in the lane of the tenant
         try {
-            tenantIdObj = json.get("tenantId");
-            cookieObj = json.get("cookie");
+            scheduler.execute(tenantId, () -> {
+                for(int i = 0; i < ids.length; i++) {
+                    if(errors[i] != null)
+                        continue;
+
+                    // Only the request which unregisters the VM tears it down
+                    if(!registry.removeVM(ids[i], vms[i])) {
+                        errors[i] = "Invalid VM ID";
+                        continue;
+                    }
+                    if(journal != null)
+                        journal.removeVM(ids[i]);
+
+                    try {
+                        deleteVM(vms[i]);
+                    } catch (TenantManagerException e) {
+                        errors[i] = e.getMessage();
+                    }
+                }
+                return null;
+            });
+        } catch (TenantManagerException e) {
+            logger.error(e.getMessage());
+            return refuse(request, e);
         }
-        catch(JSONException e) {
-            String message = "A key is missing: " + e;
-            logger.error(message);
-            return Spark.halt(400, message);
+        syncJournal();
+
+        return sendRemovals(response, "vms", ids, errors, logContext);
+    }
+
+    // Checks the tenant ID, cookie and array of IDs of a batch removal and returns the tenant ID, halts with a 400 if they are not valid
+    private long getBatchTenant(Request request, JsonFields fields, String idsName, LogContext logContext) {
+        if(!fields.isLong(ID)) {
+            String message = "Tenant ID should be an integer";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+
+        if(!fields.isLong(COOKIE)) {
+            String message = "Cookie should be an integer";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+
+        if(fields.getKind(IDS) != JsonReader.Kind.ARRAY) {
+            String message = idsName + " should be an array";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+
+        // Checking tenant exists
+        long tenantId = fields.getLong(ID);
+        Tenant tenant = registry.getTenant(tenantId);
+        if(tenant == null) {
+            String message = "Invalid tenant ID";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
         }
 
-        if(!(tenantIdObj instanceof Integer) & !(tenantIdObj instanceof Long)) {
+        // Checking cookie (once for the whole batch)
+        if(!checkCookie(tenantId, tenant, fields.getLong(COOKIE))) {
+            String message = "Invalid cookie";
+            logger.error(logContext + message);
+            throw Spark.halt(400, message);
+        }
+
+        return tenantId;
+    }
+
+    // Reads an array of IDs, elements which are not integers are null
+    private Long[] readIds(JsonReader reader, LogContext logContext) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            reader.beginArray();
+            while(reader.nextElement()) {
+                JsonReader.Kind kind = reader.readValue();
+                if(kind == JsonReader.Kind.OBJECT || kind == JsonReader.Kind.ARRAY)
+                    reader.skipNested();
+                ids.add(kind == JsonReader.Kind.INTEGER ? reader.longValue() : null);
+            }
+        }
+        catch(InvalidRequestException e) {
+            // Not reachable: the syntax of the array was checked when decoding the body
+            logger.error(logContext + e.getMessage());
+            throw Spark.halt(400, e.getMessage());
+        }
+        return ids.toArray(new Long[0]);
+    }
+
+    // Sends the per-item results of a batch removal
+    private Object sendRemovals(Response response, String name, Long[] ids, String[] errors, LogContext logContext) {
+        logFailures(logContext, name, Arrays.asList(errors));
+        JsonWriter result = JsonWriter.get()
+                .beginObject()
+                .name(name)
+                .beginArray();
+        for(int i = 0; i < ids.length; i++) {
+            result.beginObject();
+            if(ids[i] != null)
+                result.field("id", ids[i]);
+            if(errors[i] == null)
+                result.field("success", 1);
+            else
+                result.field("error", errors[i]);
+            result.endObject();
+        }
+        result.endArray()
+                .endObject();
+
+        return send(response, result);
+    }
+
+    // Logs the items of a batch which failed (null errors for the others) on a single line
+    private void logFailures(LogContext logContext, String name, List<String> errors) {
+        StringBuilder message = null;
+        int failures = 0;
+        for(int i = 0; i < errors.size(); i++) {
+            if(errors.get(i) == null)
+                continue;
+            if(message == null)
+                message = new StringBuilder();
+            else
+                message.append(", ");
+            message.append('#').append(i).append(": ").append(errors.get(i));
+            failures++;
+        }
+        if(message != null)
+            logger.error(logContext.toString() + failures + " of " + errors.size() + " " + name + " failed: " + message);
+    }
+
+    private Object removeTenant(Request request, Response response, RouteMetrics route) {
+        LogContext logContext = new LogContext(request);
+
+        JsonFields fields = readBody(request, REMOVE_TENANT_DECODER, route, logContext);
+
+        if(!fields.isLong(ID)) {
             String message = "Tenant ID should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        long tenantId = 0;
-        if(tenantIdObj instanceof Long)
-            tenantId = (long) tenantIdObj;
-        if(tenantIdObj instanceof Integer)
-            tenantId = ((Integer) tenantIdObj).longValue();
+        long tenantId = fields.getLong(ID);
 
-        if(!(cookieObj instanceof Integer)) {
+        if(!fields.isLong(COOKIE)) {
             String message = "Cookie should be an integer";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
-        int cookie = (int) cookieObj;
+        long cookie = fields.getLong(COOKIE);
 
-        // Checking VM exists
-        if(!tenants.containsKey(tenantId)) {
+        // Checking tenant exists
+        Tenant tenant = registry.getTenant(tenantId);
+        if(tenant == null) {
             String message = "Invalid tenant ID";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
         // Checking cookie
-        if(cookieMapper.get(tenants.get(tenantId).getEntity()).getCookie() != cookie) {
+        if(!checkCookie(tenantId, tenant, cookie)) {
             String message = "Invalid cookie";
-            logger.error(preErrorLogMessage + message);
+            logger.error(logContext + message);
             return Spark.halt(400, message);
         }
 
-        tenantManagerSystem.deleteTenant(tenants.get(tenantId));
-        tenants.remove(tenantId);
-        response.type("application/json");
-        return "{\"success\": 1}";
+        throttle(tenantId, 1, response, logContext);
+
+        try {
+            scheduler.execute(tenantId, () -> {
+                // Only the request which unregisters the tenant tears it down
+                if(!registry.removeTenant(tenantId, tenant)) {
+                    String message = "Invalid tenant ID";
+                    logger.error(logContext + message);
+                    throw Spark.halt(400, message);
+                }
+                if(journal != null)
+                    journal.removeTenant(tenantId);
+
+                detachCookie(tenantId, tenant);
+                scheduler.setWeight(tenantId, 1);
+                if(rateLimiter != null)
+                    rateLimiter.remove(tenantId);
+                deleteTenant(tenant);
+                return null;
+            });
+        } catch (TenantManagerException e) {
+            logger.error(e.getMessage());
+            return refuse(request, e);
+        }
+        syncJournal();
+
+        return send(response, JsonWriter.get().beginObject().field("success", 1).endObject());
     }
 }
@@ -0,0 +1,253 @@
+package de.tum.ei.lkn.eces.nbi.client;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of the REST API of an NBI, for clients sending many requests.
+ *
+ * Requests are sent over a small pool of persistent connections instead of
+ * a connection per request. With {@link Protocol#H2C}, requests are
+ * multiplexed as HTTP/2 streams over these connections (cleartext, with
+ * prior knowledge), so that a single connection can carry as many
+ * concurrent requests as the NBI allows streams. With
+ * {@link Protocol#HTTP_1_1}, each connection carries one request at a time
+ * and is kept alive between requests.
+ *
+ * Requests can be sent asynchronously ({@link #post(String, byte[])}) or
+ * synchronously ({@link #call(String, byte[])}). A client is thread-safe
+ * and meant to be shared.
+ *
+ * @author Amaury Van Bemten
+ */
+public class NBIClient implements AutoCloseable {
+    /**
+     * Protocol used to talk to the NBI.
+     */
+    public enum Protocol {
+        HTTP_1_1, H2C
+    }
+
+    // Largest response body accepted
+    private static final int MAX_RESPONSE_SIZE = 16 * 1024 * 1024;
+
+    private final HttpClient httpClient;
+    private final String host;
+    private final int port;
+    private final long timeoutMillis;
+
+    /**
+     * Creates a client talking HTTP/2 to an NBI over at most 4 connections,
+     * with a timeout of 30 seconds.
+     *
+     * @param host Host of the NBI.
+     * @param port Port of the NBI.
+     * @throws IOException if the client cannot be started.
+     */
+    public NBIClient(String host, int port) throws IOException {
+        this(host, port, Protocol.H2C, 4, 30000);
+    }
+
+    /**
+     * @param host Host of the NBI.
+     * @param port Port of the NBI.
+     * @param protocol Protocol to use.
+     * @param maxConnections Maximum number of connections opened to the NBI.
+     * @param timeoutMillis Time after which a request without response fails.
+     * @throws IOException if the client cannot be started.
+     */
+    public NBIClient(String host, int port, Protocol protocol, int maxConnections, long timeoutMillis) throws IOException {
+        if(maxConnections < 1)
+            throw new IllegalArgumentException("Invalid maximum number of connections (" + maxConnections + " given)");
+        if(timeoutMillis < 1)
+            throw new IllegalArgumentException("Invalid timeout (" + timeoutMillis + " given)");
+
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+
+        HttpClientTransport transport;
+        if(protocol == Protocol.H2C) {
+            HTTP2Client http2Client = new HTTP2Client();
+            http2Client.setSelectors(1);
+            transport = new HttpClientTransportOverHTTP2(http2Client);
+        }
+        else {
+            transport = new HttpClientTransportOverHTTP(1);
+        }
+
+        QueuedThreadPool executor = new QueuedThreadPool();
+        executor.setName("nbi-client");
+        executor.setDaemon(true);
+
+        this.httpClient = new HttpClient(transport, null);
+        httpClient.setExecutor(executor);
+        httpClient.setMaxConnectionsPerDestination(maxConnections);
+        httpClient.setFollowRedirects(false);
+        try {
+            httpClient.start();
+        }
+        catch(Exception e) {
+            throw new IOException("Unable to start the HTTP client", e);
+        }
+    }
+
+    /**
+     * Sends a POST request to the NBI.
+     *
+     * @param path Path of the route (e.g. "/newFlow").
+     * @param body JSON body of the request.
+     * @return The response, completed exceptionally if no response was
+     *         received (e.g. connection failure or timeout).
+     */
+    public CompletableFuture<Reply> post(String path, byte[] body) {
+        return send(newRequest(HttpMethod.POST, path).content(new BytesContentProvider(body), "application/json"));
+    }
+
+    /**
+     * Sends a GET request to the NBI.
+     *
+     * @param path Path of the route (e.g. "/jobs/4").
+     * @return The response, completed exceptionally if no response was
+     *         received (e.g. connection failure or timeout).
+     */
+    public CompletableFuture<Reply> get(String path) {
+        return send(newRequest(HttpMethod.GET, path));
+    }
+
+    /**
+     * Sends a POST request to the NBI and waits for its response.
+     *
+     * @param path Path of the route (e.g. "/newFlow").
+     * @param body JSON body of the request.
+     * @return The response.
+     * @throws IOException if no response was received.
+     */
+    public Reply call(String path, byte[] body) throws IOException {
+        try {
+            return post(path, body).get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + path, e);
+        }
+        catch(ExecutionException e) {
+            throw new IOException("No response for " + path, e.getCause());
+        }
+    }
+
+    /**
+     * Closes the connections to the NBI. Pending requests fail.
+     *
+     * @throws IOException if the client cannot be stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            httpClient.stop();
+        }
+        catch(Exception e) {
+            throw new IOException("Unable to stop the HTTP client", e);
+        }
+    }
+
+    private Request newRequest(HttpMethod method, String path) {
+        return httpClient.newRequest(host, port)
+                .method(method)
+                .path(path)
+                .timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private CompletableFuture<Reply> send(Request request) {
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        request.send(new BufferingResponseListener(MAX_RESPONSE_SIZE) {
+            @Override
+            public void onComplete(Result result) {
+                if(result.isFailed()) {
+                    reply.completeExceptionally(result.getFailure());
+                    return;
+                }
+
+                String retryAfter = result.getResponse().getHeaders().get(HttpHeader.RETRY_AFTER);
+                int retryAfterSeconds = -1;
+                if(retryAfter != null) {
+                    try {
+                        retryAfterSeconds = Integer.parseInt(retryAfter.trim());
+                    }
+                    catch(NumberFormatException e) {
+                        // HTTP dates are not sent by the NBI
+                    }
+                }
+                reply.complete(new Reply(result.getResponse().getStatus(), getContent(), retryAfterSeconds));
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * Response of the NBI.
+     */
+    public static final class Reply {
+        private final int status;
+        private final byte[] body;
+        private final int retryAfterSeconds;
+
+        Reply(int status, byte[] body, int retryAfterSeconds) {
+            this.status = status;
+            this.body = body;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /**
+         * @return HTTP status code.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Whether the request was accepted (status 200).
+         */
+        public boolean isOk() {
+            return status == 200;
+        }
+
+        /**
+         * @return Raw body (JSON on success, error message otherwise).
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return Body decoded as UTF-8.
+         */
+        public String getBodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return Delay in seconds after which a rejected request can be
+         *         retried, -1 if the NBI did not advise any.
+         */
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
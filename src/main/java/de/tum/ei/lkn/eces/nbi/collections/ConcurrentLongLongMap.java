@@ -0,0 +1,198 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Map from longs to longs, without boxing, optimized for frequent lookups
+ * and rare updates.
+ *
+ * Entries are stored in a single open-addressing table (linear probing,
+ * deletions by backward shifting), key and value next to each other so
+ * that a lookup usually touches a single cache line. Lookups do not lock:
+ * they run optimistically and are only retried, under a read lock, if an
+ * update happened meanwhile. Updates are serialized.
+ *
+ * @author Amaury Van Bemten
+ */
+public class ConcurrentLongLongMap {
+    // Marks a free slot, hence cannot be used as a key
+    private static final long FREE = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock;
+    // Keys at even indices, values at odd indices
+    private long[] table;
+    private int size;
+
+    public ConcurrentLongLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Expected number of entries.
+     */
+    public ConcurrentLongLongMap(int expectedSize) {
+        this.lock = new StampedLock();
+        this.table = newTable(capacityFor(expectedSize));
+    }
+
+    /**
+     * @param key The key.
+     * @param defaultValue Value returned if the key is not in the map.
+     * @return The value associated with the key, or the default value.
+     */
+    public long get(long key, long defaultValue) {
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            long value = find(table, key, defaultValue);
+            if(lock.validate(stamp))
+                return value;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return find(table, key, defaultValue);
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Associates a value with a key, replacing the previous one if any.
+     *
+     * @param key The key, not Long.MIN_VALUE.
+     * @param value The value.
+     */
+    public void put(long key, long value) {
+        if(key == FREE)
+            throw new IllegalArgumentException("Long.MIN_VALUE cannot be used as a key");
+
+        long stamp = lock.writeLock();
+        try {
+            long[] entries = table;
+            int mask = entries.length / 2 - 1;
+            for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long existing = entries[2 * slot];
+                if(existing == key) {
+                    entries[2 * slot + 1] = value;
+                    return;
+                }
+                if(existing == FREE) {
+                    entries[2 * slot] = key;
+                    entries[2 * slot + 1] = value;
+                    break;
+                }
+            }
+
+            // Load factor of 1/2 keeps probe sequences short
+            if(++size > (entries.length / 2) / 2)
+                table = resize(entries, entries.length); // twice the capacity
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param key The key.
+     * @return Whether the key was in the map.
+     */
+    public boolean remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            long[] entries = table;
+            int mask = entries.length / 2 - 1;
+            int slot = hash(key) & mask;
+            while(entries[2 * slot] != key) {
+                if(entries[2 * slot] == FREE)
+                    return false;
+                slot = (slot + 1) & mask;
+            }
+
+            // Backward shift: moves up the following entries which would not be found anymore
+            int free = slot;
+            for(int next = (free + 1) & mask; entries[2 * next] != FREE; next = (next + 1) & mask) {
+                int ideal = hash(entries[2 * next]) & mask;
+                // Whether the ideal slot of the entry is cyclically outside of (free, next]
+                if(((next - ideal) & mask) >= ((next - free) & mask)) {
+                    entries[2 * free] = entries[2 * next];
+                    entries[2 * free + 1] = entries[2 * next + 1];
+                    free = next;
+                }
+            }
+            entries[2 * free] = FREE;
+            entries[2 * free + 1] = 0;
+            size--;
+            return true;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Number of entries in the map.
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static long find(long[] entries, long key, long defaultValue) {
+        int mask = entries.length / 2 - 1;
+        // Bounded so that an inconsistent optimistic read cannot loop forever
+        for(int slot = hash(key) & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++) {
+            long existing = entries[2 * slot];
+            if(existing == key)
+                return entries[2 * slot + 1];
+            if(existing == FREE)
+                return defaultValue;
+        }
+        return defaultValue;
+    }
+
+    private static long[] resize(long[] entries, int newCapacity) {
+        long[] newEntries = newTable(newCapacity);
+        int mask = newCapacity - 1;
+        for(int i = 0; i < entries.length; i += 2) {
+            long key = entries[i];
+            if(key == FREE)
+                continue;
+            int slot = hash(key) & mask;
+            while(newEntries[2 * slot] != FREE)
+                slot = (slot + 1) & mask;
+            newEntries[2 * slot] = key;
+            newEntries[2 * slot + 1] = entries[i + 1];
+        }
+        return newEntries;
+    }
+
+    private static long[] newTable(int capacity) {
+        long[] entries = new long[2 * capacity];
+        for(int i = 0; i < entries.length; i += 2)
+            entries[i] = FREE;
+        return entries;
+    }
+
+    // Power of two with room for the expected size at the maximum load factor
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while(capacity / 2 < expectedSize)
+            capacity *= 2;
+        return capacity;
+    }
+
+    // IDs are often sequential: the bits are mixed so that neighbors are spread
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
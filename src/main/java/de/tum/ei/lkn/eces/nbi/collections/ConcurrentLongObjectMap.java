@@ -0,0 +1,265 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent map from longs to objects, without boxing of the keys.
+ *
+ * The map is split in segments, selected by the hash of the key, each of
+ * which is an open-addressing table (linear probing, deletions by backward
+ * shifting) with its own lock. An entry thus costs a long and a reference
+ * instead of a boxed key and a node. Lookups do not lock: they run
+ * optimistically and are only retried, under a read lock, if their segment
+ * was updated meanwhile. Updates of different segments run in parallel.
+ *
+ * Null values are not supported.
+ *
+ * @param <V> Type of the values.
+ * @author Amaury Van Bemten
+ */
+public class ConcurrentLongObjectMap<V> {
+    private static final int SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    // Table of a segment, replaced as a whole when resized
+    private static final class Table {
+        final long[] keys;
+        // A null value marks a free slot
+        final Object[] values;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        Table table;
+        int size;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+    }
+
+    private final Segment[] segments;
+
+    public ConcurrentLongObjectMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize Expected number of entries.
+     */
+    public ConcurrentLongObjectMap(int expectedSize) {
+        int capacity = MIN_SEGMENT_CAPACITY;
+        while(capacity * 3 / 4 < expectedSize / SEGMENTS)
+            capacity *= 2;
+
+        segments = new Segment[SEGMENTS];
+        for(int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(capacity);
+    }
+
+    /**
+     * @param key The key.
+     * @return The value associated with the key, null if none.
+     */
+    public V get(long key) {
+        int hash = ConcurrentLongLongMap.hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        if(stamp != 0) {
+            Object value = find(segment.table, key, hash);
+            if(segment.lock.validate(stamp))
+                return cast(value);
+        }
+
+        stamp = segment.lock.readLock();
+        try {
+            return cast(find(segment.table, key, hash));
+        }
+        finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Associates a value with a key.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return The value previously associated with the key, null if none.
+     */
+    public V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Associates a value with a key if it is not in the map yet.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return The value associated with the key, null if there was none.
+     */
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * Removes the entry of a key.
+     *
+     * @param key The key.
+     * @return The value which was associated with the key, null if none.
+     */
+    public V remove(long key) {
+        return removeEntry(key, null);
+    }
+
+    /**
+     * Removes the entry of a key only if it is associated with a given value.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return Whether the entry was removed.
+     */
+    public boolean remove(long key, V value) {
+        if(value == null)
+            return false;
+        return removeEntry(key, value) != null;
+    }
+
+    /**
+     * @return Number of entries in the map.
+     */
+    public int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            }
+            finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        if(value == null)
+            throw new NullPointerException("Null values are not supported");
+
+        int hash = ConcurrentLongLongMap.hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int mask = table.keys.length - 1;
+            for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                Object existing = table.values[slot];
+                if(existing == null) {
+                    table.keys[slot] = key;
+                    table.values[slot] = value;
+                    break;
+                }
+                if(table.keys[slot] == key) {
+                    if(!onlyIfAbsent)
+                        table.values[slot] = value;
+                    return cast(existing);
+                }
+            }
+
+            // Load factor of 3/4
+            if(++segment.size > table.keys.length * 3 / 4)
+                segment.table = resize(table);
+            return null;
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    // Removes the entry of a key if it has the given value (any value if null), returns the removed value
+    private V removeEntry(long key, Object expected) {
+        int hash = ConcurrentLongLongMap.hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            long[] keys = table.keys;
+            Object[] values = table.values;
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while(values[slot] == null || keys[slot] != key) {
+                if(values[slot] == null)
+                    return null;
+                slot = (slot + 1) & mask;
+            }
+
+            Object removed = values[slot];
+            if(expected != null && !expected.equals(removed))
+                return null;
+
+            // Backward shift: moves up the following entries which would not be found anymore
+            int free = slot;
+            for(int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+                int ideal = ConcurrentLongLongMap.hash(keys[next]) & mask;
+                // Whether the ideal slot of the entry is cyclically outside of (free, next]
+                if(((next - ideal) & mask) >= ((next - free) & mask)) {
+                    keys[free] = keys[next];
+                    values[free] = values[next];
+                    free = next;
+                }
+            }
+            values[free] = null;
+            segment.size--;
+            return cast(removed);
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        // High bits select the segment, low bits the slot
+        return segments[hash >>> 28];
+    }
+
+    private static Object find(Table table, long key, int hash) {
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        int mask = keys.length - 1;
+        // Bounded so that an inconsistent optimistic read cannot loop forever
+        for(int slot = hash & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++) {
+            Object value = values[slot];
+            if(value == null)
+                return null;
+            if(keys[slot] == key)
+                return value;
+        }
+        return null;
+    }
+
+    private static Table resize(Table table) {
+        Table newTable = new Table(table.keys.length * 2);
+        int mask = newTable.keys.length - 1;
+        for(int i = 0; i < table.keys.length; i++) {
+            Object value = table.values[i];
+            if(value == null)
+                continue;
+            int slot = ConcurrentLongLongMap.hash(table.keys[i]) & mask;
+            while(newTable.values[slot] != null)
+                slot = (slot + 1) & mask;
+            newTable.keys[slot] = table.keys[i];
+            newTable.values[slot] = value;
+        }
+        return newTable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+}
@@ -0,0 +1,256 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Sorted set of longs, without boxing, for indexes which are iterated in
+ * order (e.g., the IDs of the children of a resource).
+ *
+ * Values are stored in pages of sorted longs: an entry costs 8 bytes plus
+ * its share of the page (instead of a node, a boxed value and index nodes
+ * in a skip list). Pages are immutable versions, so that iterations do not
+ * lock and see each page as it was when they reached it. Updates are
+ * serialized and copy the page they modify, except appends at the end of
+ * the set (the common case for IDs, which increase), which fill the spare
+ * capacity of the last page in place: the new slot is only visible to the
+ * new version of the page.
+ *
+ * @author Amaury Van Bemten
+ */
+public class ConcurrentLongSortedSet {
+    // Maximum number of values per page
+    static final int PAGE_SIZE = 128;
+    private static final Page[] NO_PAGES = new Page[0];
+
+    /**
+     * Version of a page. The array can be shared with later versions, which
+     * only write beyond the size of the earlier ones.
+     */
+    private static final class Page {
+        private final long[] values;
+        private final int size;
+
+        private Page(long[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        private long first() {
+            return values[0];
+        }
+    }
+
+    // Pages sorted by value, none of them empty; pages are replaced in place, the array when pages are added or removed
+    private volatile Page[] pages;
+    private volatile int size;
+
+    public ConcurrentLongSortedSet() {
+        this.pages = NO_PAGES;
+    }
+
+    /**
+     * @param value A value.
+     * @return Whether the value was added (i.e., was not in the set).
+     */
+    public synchronized boolean add(long value) {
+        Page[] current = pages;
+        if(current.length == 0) {
+            pages = new Page[]{newPage(new long[]{value}, 1, true)};
+            size++;
+            return true;
+        }
+
+        int index = pageOf(current, value);
+        Page page = current[index];
+        int position = Arrays.binarySearch(page.values, 0, page.size, value);
+        if(position >= 0)
+            return false;
+        position = -position - 1;
+
+        boolean last = index == current.length - 1;
+        if(position == page.size && page.size < page.values.length) {
+            // Appending in the spare capacity of the last page, invisible to its current version
+            page.values[position] = value;
+            current[index] = new Page(page.values, page.size + 1);
+        }
+        else if(page.size < PAGE_SIZE) {
+            current[index] = newPage(insert(page, position, value), page.size + 1, last);
+        }
+        else if(last && position == page.size) {
+            // Increasing values: the full page is kept as is and a new one started
+            Page[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = newPage(new long[]{value}, 1, true);
+            pages = extended;
+        }
+        else {
+            long[] values = insert(page, position, value);
+            int half = values.length / 2;
+            Page[] split = new Page[current.length + 1];
+            System.arraycopy(current, 0, split, 0, index);
+            split[index] = newPage(Arrays.copyOfRange(values, 0, half), half, false);
+            split[index + 1] = newPage(Arrays.copyOfRange(values, half, values.length), values.length - half, last);
+            System.arraycopy(current, index + 1, split, index + 2, current.length - index - 1);
+            pages = split;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * @param value A value.
+     * @return Whether the value was removed (i.e., was in the set).
+     */
+    public synchronized boolean remove(long value) {
+        Page[] current = pages;
+        if(current.length == 0)
+            return false;
+
+        int index = pageOf(current, value);
+        Page page = current[index];
+        int position = Arrays.binarySearch(page.values, 0, page.size, value);
+        if(position < 0)
+            return false;
+
+        if(page.size == 1) {
+            Page[] reduced = new Page[current.length - 1];
+            System.arraycopy(current, 0, reduced, 0, index);
+            System.arraycopy(current, index + 1, reduced, index, current.length - index - 1);
+            pages = reduced;
+        }
+        else {
+            long[] values = new long[page.size - 1];
+            System.arraycopy(page.values, 0, values, 0, position);
+            System.arraycopy(page.values, position + 1, values, position, page.size - position - 1);
+            current[index] = newPage(values, values.length, index == current.length - 1);
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * @param value A value.
+     * @return Whether the value is in the set.
+     */
+    public boolean contains(long value) {
+        Page[] current = pages;
+        if(current.length == 0)
+            return false;
+        Page page = current[pageOf(current, value)];
+        return Arrays.binarySearch(page.values, 0, page.size, value) >= 0;
+    }
+
+    /**
+     * @return Number of values in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Iterates over the values greater than a given one, in increasing
+     * order. The iteration does not lock and sees the updates made during
+     * it or not.
+     *
+     * @param after Value after which the values are iterated.
+     * @return Iterator over the values.
+     */
+    public PrimitiveIterator.OfLong iterator(long after) {
+        return new Iterator(pages, after, false);
+    }
+
+    /**
+     * @return Iterator over all the values, in increasing order.
+     */
+    public PrimitiveIterator.OfLong iterator() {
+        return new Iterator(pages, Long.MIN_VALUE, true);
+    }
+
+    // Index of the page in which a value is or should be inserted: the last one starting at or before it
+    private static int pageOf(Page[] pages, long value) {
+        int low = 1;
+        int high = pages.length - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(pages[middle].first() <= value)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        return low - 1;
+    }
+
+    private static long[] insert(Page page, int position, long value) {
+        long[] values = new long[page.size + 1];
+        System.arraycopy(page.values, 0, values, 0, position);
+        values[position] = value;
+        System.arraycopy(page.values, position, values, position + 1, page.size - position);
+        return values;
+    }
+
+    // Only the last page gets spare capacity for appends, the others take the space of their values
+    private static Page newPage(long[] values, int size, boolean last) {
+        if(last && values.length < PAGE_SIZE)
+            values = Arrays.copyOf(values, PAGE_SIZE);
+        return new Page(values, size);
+    }
+
+    private static final class Iterator implements PrimitiveIterator.OfLong {
+        private final Page[] pages;
+        private int pageIndex;
+        private Page page;
+        private int position;
+        // Last value returned (or bound), so that values stay increasing whatever the updates
+        private long last;
+        private boolean inclusive;
+        private boolean hasNext;
+        private long next;
+
+        private Iterator(Page[] pages, long after, boolean inclusive) {
+            this.pages = pages;
+            this.last = after;
+            this.inclusive = inclusive;
+            if(pages.length > 0) {
+                this.pageIndex = pageOf(pages, after);
+                this.page = pages[pageIndex];
+                int found = Arrays.binarySearch(page.values, 0, page.size, after);
+                this.position = (found >= 0) ? found : -found - 1;
+            }
+            advance();
+        }
+
+        private void advance() {
+            hasNext = false;
+            while(page != null) {
+                while(position < page.size) {
+                    long value = page.values[position++];
+                    if(value > last || (inclusive && value == last)) {
+                        hasNext = true;
+                        next = value;
+                        return;
+                    }
+                }
+                pageIndex++;
+                page = (pageIndex < pages.length) ? pages[pageIndex] : null;
+                position = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public long nextLong() {
+            if(!hasNext)
+                throw new NoSuchElementException();
+            long value = next;
+            last = value;
+            inclusive = false;
+            advance();
+            return value;
+        }
+    }
+}
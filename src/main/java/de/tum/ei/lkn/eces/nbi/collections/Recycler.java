@@ -0,0 +1,96 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Reusable objects (e.g., buffers, decoders or random generators) held by
+ * the thread using them, like a {@link ThreadLocal}.
+ *
+ * Threads of a pool keep their objects as long as they live. Threads which
+ * only live for one request (e.g., virtual threads) instead give their
+ * objects back with {@link #releaseAll()} when they are done: the objects go
+ * to a bounded pool of idle objects, from which the next threads take them
+ * instead of creating new ones. Objects released while the pool is full are
+ * dropped.
+ *
+ * @param <T> Type of the objects.
+ * @author Amaury Van Bemten
+ */
+public final class Recycler<T> {
+    // Idle objects kept by default, enough for the requests running at once on the carrier threads
+    private static final int DEFAULT_CAPACITY = 4 * Runtime.getRuntime().availableProcessors();
+    // Recyclers whose objects are released by releaseAll()
+    private static final List<Recycler<?>> RECYCLERS = new CopyOnWriteArrayList<>();
+
+    private final Supplier<T> factory;
+    private final ThreadLocal<T> instances;
+    private final Queue<T> idle;
+
+    private Recycler(Supplier<T> factory, int capacity) {
+        this.factory = factory;
+        this.instances = new ThreadLocal<>();
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Creates a recycler. Recyclers are never discarded: they are meant to
+     * be stored in constants.
+     *
+     * @param factory Creates the objects.
+     * @param <T> Type of the objects.
+     * @return The recycler.
+     */
+    public static <T> Recycler<T> withInitial(Supplier<T> factory) {
+        Recycler<T> recycler = new Recycler<>(factory, DEFAULT_CAPACITY);
+        RECYCLERS.add(recycler);
+        return recycler;
+    }
+
+    /**
+     * @return The object of the current thread, taken from the idle objects
+     *         or created on the first call of the thread (or the first call
+     *         since it released its objects).
+     */
+    public T get() {
+        T instance = instances.get();
+        if(instance == null) {
+            instance = idle.poll();
+            if(instance == null)
+                instance = factory.get();
+            instances.set(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Gives the object of the current thread (if any) back to the idle
+     * objects. The thread must not use it anymore.
+     */
+    public void release() {
+        T instance = instances.get();
+        if(instance == null)
+            return;
+        instances.remove();
+        idle.offer(instance);
+    }
+
+    /**
+     * Gives the objects of all the recyclers held by the current thread back,
+     * to call when a thread which only lives for one request is done.
+     */
+    public static void releaseAll() {
+        for(Recycler<?> recycler : RECYCLERS)
+            recycler.release();
+    }
+
+    /**
+     * @return Number of idle objects.
+     */
+    public int getNumberOfIdleObjects() {
+        return idle.size();
+    }
+}
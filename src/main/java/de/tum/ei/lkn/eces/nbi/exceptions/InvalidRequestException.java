@@ -0,0 +1,14 @@
+package de.tum.ei.lkn.eces.nbi.exceptions;
+
+/**
+ * Exception thrown when (part of) a request sent to the NBI is invalid.
+ *
+ * The message of the exception is meant to be returned to the client.
+ *
+ * @author Amaury Van Bemten
+ */
+public class InvalidRequestException extends Exception {
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
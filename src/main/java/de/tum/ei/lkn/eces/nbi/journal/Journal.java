@@ -0,0 +1,647 @@
+package de.tum.ei.lkn.eces.nbi.journal;
+
+import de.tum.ei.lkn.eces.nbi.requests.FlowSpec;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the creations and removals of tenants, VMs and
+ * flows, from which the state of an NBI is recovered after a restart.
+ *
+ * Records are appended to memory-mapped segment files of a fixed size
+ * ({@code journal-<n>.log}), each record being prefixed by its length and
+ * CRC32 so that a record torn by a crash ends the journal. Appending only
+ * copies the record into the mapping; making it durable is left to a
+ * flusher thread (group commit): {@link #sync()} waits until everything
+ * appended so far has been forced to disk, and all the threads waiting
+ * while the disk is being forced are served by the next force.
+ *
+ * When a segment is full, a new one is started and the full one is handed
+ * to the flusher thread, which forces it (and the directory, so that the
+ * new segment file survives a crash) before the records of the new one are
+ * reported durable. The previous snapshot and the full segments are folded in the background into
+ * a new snapshot ({@code snapshot-<n>.log}, covering all the segments up to
+ * n), which only contains the resources which still exist. The folded files
+ * are then deleted, so that the journal stays proportional to the state of
+ * the NBI rather than to its history.
+ *
+ * Appends must be ordered as the operations they describe: records of a
+ * tenant are appended in its lane, and a resource is journaled before it is
+ * registered (so that it cannot be used before being journaled).
+ *
+ * @author Amaury Van Bemten
+ */
+public class Journal implements AutoCloseable {
+    /**
+     * Default size of the segment files.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    // Types of the records
+    private static final byte CREATE_TENANT = 1;
+    private static final byte CREATE_VM = 2;
+    private static final byte CREATE_FLOW = 3;
+    private static final byte REMOVE_TENANT = 4;
+    private static final byte REMOVE_VM = 5;
+    private static final byte REMOVE_FLOW = 6;
+    private static final byte LAST_ID = 7;
+
+    // Length and CRC32 preceding each record
+    private static final int HEADER_SIZE = 8;
+
+    // Directories cannot be opened, and thus forced, on Windows
+    private static final boolean SYNC_DIRECTORIES = !System.getProperty("os.name").startsWith("Windows");
+
+    private static final Logger logger = Logger.getLogger(Journal.class);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final JournalState recoveredState;
+
+    // Current segment, guarded by this
+    private long segmentNumber;
+    private MappedByteBuffer segment;
+    private final Encoder encoder;
+    private long appended;
+    // Full segments and new segment files not forced yet, guarded by this
+    private final List<MappedByteBuffer> fullSegments;
+    private boolean newSegments;
+
+    // Group commit, guarded by flushLock
+    private final Object flushLock;
+    private final Thread flusher;
+    private long requested;
+    private long durable;
+    private long flushes;
+    private IOException failure;
+    private boolean closed;
+
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting;
+
+    /**
+     * Opens a journal, reading the state it describes, and starts a new
+     * segment.
+     *
+     * @param directory Directory of the journal (created if needed).
+     * @param segmentSize Size of the segment files.
+     * @throws IOException if the journal cannot be read or written.
+     */
+    public Journal(Path directory, long segmentSize) throws IOException {
+        if(segmentSize < 4096 || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid segment size (" + segmentSize + " given)");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.encoder = new Encoder();
+        this.fullSegments = new ArrayList<>();
+        this.flushLock = new Object();
+        this.compacting = new AtomicBoolean();
+
+        Files.createDirectories(directory);
+        for(Path leftover : list(directory, SNAPSHOT_PREFIX, TEMPORARY_SUFFIX))
+            Files.delete(leftover);
+
+        this.recoveredState = new JournalState();
+        long lastSegment = load(directory, Long.MAX_VALUE, recoveredState);
+        boolean unfolded = !list(directory, SEGMENT_PREFIX, SUFFIX).isEmpty();
+
+        this.segmentNumber = lastSegment + 1;
+        this.segment = map(segmentNumber);
+        syncDirectory(directory);
+
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nbi-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Folding what the previous runs left
+        if(unfolded)
+            compact(lastSegment);
+
+        this.flusher = new Thread(this::flush, "nbi-journal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * @return The state described by the journal when it was opened.
+     */
+    public JournalState getRecoveredState() {
+        return recoveredState;
+    }
+
+    /**
+     * @return Number of times the journal was forced to disk.
+     */
+    public long getFlushes() {
+        synchronized(flushLock) {
+            return flushes;
+        }
+    }
+
+    public synchronized void createTenant(long id, long cookie, String name) {
+        append(encoder.begin(CREATE_TENANT).putLong(id).putLong(cookie).putString(name));
+    }
+
+    public synchronized void createVM(long id, long tenantId, String name) {
+        append(encoder.begin(CREATE_VM).putLong(id).putLong(tenantId).putString(name));
+    }
+
+    /**
+     * @param id ID of the flow.
+     * @param tenantId ID of the tenant of the flow.
+     * @param spec Specification of the flow, with the IDs of its VMs.
+     */
+    public synchronized void createFlow(long id, long tenantId, FlowSpec spec) {
+        append(encodeFlow(encoder, id, tenantId, spec));
+    }
+
+    public synchronized void removeTenant(long id) {
+        append(encoder.begin(REMOVE_TENANT).putLong(id));
+    }
+
+    public synchronized void removeVM(long id) {
+        append(encoder.begin(REMOVE_VM).putLong(id));
+    }
+
+    public synchronized void removeFlow(long id) {
+        append(encoder.begin(REMOVE_FLOW).putLong(id));
+    }
+
+    /**
+     * Waits until all the records appended so far are durable.
+     *
+     * @throws UncheckedIOException if the journal could not be forced.
+     */
+    public void sync() {
+        long target;
+        synchronized(this) {
+            target = appended;
+        }
+
+        synchronized(flushLock) {
+            if(target > requested) {
+                requested = target;
+                flushLock.notifyAll();
+            }
+            while(durable < target) {
+                if(failure != null)
+                    throw new UncheckedIOException("Unable to write the journal", failure);
+                if(closed)
+                    throw new IllegalStateException("The journal is closed");
+                try {
+                    flushLock.wait();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the journal");
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the journal to disk and stops its threads.
+     */
+    @Override
+    public void close() {
+        synchronized(flushLock) {
+            closed = true;
+            flushLock.notifyAll();
+        }
+        try {
+            flusher.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized(this) {
+            try {
+                forceSegments(fullSegments, newSegments);
+            }
+            catch(IOException | UncheckedIOException e) {
+                logger.error("Unable to write the journal: " + e.getMessage());
+            }
+            fullSegments.clear();
+            newSegments = false;
+            segment.force();
+        }
+
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Appends the record of the encoder to the current segment, starting a new segment if it is full, must be called with the lock held
+    private void append(Encoder record) {
+        int size = HEADER_SIZE + record.size();
+        if(size > segmentSize)
+            throw new IllegalArgumentException("Record larger than the segments of the journal");
+
+        if(segment.remaining() < size) {
+            // The full segment is made durable by the flusher, before the records of the next one
+            long full = segmentNumber;
+            MappedByteBuffer next;
+            try {
+                next = map(full + 1);
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException("Unable to start a new segment of the journal", e);
+            }
+            fullSegments.add(segment);
+            newSegments = true;
+            segment = next;
+            segmentNumber = full + 1;
+            synchronized(flushLock) {
+                requested = Math.max(requested, appended);
+                flushLock.notifyAll();
+            }
+            compact(full);
+        }
+
+        record.writeTo(segment);
+        appended += size;
+    }
+
+    // Loop of the flusher thread: forces the current segment whenever records are waited for
+    private void flush() {
+        while(true) {
+            synchronized(flushLock) {
+                while((requested <= durable || failure != null) && !closed) {
+                    try {
+                        flushLock.wait();
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                }
+                if(closed)
+                    return;
+            }
+
+            MappedByteBuffer buffer;
+            List<MappedByteBuffer> full = null;
+            boolean created;
+            long end;
+            synchronized(this) {
+                buffer = segment;
+                end = appended;
+                if(!fullSegments.isEmpty()) {
+                    full = new ArrayList<>(fullSegments);
+                    fullSegments.clear();
+                }
+                created = newSegments;
+                newSegments = false;
+            }
+
+            IOException error = null;
+            try {
+                // Full segments first: the records of the current one come after theirs
+                if(full != null || created)
+                    forceSegments(full, created);
+                buffer.force();
+            }
+            catch(IOException e) {
+                error = e;
+            }
+            catch(UncheckedIOException e) {
+                error = e.getCause();
+            }
+
+            synchronized(flushLock) {
+                if(error != null) {
+                    logger.error("Unable to write the journal: " + error.getMessage());
+                    failure = error;
+                }
+                else {
+                    durable = Math.max(durable, end);
+                    flushes++;
+                }
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // Forces full segments and, if new segment files were created, the directory
+    private void forceSegments(List<MappedByteBuffer> full, boolean created) throws IOException {
+        if(full != null) {
+            for(MappedByteBuffer buffer : full)
+                buffer.force();
+        }
+        if(created)
+            syncDirectory(directory);
+    }
+
+    // Folds, in the background, the last snapshot and the segments up to a given one into a new snapshot
+    private void compact(long lastSegment) {
+        // A running compaction will be followed by one triggered by the next full segment
+        if(!compacting.compareAndSet(false, true))
+            return;
+
+        compactor.execute(() -> {
+            try {
+                compactNow(directory, lastSegment);
+            }
+            catch(IOException | RuntimeException e) {
+                logger.error("Unable to compact the journal: " + e.getMessage());
+            }
+            finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Folds the last snapshot and the segments up to a given one into a new
+     * snapshot, and deletes them.
+     *
+     * @param directory Directory of the journal.
+     * @param lastSegment Number of the last segment to fold (which must not
+     *                    be written anymore).
+     * @throws IOException if the journal cannot be read or written.
+     */
+    static void compactNow(Path directory, long lastSegment) throws IOException {
+        JournalState state = new JournalState();
+        load(directory, lastSegment, state);
+
+        Path snapshot = directory.resolve(SNAPSHOT_PREFIX + number(lastSegment) + SUFFIX);
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + number(lastSegment) + TEMPORARY_SUFFIX);
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Encoder encoder = new Encoder();
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            write(channel, buffer, encoder.begin(LAST_ID).putLong(state.getLastId()));
+            for(JournalState.TenantEntry tenant : state.getTenants())
+                write(channel, buffer, encoder.begin(CREATE_TENANT).putLong(tenant.getId()).putLong(tenant.getCookie()).putString(tenant.getName()));
+            for(JournalState.VMEntry vm : state.getVMs())
+                write(channel, buffer, encoder.begin(CREATE_VM).putLong(vm.getId()).putLong(vm.getTenantId()).putString(vm.getName()));
+            for(JournalState.FlowEntry flow : state.getFlows())
+                write(channel, buffer, encodeFlow(encoder, flow.getId(), flow.getTenantId(), flow.getSpec()));
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // The snapshot must be durable under its name before the files it replaces are deleted
+        syncDirectory(directory);
+
+        // Everything folded in the new snapshot can go
+        for(Path file : list(directory, SEGMENT_PREFIX, SUFFIX))
+            if(number(file, SEGMENT_PREFIX) <= lastSegment)
+                Files.delete(file);
+        for(Path file : list(directory, SNAPSHOT_PREFIX, SUFFIX))
+            if(number(file, SNAPSHOT_PREFIX) < lastSegment)
+                Files.delete(file);
+    }
+
+    /**
+     * Folds the last snapshot and the following segments up to a given one.
+     *
+     * @param directory Directory of the journal.
+     * @param lastSegment Number of the last segment to fold.
+     * @param state State into which records are folded.
+     * @return Number of the last segment or snapshot found (0 if none).
+     * @throws IOException if the journal cannot be read.
+     */
+    static long load(Path directory, long lastSegment, JournalState state) throws IOException {
+        long snapshotNumber = 0;
+        Path snapshot = null;
+        for(Path file : list(directory, SNAPSHOT_PREFIX, SUFFIX)) {
+            long n = number(file, SNAPSHOT_PREFIX);
+            if(n <= lastSegment && n > snapshotNumber) {
+                snapshotNumber = n;
+                snapshot = file;
+            }
+        }
+        if(snapshot != null)
+            read(snapshot, state);
+
+        long last = snapshotNumber;
+        for(Path file : list(directory, SEGMENT_PREFIX, SUFFIX)) {
+            long n = number(file, SEGMENT_PREFIX);
+            if(n > snapshotNumber && n <= lastSegment) {
+                read(file, state);
+                last = n;
+            }
+        }
+        return last;
+    }
+
+    // Folds the records of a file, up to the end of the file or to the first incomplete or corrupted record
+    private static void read(Path file, JournalState state) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while(buffer.remaining() >= HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                // Segments are zero-filled after their last record
+                if(length <= 0 || length > buffer.remaining())
+                    break;
+
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                crc.reset();
+                crc.update(record.duplicate());
+                if((int) crc.getValue() != checksum) {
+                    logger.warn("Corrupted record in " + file.getFileName() + ", ignoring the rest of the file");
+                    break;
+                }
+
+                apply(record, state);
+                buffer.position(buffer.position() + length);
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer record, JournalState state) {
+        byte type = record.get();
+        long id = record.getLong();
+        switch(type) {
+            case CREATE_TENANT:
+                state.createTenant(id, record.getLong(), getString(record));
+                break;
+            case CREATE_VM:
+                state.createVM(id, record.getLong(), getString(record));
+                break;
+            case CREATE_FLOW:
+                long tenantId = record.getLong();
+                String name = getString(record);
+                state.createFlow(id, tenantId, new FlowSpec(name, record.getInt(), record.getInt(), record.getInt(), record.getInt(), record.getInt(),
+                        record.getLong(), record.getLong(), record.getLong(), record.getLong(), record.getDouble()));
+                break;
+            case REMOVE_TENANT:
+                state.removeTenant(id);
+                break;
+            case REMOVE_VM:
+                state.removeVM(id);
+                break;
+            case REMOVE_FLOW:
+                state.removeFlow(id);
+                break;
+            case LAST_ID:
+                state.reserveIds(id);
+                break;
+            default:
+                logger.warn("Unknown record type in the journal: " + type);
+        }
+    }
+
+    private static Encoder encodeFlow(Encoder encoder, long id, long tenantId, FlowSpec spec) {
+        return encoder.begin(CREATE_FLOW).putLong(id).putLong(tenantId).putString(spec.getName())
+                .putInt(spec.getSrcIp()).putInt(spec.getDstIp()).putInt(spec.getSrcPort()).putInt(spec.getDstPort()).putInt(spec.getProtocol())
+                .putLong(spec.getSource()).putLong(spec.getDestination()).putLong(spec.getRate()).putLong(spec.getBurst()).putDouble(spec.getLatency());
+    }
+
+    // Writes a record through a buffer, draining it to the channel when full
+    private static void write(FileChannel channel, ByteBuffer buffer, Encoder record) throws IOException {
+        if(buffer.remaining() < HEADER_SIZE + record.size()) {
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+        if(buffer.remaining() < HEADER_SIZE + record.size()) {
+            // Larger than the buffer
+            ByteBuffer large = ByteBuffer.allocate(HEADER_SIZE + record.size());
+            record.writeTo(large);
+            large.flip();
+            while(large.hasRemaining())
+                channel.write(large);
+            return;
+        }
+        record.writeTo(buffer);
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Maps a new, zero-filled, segment
+    private MappedByteBuffer map(long number) throws IOException {
+        Path file = directory.resolve(SEGMENT_PREFIX + number(number) + SUFFIX);
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    // Makes the creations and renamings of files in a directory durable
+    private static void syncDirectory(Path directory) throws IOException {
+        if(!SYNC_DIRECTORIES)
+            return;
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    // Files of the journal with a given prefix and suffix, sorted by name (and thus number)
+    private static List<Path> list(Path directory, String prefix, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for(Path file : stream)
+                files.add(file);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    // Zero-padded so that files sort by number
+    private static String number(long number) {
+        return String.format("%020d", number);
+    }
+
+    private static long number(Path file, String prefix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Encoder of a record, reused by the appends (which are serialized).
+     */
+    private static final class Encoder {
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer payload = ByteBuffer.allocate(256);
+
+        private Encoder begin(byte type) {
+            payload.clear();
+            payload.put(type);
+            return this;
+        }
+
+        private Encoder putLong(long value) {
+            ensure(8).putLong(value);
+            return this;
+        }
+
+        private Encoder putInt(int value) {
+            ensure(4).putInt(value);
+            return this;
+        }
+
+        private Encoder putDouble(double value) {
+            ensure(8).putDouble(value);
+            return this;
+        }
+
+        private Encoder putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length).putInt(bytes.length).put(bytes);
+            return this;
+        }
+
+        private int size() {
+            return payload.position();
+        }
+
+        private void writeTo(ByteBuffer out) {
+            ByteBuffer record = payload.duplicate();
+            record.flip();
+            crc.reset();
+            crc.update(record.duplicate());
+            out.putInt(record.remaining());
+            out.putInt((int) crc.getValue());
+            out.put(record);
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if(payload.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(payload.capacity() * 2, payload.position() + bytes));
+                payload.flip();
+                larger.put(payload);
+                payload = larger;
+            }
+            return payload;
+        }
+    }
+}
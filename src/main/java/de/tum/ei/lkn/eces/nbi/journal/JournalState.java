@@ -0,0 +1,186 @@
+package de.tum.ei.lkn.eces.nbi.journal;
+
+import de.tum.ei.lkn.eces.nbi.requests.FlowSpec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * State of the NBI described by a {@link Journal}: the tenants, VMs and
+ * flows created and not removed, by ID, and the last ID assigned.
+ *
+ * The state is built by folding the records of the journal in order.
+ * Removing a tenant or a VM does not look for its children: the VMs and
+ * flows whose tenant or VMs are gone are only dropped when the state is
+ * read. Since IDs are never reused, such children can never be revived by a
+ * later record.
+ *
+ * @author Amaury Van Bemten
+ */
+public class JournalState {
+    private final TreeMap<Long, TenantEntry> tenants;
+    private final TreeMap<Long, VMEntry> vms;
+    private final TreeMap<Long, FlowEntry> flows;
+    private long lastId;
+
+    /**
+     * Tenant as journaled.
+     */
+    public static final class TenantEntry {
+        private final long id;
+        private final long cookie;
+        private final String name;
+
+        TenantEntry(long id, long cookie, String name) {
+            this.id = id;
+            this.cookie = cookie;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getCookie() {
+            return cookie;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * VM as journaled.
+     */
+    public static final class VMEntry {
+        private final long id;
+        private final long tenantId;
+        private final String name;
+
+        VMEntry(long id, long tenantId, String name) {
+            this.id = id;
+            this.tenantId = tenantId;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getTenantId() {
+            return tenantId;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Flow as journaled, its source and destination being the IDs of its VMs.
+     */
+    public static final class FlowEntry {
+        private final long id;
+        private final long tenantId;
+        private final FlowSpec spec;
+
+        FlowEntry(long id, long tenantId, FlowSpec spec) {
+            this.id = id;
+            this.tenantId = tenantId;
+            this.spec = spec;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getTenantId() {
+            return tenantId;
+        }
+
+        public FlowSpec getSpec() {
+            return spec;
+        }
+    }
+
+    public JournalState() {
+        this.tenants = new TreeMap<>();
+        this.vms = new TreeMap<>();
+        this.flows = new TreeMap<>();
+    }
+
+    /**
+     * @return Last ID assigned to a resource (even if it was removed since).
+     */
+    public long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * @return The tenants, sorted by ID.
+     */
+    public List<TenantEntry> getTenants() {
+        return new ArrayList<>(tenants.values());
+    }
+
+    /**
+     * @return The VMs whose tenant exists, sorted by ID.
+     */
+    public List<VMEntry> getVMs() {
+        List<VMEntry> result = new ArrayList<>();
+        for(VMEntry vm : vms.values())
+            if(tenants.containsKey(vm.getTenantId()))
+                result.add(vm);
+        return result;
+    }
+
+    /**
+     * @return The flows whose tenant and VMs exist, sorted by ID.
+     */
+    public List<FlowEntry> getFlows() {
+        List<FlowEntry> result = new ArrayList<>();
+        for(FlowEntry flow : flows.values())
+            if(tenants.containsKey(flow.getTenantId()) && isVM(flow.getSpec().getSource()) && isVM(flow.getSpec().getDestination()))
+                result.add(flow);
+        return result;
+    }
+
+    void reserveIds(long id) {
+        lastId = Math.max(lastId, id);
+    }
+
+    void createTenant(long id, long cookie, String name) {
+        reserveIds(id);
+        tenants.put(id, new TenantEntry(id, cookie, name));
+    }
+
+    void createVM(long id, long tenantId, String name) {
+        reserveIds(id);
+        vms.put(id, new VMEntry(id, tenantId, name));
+    }
+
+    void createFlow(long id, long tenantId, FlowSpec spec) {
+        reserveIds(id);
+        flows.put(id, new FlowEntry(id, tenantId, spec));
+    }
+
+    void removeTenant(long id) {
+        tenants.remove(id);
+    }
+
+    void removeVM(long id) {
+        vms.remove(id);
+    }
+
+    void removeFlow(long id) {
+        flows.remove(id);
+    }
+
+    // Whether a VM exists, together with its tenant
+    private boolean isVM(long id) {
+        VMEntry vm = vms.get(id);
+        return vm != null && tenants.containsKey(vm.getTenantId());
+    }
+}
@@ -0,0 +1,242 @@
+package de.tum.ei.lkn.eces.nbi.json;
+
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+
+/**
+ * Values of a fixed set of fields of a JSON object, decoded in a single
+ * pass.
+ *
+ * Numbers are kept as primitives and strings as positions in the read data,
+ * so that decoding a request does not allocate anything but what is
+ * actually used afterwards. Fields which are not part of the set are
+ * skipped. The fields are mandatory, except a given number of trailing
+ * fields. Instances are reusable but not thread-safe.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class JsonFields {
+    private final String[] names;
+    private final int required;
+    private final JsonReader.Kind[] kinds;
+    private final long[] longs;
+    private final double[] doubles;
+    private final int[] starts;
+    private final int[] ends;
+    private final boolean[] escaped;
+    private JsonReader reader;
+
+    /**
+     * @param names Keys of the fields to decode, all mandatory.
+     */
+    public JsonFields(String... names) {
+        this(0, names);
+    }
+
+    /**
+     * @param optional Number of fields, at the end of names, which may be
+     *                 absent.
+     * @param names Keys of the fields to decode.
+     */
+    public JsonFields(int optional, String... names) {
+        if(optional < 0 || optional > names.length)
+            throw new IllegalArgumentException("Invalid number of optional fields (" + optional + " given)");
+
+        this.names = names;
+        this.required = names.length - optional;
+        this.kinds = new JsonReader.Kind[names.length];
+        this.longs = new long[names.length];
+        this.doubles = new double[names.length];
+        this.starts = new int[names.length];
+        this.ends = new int[names.length];
+        this.escaped = new boolean[names.length];
+    }
+
+    /**
+     * Decodes the JSON object contained in some data.
+     *
+     * @param data UTF-8 encoded JSON object.
+     * @throws InvalidRequestException if the syntax is invalid or a field is
+     *                                 missing.
+     */
+    public void read(byte[] data) throws InvalidRequestException {
+        read(new JsonReader(data));
+    }
+
+    /**
+     * Decodes the next value of a reader, which must be a JSON object.
+     *
+     * @param reader The reader.
+     * @throws InvalidRequestException if the syntax is invalid or a field is
+     *                                 missing.
+     */
+    public void read(JsonReader reader) throws InvalidRequestException {
+        this.reader = reader;
+        for(int i = 0; i < names.length; i++)
+            kinds[i] = null;
+
+        reader.beginObject();
+        while(reader.nextField()) {
+            int index = indexOfKey(reader);
+            if(index < 0) {
+                reader.skipValue();
+                continue;
+            }
+            if(kinds[index] != null)
+                throw new InvalidRequestException("This is not a valid JSON format");
+
+            JsonReader.Kind kind = reader.readValue();
+            kinds[index] = kind;
+            switch(kind) {
+                case INTEGER:
+                    longs[index] = reader.longValue();
+                    break;
+                case DECIMAL:
+                    doubles[index] = reader.doubleValue();
+                    break;
+                case STRING:
+                    starts[index] = reader.tokenStart();
+                    ends[index] = reader.tokenEnd();
+                    escaped[index] = reader.isTokenEscaped();
+                    break;
+                case OBJECT:
+                case ARRAY:
+                    starts[index] = reader.position();
+                    reader.skipNested();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for(int i = 0; i < required; i++) {
+            if(kinds[i] == null)
+                throw new InvalidRequestException("A key is missing: " + missingKey(names[i]));
+        }
+    }
+
+    // Description of a missing key, worded like the org.json exception which used to be reported to the clients
+    private static String missingKey(String name) {
+        return "org.json.JSONException: JSONObject[\"" + name + "\"] not found.";
+    }
+
+    /**
+     * @param index Index of a field.
+     * @return The kind of the value of the field.
+     */
+    public JsonReader.Kind getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @param index Index of a field.
+     * @return Whether the field is present (always true for mandatory
+     *         fields).
+     */
+    public boolean has(int index) {
+        return kinds[index] != null;
+    }
+
+    /**
+     * @param index Index of a field.
+     * @return Whether the value of the field is a string.
+     */
+    public boolean isString(int index) {
+        return kinds[index] == JsonReader.Kind.STRING;
+    }
+
+    /**
+     * @param index Index of a field.
+     * @return Whether the value of the field is an integer fitting in a long.
+     */
+    public boolean isLong(int index) {
+        return kinds[index] == JsonReader.Kind.INTEGER;
+    }
+
+    /**
+     * @param index Index of a field.
+     * @return Whether the value of the field is an integer fitting in an int.
+     */
+    public boolean isInt(int index) {
+        return isLong(index) && longs[index] == (int) longs[index];
+    }
+
+    /**
+     * @param index Index of a field.
+     * @return Whether the value of the field is a number.
+     */
+    public boolean isNumber(int index) {
+        return isLong(index) || kinds[index] == JsonReader.Kind.DECIMAL;
+    }
+
+    public long getLong(int index) {
+        return longs[index];
+    }
+
+    public int getInt(int index) {
+        return (int) longs[index];
+    }
+
+    public double getDouble(int index) {
+        return isLong(index) ? longs[index] : doubles[index];
+    }
+
+    /**
+     * @param index Index of a string field.
+     * @return The decoded string.
+     */
+    public String getString(int index) {
+        return reader.decode(starts[index], ends[index], escaped[index]);
+    }
+
+    /**
+     * @return The data from which the fields were decoded.
+     */
+    public byte[] getData() {
+        return reader.getData();
+    }
+
+    /**
+     * @param index Index of a string field.
+     * @return Start of the string in the data (inclusive).
+     */
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * @param index Index of a string field.
+     * @return End of the string in the data (exclusive).
+     */
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * @param index Index of a string field.
+     * @return Whether the string contains escape sequences, in which case
+     *         it must be decoded with {@link #getString(int)}.
+     */
+    public boolean isEscaped(int index) {
+        return escaped[index];
+    }
+
+    /**
+     * Positions the reader which was used for decoding in front of the value
+     * of an object or array field, so that it can be read.
+     *
+     * @param index Index of an object or array field.
+     * @return The reader.
+     */
+    public JsonReader enter(int index) {
+        reader.position(starts[index]);
+        return reader;
+    }
+
+    private int indexOfKey(JsonReader reader) {
+        for(int i = 0; i < names.length; i++) {
+            if(reader.keyEquals(names[i]))
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,578 @@
+package de.tum.ei.lkn.eces.nbi.json;
+
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of JSON documents encoded in UTF-8.
+ *
+ * The reader works directly on the bytes of a request body and exposes
+ * numbers as primitives: strings are only decoded when explicitly asked
+ * for. To stay compatible with what clients used to send when the NBI was
+ * based on org.json, the accepted syntax is the same lenient one: strings
+ * can be unquoted (or single-quoted) and a trailing separator is allowed
+ * before the end of an object or array. Unquoted values are interpreted as
+ * org.json does: booleans, null, integers and decimals are recognized, and
+ * anything else is a string.
+ *
+ * Objects and arrays are read field by field and element by element:
+ * {@link #readValue()} consumes scalar values and stops in front of nested
+ * objects and arrays, which can then be entered or skipped.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class JsonReader {
+    /**
+     * Kind of JSON value.
+     */
+    public enum Kind {
+        STRING, INTEGER, DECIMAL, BOOLEAN, NULL, OBJECT, ARRAY
+    }
+
+    private static final String INVALID_JSON = "This is not a valid JSON format";
+
+    private final byte[] data;
+    private int pos;
+
+    // Whether a separator is expected before the next field/element, per nesting level
+    private boolean[] needSeparator;
+    private int depth;
+
+    // Last key read
+    private int keyStart;
+    private int keyEnd;
+    private boolean keyEscaped;
+
+    // Last scalar value read
+    private Kind kind;
+    private long longValue;
+    private double doubleValue;
+    private boolean booleanValue;
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenEscaped;
+
+    public JsonReader(byte[] data) {
+        this.data = data;
+        this.pos = 0;
+        this.needSeparator = new boolean[8];
+        this.depth = 0;
+    }
+
+    /**
+     * @return The bytes being read.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return The current position in the data.
+     */
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * Moves the reader, typically in front of a nested object or array
+     * skipped earlier.
+     *
+     * @param position New position in the data.
+     */
+    public void position(int position) {
+        this.pos = position;
+    }
+
+    /**
+     * Enters an object.
+     *
+     * @throws InvalidRequestException if the next value is not an object.
+     */
+    public void beginObject() throws InvalidRequestException {
+        if(nextClean() != '{')
+            throw new InvalidRequestException(INVALID_JSON);
+        pos++;
+        push();
+    }
+
+    /**
+     * Moves to the next field of the current object. When there is one, its
+     * key can be compared with {@link #keyEquals(String)} and its value must
+     * then be read or skipped.
+     *
+     * @return true if there is a next field, false if the end of the object
+     *         was reached (the object is then left).
+     * @throws InvalidRequestException if the syntax is invalid.
+     */
+    public boolean nextField() throws InvalidRequestException {
+        if(!nextEntry('}'))
+            return false;
+
+        int c = nextClean();
+        if(c == '"' || c == '\'') {
+            readQuotedString();
+        }
+        else if(c == '{' || c == '[') {
+            throw new InvalidRequestException(INVALID_JSON);
+        }
+        else {
+            readUnquotedToken();
+            if(tokenEnd == tokenStart)
+                throw new InvalidRequestException(INVALID_JSON);
+        }
+        keyStart = tokenStart;
+        keyEnd = tokenEnd;
+        keyEscaped = tokenEscaped;
+
+        if(nextClean() != ':')
+            throw new InvalidRequestException(INVALID_JSON);
+        pos++;
+        return true;
+    }
+
+    /**
+     * Enters an array.
+     *
+     * @throws InvalidRequestException if the next value is not an array.
+     */
+    public void beginArray() throws InvalidRequestException {
+        if(nextClean() != '[')
+            throw new InvalidRequestException(INVALID_JSON);
+        pos++;
+        push();
+    }
+
+    /**
+     * Moves to the next element of the current array, which must then be
+     * read or skipped.
+     *
+     * @return true if there is a next element, false if the end of the array
+     *         was reached (the array is then left).
+     * @throws InvalidRequestException if the syntax is invalid.
+     */
+    public boolean nextElement() throws InvalidRequestException {
+        return nextEntry(']');
+    }
+
+    /**
+     * @param name A key (ASCII).
+     * @return Whether the key of the current field is the given one.
+     */
+    public boolean keyEquals(String name) {
+        if(keyEscaped)
+            return decode(keyStart, keyEnd, true).equals(name);
+
+        int length = keyEnd - keyStart;
+        if(length != name.length())
+            return false;
+        for(int i = 0; i < length; i++) {
+            if(data[keyStart + i] != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The key of the current field.
+     */
+    public String key() {
+        return decode(keyStart, keyEnd, keyEscaped);
+    }
+
+    /**
+     * Reads the next value. Scalar values are consumed and their content
+     * can then be retrieved from the reader. For objects and arrays, the
+     * reader stays in front of the value, which must then be entered or
+     * skipped with {@link #skipNested()}.
+     *
+     * @return The kind of the value.
+     * @throws InvalidRequestException if the syntax is invalid.
+     */
+    public Kind readValue() throws InvalidRequestException {
+        int c = nextClean();
+        switch(c) {
+            case '{':
+                kind = Kind.OBJECT;
+                return kind;
+            case '[':
+                kind = Kind.ARRAY;
+                return kind;
+            case '"':
+            case '\'':
+                readQuotedString();
+                kind = Kind.STRING;
+                return kind;
+            default:
+                readUnquotedToken();
+                if(tokenEnd == tokenStart)
+                    throw new InvalidRequestException(INVALID_JSON);
+                classifyToken();
+                return kind;
+        }
+    }
+
+    /**
+     * Reads and discards the next value.
+     *
+     * @throws InvalidRequestException if the syntax is invalid.
+     */
+    public void skipValue() throws InvalidRequestException {
+        Kind valueKind = readValue();
+        if(valueKind == Kind.OBJECT || valueKind == Kind.ARRAY)
+            skipNested();
+    }
+
+    /**
+     * Skips the object or array in front of which the reader is, checking
+     * its syntax.
+     *
+     * @throws InvalidRequestException if the syntax is invalid.
+     */
+    public void skipNested() throws InvalidRequestException {
+        if(nextClean() == '{') {
+            beginObject();
+            while(nextField())
+                skipValue();
+        }
+        else {
+            beginArray();
+            while(nextElement())
+                skipValue();
+        }
+    }
+
+    /**
+     * @return The value of the last INTEGER read.
+     */
+    public long longValue() {
+        return longValue;
+    }
+
+    /**
+     * @return The value of the last INTEGER or DECIMAL read.
+     */
+    public double doubleValue() {
+        return kind == Kind.INTEGER ? longValue : doubleValue;
+    }
+
+    /**
+     * @return The value of the last BOOLEAN read.
+     */
+    public boolean booleanValue() {
+        return booleanValue;
+    }
+
+    /**
+     * @return Start (inclusive) of the last token read in the data, without
+     *         the quotes for strings.
+     */
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return End (exclusive) of the last token read in the data, without
+     *         the quotes for strings.
+     */
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * @return Whether the last token read contains escape sequences.
+     */
+    public boolean isTokenEscaped() {
+        return tokenEscaped;
+    }
+
+    /**
+     * @return The last STRING read.
+     */
+    public String stringValue() {
+        return decode(tokenStart, tokenEnd, tokenEscaped);
+    }
+
+    /**
+     * Decodes a token of the data.
+     *
+     * @param start Start of the token (inclusive).
+     * @param end End of the token (exclusive).
+     * @param escaped Whether the token contains escape sequences.
+     * @return The string represented by the token.
+     */
+    public String decode(int start, int end, boolean escaped) {
+        if(!escaped)
+            return new String(data, start, end - start, StandardCharsets.UTF_8);
+
+        // Escape sequences are ASCII, so bytes in between can be decoded as chunks
+        StringBuilder builder = new StringBuilder(end - start);
+        int chunkStart = start;
+        int i = start;
+        while(i < end) {
+            if(data[i] != '\\') {
+                i++;
+                continue;
+            }
+
+            builder.append(new String(data, chunkStart, i - chunkStart, StandardCharsets.UTF_8));
+            byte escapedChar = data[i + 1];
+            switch(escapedChar) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'u':
+                    builder.append((char) Integer.parseInt(new String(data, i + 2, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default:
+                    builder.append((char) escapedChar);
+            }
+            i += 2;
+            chunkStart = i;
+        }
+        builder.append(new String(data, chunkStart, end - chunkStart, StandardCharsets.UTF_8));
+        return builder.toString();
+    }
+
+    private void push() {
+        depth++;
+        if(depth == needSeparator.length)
+            needSeparator = Arrays.copyOf(needSeparator, depth * 2);
+        needSeparator[depth] = false;
+    }
+
+    // Handles the separator before the next entry of the current object/array
+    private boolean nextEntry(char closing) throws InvalidRequestException {
+        if(depth == 0)
+            throw new IllegalStateException("Not in an object or array");
+
+        int c = nextClean();
+        if(needSeparator[depth]) {
+            if(c == ',' || c == ';') {
+                pos++;
+                c = nextClean();
+            }
+            else if(c != closing) {
+                throw new InvalidRequestException(INVALID_JSON);
+            }
+        }
+
+        if(c == closing) {
+            pos++;
+            depth--;
+            return false;
+        }
+        if(c == -1)
+            throw new InvalidRequestException(INVALID_JSON);
+
+        needSeparator[depth] = true;
+        return true;
+    }
+
+    // Skips whitespaces and returns the next character without consuming it (-1 at the end)
+    private int nextClean() {
+        while(pos < data.length && (data[pos] & 0xFF) <= ' ')
+            pos++;
+        return pos < data.length ? data[pos] & 0xFF : -1;
+    }
+
+    private void readQuotedString() throws InvalidRequestException {
+        byte quote = data[pos++];
+        tokenStart = pos;
+        tokenEscaped = false;
+        while(true) {
+            if(pos >= data.length)
+                throw new InvalidRequestException(INVALID_JSON);
+            byte c = data[pos];
+            if(c == quote) {
+                tokenEnd = pos++;
+                return;
+            }
+            if(c == 0 || c == '\n' || c == '\r')
+                throw new InvalidRequestException(INVALID_JSON);
+            if(c == '\\') {
+                tokenEscaped = true;
+                if(pos + 1 >= data.length)
+                    throw new InvalidRequestException(INVALID_JSON);
+                switch(data[pos + 1]) {
+                    case 'b':
+                    case 't':
+                    case 'n':
+                    case 'f':
+                    case 'r':
+                    case '"':
+                    case '\'':
+                    case '\\':
+                    case '/':
+                        pos += 2;
+                        break;
+                    case 'u':
+                        if(pos + 6 > data.length)
+                            throw new InvalidRequestException(INVALID_JSON);
+                        for(int i = pos + 2; i < pos + 6; i++) {
+                            if(Character.digit(data[i], 16) < 0)
+                                throw new InvalidRequestException(INVALID_JSON);
+                        }
+                        pos += 6;
+                        break;
+                    default:
+                        throw new InvalidRequestException(INVALID_JSON);
+                }
+                continue;
+            }
+            pos++;
+        }
+    }
+
+    // Unquoted tokens end at a delimiter or a control character, and are trimmed
+    private void readUnquotedToken() {
+        int start = pos;
+        while(pos < data.length && !isDelimiter(data[pos] & 0xFF))
+            pos++;
+        int end = pos;
+        while(start < end && data[start] == ' ')
+            start++;
+        while(end > start && data[end - 1] == ' ')
+            end--;
+        tokenStart = start;
+        tokenEnd = end;
+        tokenEscaped = false;
+    }
+
+    private static boolean isDelimiter(int c) {
+        if(c < ' ')
+            return true;
+        switch(c) {
+            case ',':
+            case ':':
+            case ']':
+            case '}':
+            case '/':
+            case '\\':
+            case '"':
+            case '[':
+            case '{':
+            case ';':
+            case '=':
+            case '#':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Interprets an unquoted token the way org.json does
+    private void classifyToken() {
+        int length = tokenEnd - tokenStart;
+        if(tokenEqualsIgnoreCase("true")) {
+            kind = Kind.BOOLEAN;
+            booleanValue = true;
+            return;
+        }
+        if(tokenEqualsIgnoreCase("false")) {
+            kind = Kind.BOOLEAN;
+            booleanValue = false;
+            return;
+        }
+        if(tokenEqualsIgnoreCase("null")) {
+            kind = Kind.NULL;
+            return;
+        }
+
+        kind = Kind.STRING;
+        byte initial = data[tokenStart];
+        if(!(initial >= '0' && initial <= '9') && initial != '-')
+            return;
+
+        // Integer: optional minus sign followed by digits without leading zero
+        int i = tokenStart;
+        boolean negative = data[i] == '-';
+        if(negative)
+            i++;
+        int digitsStart = i;
+        while(i < tokenEnd && data[i] >= '0' && data[i] <= '9')
+            i++;
+        int digits = i - digitsStart;
+        if(i == tokenEnd) {
+            if(digits == 0 || (digits > 1 && data[digitsStart] == '0'))
+                return;
+            if(negative && digits == 1 && data[digitsStart] == '0') {
+                kind = Kind.DECIMAL;
+                doubleValue = -0.0;
+                return;
+            }
+            parseLong(digitsStart, negative);
+            return;
+        }
+
+        // Decimal: digits with an optional fraction and an optional exponent
+        if(digits == 0)
+            return;
+        if(data[i] == '.') {
+            i++;
+            while(i < tokenEnd && data[i] >= '0' && data[i] <= '9')
+                i++;
+        }
+        if(i < tokenEnd && (data[i] == 'e' || data[i] == 'E')) {
+            i++;
+            if(i < tokenEnd && (data[i] == '+' || data[i] == '-'))
+                i++;
+            int exponentStart = i;
+            while(i < tokenEnd && data[i] >= '0' && data[i] <= '9')
+                i++;
+            if(i == exponentStart)
+                return;
+        }
+        if(i != tokenEnd)
+            return;
+
+        double value = Double.parseDouble(new String(data, tokenStart, length, StandardCharsets.US_ASCII));
+        if(Double.isInfinite(value) || Double.isNaN(value))
+            return;
+        kind = Kind.DECIMAL;
+        doubleValue = value;
+    }
+
+    // Parses the digits of the current token, leaving it a string if it overflows a long
+    private void parseLong(int digitsStart, boolean negative) {
+        long value = 0;
+        for(int i = digitsStart; i < tokenEnd; i++) {
+            int digit = data[i] - '0';
+            // Accumulating negatively allows reaching Long.MIN_VALUE
+            if(value < (Long.MIN_VALUE + digit) / 10)
+                return;
+            value = value * 10 - digit;
+        }
+        if(!negative) {
+            if(value == Long.MIN_VALUE)
+                return;
+            value = -value;
+        }
+        kind = Kind.INTEGER;
+        longValue = value;
+    }
+
+    private boolean tokenEqualsIgnoreCase(String word) {
+        if(tokenEnd - tokenStart != word.length())
+            return false;
+        for(int i = 0; i < word.length(); i++) {
+            if(Character.toLowerCase((char) data[tokenStart + i]) != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
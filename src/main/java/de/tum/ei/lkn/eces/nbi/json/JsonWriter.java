@@ -0,0 +1,310 @@
+package de.tum.ei.lkn.eces.nbi.json;
+
+import de.tum.ei.lkn.eces.nbi.collections.Recycler;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encoder of JSON responses.
+ *
+ * The JSON document is encoded as UTF-8 in a byte buffer, which is then
+ * written as a whole to the output stream of a response (or flushed to it
+ * chunk by chunk for large documents). Writers are reused
+ * by each thread ({@link #get()}), or by successive threads if they only
+ * live for a request (see {@link Recycler}), so that encoding a response
+ * does not allocate anything. Strings are escaped.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class JsonWriter {
+    private static final Recycler<JsonWriter> WRITERS = Recycler.withInitial(JsonWriter::new);
+    private static final int INITIAL_CAPACITY = 256;
+    // Buffers which grew larger than this (e.g., large batches) are not kept
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer;
+    private int size;
+
+    // Whether a separator is needed before the next value, per nesting level
+    private boolean[] needSeparator;
+    private int depth;
+    // Whether the next value is the value of a field
+    private boolean afterName;
+
+    private JsonWriter() {
+        this.buffer = new byte[INITIAL_CAPACITY];
+        this.needSeparator = new boolean[8];
+    }
+
+    /**
+     * @return The writer of the current thread, empty.
+     */
+    public static JsonWriter get() {
+        JsonWriter writer = WRITERS.get();
+        writer.reset();
+        return writer;
+    }
+
+    private void reset() {
+        if(buffer.length > MAX_RETAINED_CAPACITY)
+            buffer = new byte[INITIAL_CAPACITY];
+        size = 0;
+        depth = 0;
+        needSeparator[0] = false;
+        afterName = false;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        writeByte('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        writeByte('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    /**
+     * Starts a field of the current object.
+     *
+     * @param name Key of the field.
+     * @return This writer.
+     */
+    public JsonWriter name(String name) {
+        beforeValue();
+        writeString(name);
+        writeByte(':');
+        writeByte(' ');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * @param value A string, or null.
+     * @return This writer.
+     */
+    public JsonWriter value(String value) {
+        beforeValue();
+        if(value == null) {
+            ensureCapacity(4);
+            buffer[size++] = 'n';
+            buffer[size++] = 'u';
+            buffer[size++] = 'l';
+            buffer[size++] = 'l';
+        }
+        else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, String value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * @return Number of bytes of the encoded document.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A copy of the encoded document.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Writes the encoded document to a stream.
+     *
+     * @param output The stream.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(buffer, 0, size);
+    }
+
+    /**
+     * Writes what has been encoded so far to a stream and empties the buffer.
+     * The encoding can then go on where it stopped, so that a large document
+     * is streamed in chunks instead of being encoded as a whole.
+     *
+     * @param output The stream.
+     * @throws IOException if writing fails.
+     */
+    public void flushTo(OutputStream output) throws IOException {
+        output.write(buffer, 0, size);
+        size = 0;
+    }
+
+    /**
+     * Writes the encoded document as the body of a response.
+     *
+     * @param response The response.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(HttpServletResponse response) throws IOException {
+        response.setCharacterEncoding("UTF-8");
+        response.setContentLength(size);
+        writeTo(response.getOutputStream());
+    }
+
+    private void push() {
+        depth++;
+        if(depth == needSeparator.length)
+            needSeparator = Arrays.copyOf(needSeparator, depth * 2);
+        needSeparator[depth] = false;
+    }
+
+    private void beforeValue() {
+        if(afterName) {
+            afterName = false;
+            return;
+        }
+        if(needSeparator[depth]) {
+            writeByte(',');
+            writeByte(' ');
+        }
+        needSeparator[depth] = true;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeLong(long value) {
+        if(value == Long.MIN_VALUE) {
+            ensureCapacity(MIN_LONG.length);
+            System.arraycopy(MIN_LONG, 0, buffer, size, MIN_LONG.length);
+            size += MIN_LONG.length;
+            return;
+        }
+
+        ensureCapacity(20);
+        if(value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for(long rest = value / 10; rest != 0; rest /= 10)
+            digits++;
+        for(int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+    }
+
+    private void writeString(String string) {
+        // Worst case: 6 bytes per char (\\u00XX escapes)
+        ensureCapacity(2 + 6 * string.length());
+        byte[] bytes = buffer;
+        int position = size;
+        bytes[position++] = '"';
+        for(int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if(c < 0x80) {
+                switch(c) {
+                    case '"':
+                    case '\\':
+                        bytes[position++] = '\\';
+                        bytes[position++] = (byte) c;
+                        break;
+                    case '\n':
+                        bytes[position++] = '\\';
+                        bytes[position++] = 'n';
+                        break;
+                    case '\r':
+                        bytes[position++] = '\\';
+                        bytes[position++] = 'r';
+                        break;
+                    case '\t':
+                        bytes[position++] = '\\';
+                        bytes[position++] = 't';
+                        break;
+                    default:
+                        if(c < ' ' || c == 0x7f)
+                            position = writeUnicodeEscape(bytes, position, c);
+                        else
+                            bytes[position++] = (byte) c;
+                }
+            }
+            else if(c < 0x800) {
+                bytes[position++] = (byte) (0xc0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if(c == 0x2028 || c == 0x2029) {
+                // Valid JSON, but not valid in JavaScript strings
+                position = writeUnicodeEscape(bytes, position, c);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                bytes[position++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            }
+            else if(Character.isSurrogate(c)) {
+                // Unpaired surrogate: not encodable in UTF-8
+                position = writeUnicodeEscape(bytes, position, c);
+            }
+            else {
+                bytes[position++] = (byte) (0xe0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        bytes[position++] = '"';
+        size = position;
+    }
+
+    private static int writeUnicodeEscape(byte[] bytes, int position, char c) {
+        bytes[position++] = '\\';
+        bytes[position++] = 'u';
+        bytes[position++] = HEX[(c >> 12) & 0xf];
+        bytes[position++] = HEX[(c >> 8) & 0xf];
+        bytes[position++] = HEX[(c >> 4) & 0xf];
+        bytes[position++] = HEX[c & 0xf];
+        return position;
+    }
+
+    private void ensureCapacity(int additional) {
+        if(size + additional > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+    }
+}
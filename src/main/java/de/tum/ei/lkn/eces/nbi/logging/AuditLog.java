@@ -0,0 +1,162 @@
+package de.tum.ei.lkn.eces.nbi.logging;
+
+import org.apache.log4j.Logger;
+import spark.Request;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous log of the requests handled by the NBI.
+ *
+ * Worker threads only enqueue a reference to the request's path and body in
+ * a bounded queue; the entries are formatted and written (at INFO level, to
+ * the logger of this class) by a dedicated daemon thread. When the queue is
+ * full, entries are dropped and counted rather than slowing the requests
+ * down. Only a configurable fraction of the requests is logged, and bodies
+ * are truncated, so that the cost of the log does not grow with the size of
+ * the requests.
+ *
+ * @author Amaury Van Bemten
+ */
+public class AuditLog {
+    // Maximum number of bytes of a body written in an entry
+    static final int MAX_BODY_BYTES = 512;
+
+    private static final Logger logger = Logger.getLogger(AuditLog.class);
+
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    private final LongAdder entries;
+    private final LongAdder dropped;
+    private volatile double samplingRate;
+
+    private static class Entry {
+        private final String path;
+        private final byte[] body;
+        private final int status;
+        private final String error;
+        private final long nanos;
+
+        private Entry(String path, byte[] body, int status, String error, long nanos) {
+            this.path = path;
+            this.body = body;
+            this.status = status;
+            this.error = error;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Creates the log and starts its writer.
+     *
+     * @param capacity Maximum number of entries waiting to be written.
+     * @param samplingRate Fraction of the requests which are logged (between
+     *                     0 and 1).
+     */
+    public AuditLog(int capacity, double samplingRate) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.entries = new LongAdder();
+        this.dropped = new LongAdder();
+        setSamplingRate(samplingRate);
+
+        this.writer = new Thread(this::write, "nbi-audit-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param samplingRate Fraction of the requests which are logged (between
+     *                     0 and 1).
+     */
+    public void setSamplingRate(double samplingRate) {
+        if(samplingRate < 0 || samplingRate > 1)
+            throw new IllegalArgumentException("The sampling rate must be between 0 and 1 (" + samplingRate + " given)");
+        this.samplingRate = samplingRate;
+    }
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * Logs a handled request, if it is sampled.
+     *
+     * @param request The request.
+     * @param status Status code of the response.
+     * @param error Error message sent back, null if none.
+     * @param nanos Time taken to handle the request, in nanoseconds.
+     */
+    public void record(Request request, int status, String error, long nanos) {
+        double rate = samplingRate;
+        if(rate < 1 && (rate == 0 || ThreadLocalRandom.current().nextDouble() >= rate))
+            return;
+        if(!logger.isInfoEnabled())
+            return;
+
+        // The body is not copied: Spark caches it and it is not modified afterwards
+        if(queue.offer(new Entry(request.pathInfo(), request.bodyAsBytes(), status, error, nanos)))
+            entries.increment();
+        else
+            dropped.increment();
+    }
+
+    /**
+     * @return Number of entries accepted in the log.
+     */
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    /**
+     * @return Number of entries dropped because the log was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the writer after it has written the pending entries.
+     */
+    public void close() {
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        try {
+            while(true)
+                write(queue.take());
+        }
+        catch(InterruptedException e) {
+            // Closing: writing what is left
+            Entry entry;
+            while((entry = queue.poll()) != null)
+                write(entry);
+        }
+    }
+
+    private void write(Entry entry) {
+        StringBuilder line = new StringBuilder(128 + MAX_BODY_BYTES);
+        line.append(entry.path).append(' ').append(entry.status).append(' ')
+                .append(TimeUnit.NANOSECONDS.toMicros(entry.nanos)).append("us");
+        if(entry.error != null)
+            line.append(": ").append(entry.error);
+        if(entry.body != null && entry.body.length > 0) {
+            int length = Math.min(entry.body.length, MAX_BODY_BYTES);
+            line.append(": ").append(new String(entry.body, 0, length, StandardCharsets.UTF_8).replace('\n', ' '));
+            if(length < entry.body.length)
+                line.append("... (").append(entry.body.length).append(" bytes)");
+        }
+        logger.info(line);
+    }
+}
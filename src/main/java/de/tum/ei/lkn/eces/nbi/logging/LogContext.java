@@ -0,0 +1,47 @@
+package de.tum.ei.lkn.eces.nbi.logging;
+
+import spark.Request;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Context of a request prepended to the messages logged about it: its path
+ * and its body (if any, truncated like in the {@link AuditLog}), on a
+ * single line.
+ *
+ * The context is only built when converted to a string, that is, when a
+ * message is actually logged, so that requests which are processed without
+ * error do not pay for copying their bodies. It is then built once per
+ * request, whatever the number of messages logged.
+ *
+ * @author Amaury Van Bemten
+ */
+public class LogContext {
+    private final Request request;
+    private String context;
+
+    public LogContext(Request request) {
+        this.request = request;
+    }
+
+    @Override
+    public String toString() {
+        if(context == null)
+            context = build();
+        return context;
+    }
+
+    private String build() {
+        byte[] body = request.bodyAsBytes();
+        if(body == null || body.length == 0)
+            return request.pathInfo() + ": ";
+
+        int length = Math.min(body.length, AuditLog.MAX_BODY_BYTES);
+        StringBuilder line = new StringBuilder(64 + length);
+        line.append(request.pathInfo()).append(": ")
+                .append(new String(body, 0, length, StandardCharsets.UTF_8).replace('\n', ' '));
+        if(length < body.length)
+            line.append("... (").append(body.length).append(" bytes)");
+        return line.append(": ").toString();
+    }
+}
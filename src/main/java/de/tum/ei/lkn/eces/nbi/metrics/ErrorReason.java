@@ -0,0 +1,38 @@
+package de.tum.ei.lkn.eces.nbi.metrics;
+
+/**
+ * Reasons for which the NBI rejects a request.
+ *
+ * @author Amaury Van Bemten
+ */
+public enum ErrorReason {
+    /** The body is not valid JSON. */
+    INVALID_JSON("invalid_json"),
+    /** A key of the request is missing. */
+    MISSING_KEY("missing_key"),
+    /** The cookie does not match the one of the tenant. */
+    INVALID_COOKIE("invalid_cookie"),
+    /** The TenantManagerSystem refused the operation. */
+    TENANT_MANAGER("tenant_manager"),
+    /** The NBI is overloaded. */
+    OVERLOADED("overloaded"),
+    /** The tenant exceeded its rate of operations. */
+    THROTTLED("throttled"),
+    /** Any other invalid value or ID. */
+    INVALID_REQUEST("invalid_request"),
+    /** Unexpected failure of the NBI. */
+    INTERNAL("internal");
+
+    private final String label;
+
+    ErrorReason(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return Value of the reason label of the metrics.
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,79 @@
+package de.tum.ei.lkn.eces.nbi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with power-of-two buckets.
+ *
+ * Recording a duration only increments two {@link LongAdder}s, so that the
+ * histogram can be updated by all the worker threads on every request. The
+ * buckets go from about a microsecond to about a minute, shorter (resp.
+ * longer) durations being counted in the first (resp. last) bucket.
+ *
+ * @author Amaury Van Bemten
+ */
+public class LatencyHistogram {
+    // Upper bounds of the buckets are 2^MIN_EXPONENT ns (~1 us) to 2^MAX_EXPONENT ns (~69 s), then +Inf
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = MAX_EXPONENT - MIN_EXPONENT + 2;
+
+    private final LongAdder[] buckets;
+    private final LongAdder sum;
+
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos Duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        // Smallest exponent such that nanos <= 2^exponent
+        int exponent = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 1) - 1);
+        int index = Math.min(Math.max(exponent, MIN_EXPONENT), MAX_EXPONENT + 1) - MIN_EXPONENT;
+        buckets[index].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * @return Number of recorded durations.
+     */
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : buckets)
+            count += bucket.sum();
+        return count;
+    }
+
+    /**
+     * @return Sum of the recorded durations in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format, in seconds.
+     *
+     * @param out Output.
+     * @param name Name of the metric.
+     * @param labels Labels of the series (e.g. {@code route="newFlow"}).
+     */
+    void writeTo(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            cumulative += buckets[i].sum();
+            String bound = (i == BUCKETS - 1) ? "+Inf" : Double.toString((1L << (i + MIN_EXPONENT)) / 1e9);
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(sum.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
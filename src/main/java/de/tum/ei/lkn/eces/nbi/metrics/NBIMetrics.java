@@ -0,0 +1,173 @@
+package de.tum.ei.lkn.eces.nbi.metrics;
+
+import de.tum.ei.lkn.eces.nbi.scheduling.TenantScheduler;
+import de.tum.ei.lkn.eces.tenantmanager.exceptions.TenantManagerException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of the NBI, exposed in the Prometheus text format.
+ *
+ * The time spent handling the requests of each route is split between the
+ * decoding of their bodies ({@link RouteMetrics}) and the calls to the
+ * TenantManagerSystem ({@link #call(TenantManagerCall, TenantScheduler.Task)}),
+ * the rest being the validation by the NBI and the wait in the lanes of the
+ * tenants.
+ *
+ * Routes, gauges and external counters are registered when the NBI starts.
+ * Updating the metrics is lock-free; only the registration and the scraping
+ * are synchronized.
+ *
+ * @author Amaury Van Bemten
+ */
+public class NBIMetrics {
+    /**
+     * Content type of the Prometheus text format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final List<RouteMetrics> routes;
+    private final List<String[]> gauges;
+    private final List<LongSupplier> gaugeValues;
+    private final LatencyHistogram[] callDurations;
+    private final LongAdder[] callErrors;
+
+    public NBIMetrics() {
+        this.routes = new ArrayList<>();
+        this.gauges = new ArrayList<>();
+        this.gaugeValues = new ArrayList<>();
+        this.callDurations = new LatencyHistogram[TenantManagerCall.values().length];
+        this.callErrors = new LongAdder[TenantManagerCall.values().length];
+        for(int i = 0; i < callDurations.length; i++) {
+            callDurations[i] = new LatencyHistogram();
+            callErrors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers a route.
+     *
+     * @param name Name of the route, used as label.
+     * @return The metrics of the route.
+     */
+    public synchronized RouteMetrics route(String name) {
+        RouteMetrics route = new RouteMetrics(name);
+        routes.add(route);
+        return route;
+    }
+
+    /**
+     * Registers a gauge, whose value is read at each scrape.
+     *
+     * @param name Name of the metric.
+     * @param help Description of the metric.
+     * @param value Current value of the gauge.
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new String[]{name, help, "gauge"});
+        gaugeValues.add(value);
+    }
+
+    /**
+     * Registers a counter maintained elsewhere, whose value is read at each
+     * scrape.
+     *
+     * @param name Name of the metric.
+     * @param help Description of the metric.
+     * @param value Current value of the counter.
+     */
+    public synchronized void counter(String name, String help, LongSupplier value) {
+        gauges.add(new String[]{name, help, "counter"});
+        gaugeValues.add(value);
+    }
+
+    /**
+     * Calls the TenantManagerSystem, recording the duration of the call and
+     * whether it failed.
+     *
+     * @param call Called operation.
+     * @param task The call.
+     * @param <T> Type of the result of the call.
+     * @return Result of the call.
+     * @throws TenantManagerException if the call threw it.
+     */
+    public <T> T call(TenantManagerCall call, TenantScheduler.Task<T> task) throws TenantManagerException {
+        long start = System.nanoTime();
+        try {
+            return task.run();
+        }
+        catch(TenantManagerException e) {
+            callErrors[call.ordinal()].increment();
+            throw e;
+        }
+        finally {
+            callDurations[call.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param call An operation of the TenantManagerSystem.
+     * @return Number of calls to the operation which failed.
+     */
+    public long getCallErrors(TenantManagerCall call) {
+        return callErrors[call.ordinal()].sum();
+    }
+
+    /**
+     * @param call An operation of the TenantManagerSystem.
+     * @return Number of calls to the operation.
+     */
+    public long getCalls(TenantManagerCall call) {
+        return callDurations[call.ordinal()].getCount();
+    }
+
+    /**
+     * @return All the metrics in the Prometheus text format.
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(16384);
+
+        header(out, "nbi_requests_total", "Requests handled, per route.", "counter");
+        for(RouteMetrics route : routes)
+            out.append("nbi_requests_total{route=\"").append(route.getName()).append("\"} ").append(route.getRequests()).append('\n');
+
+        header(out, "nbi_request_errors_total", "Rejected requests, per route and reason.", "counter");
+        for(RouteMetrics route : routes)
+            for(ErrorReason reason : ErrorReason.values())
+                out.append("nbi_request_errors_total{route=\"").append(route.getName())
+                        .append("\",reason=\"").append(reason.getLabel()).append("\"} ")
+                        .append(route.getErrors(reason)).append('\n');
+
+        header(out, "nbi_request_duration_seconds", "Time taken to handle the requests, per route.", "histogram");
+        for(RouteMetrics route : routes)
+            route.getDuration().writeTo(out, "nbi_request_duration_seconds", "route=\"" + route.getName() + "\"");
+
+        header(out, "nbi_parse_duration_seconds", "Time taken to decode the bodies of the requests, per route.", "histogram");
+        for(RouteMetrics route : routes)
+            route.getParsing().writeTo(out, "nbi_parse_duration_seconds", "route=\"" + route.getName() + "\"");
+
+        header(out, "nbi_tenant_manager_duration_seconds", "Time spent in the TenantManagerSystem, per operation.", "histogram");
+        for(TenantManagerCall call : TenantManagerCall.values())
+            callDurations[call.ordinal()].writeTo(out, "nbi_tenant_manager_duration_seconds", "operation=\"" + call.getLabel() + "\"");
+
+        header(out, "nbi_tenant_manager_errors_total", "Operations refused by the TenantManagerSystem, per operation.", "counter");
+        for(TenantManagerCall call : TenantManagerCall.values())
+            out.append("nbi_tenant_manager_errors_total{operation=\"").append(call.getLabel()).append("\"} ")
+                    .append(callErrors[call.ordinal()].sum()).append('\n');
+
+        for(int i = 0; i < gauges.size(); i++) {
+            header(out, gauges.get(i)[0], gauges.get(i)[1], gauges.get(i)[2]);
+            out.append(gauges.get(i)[0]).append(' ').append(gaugeValues.get(i).getAsLong()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,76 @@
+package de.tum.ei.lkn.eces.nbi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a route of the NBI: number of requests, errors by reason,
+ * duration of the requests and time spent decoding their bodies.
+ *
+ * @author Amaury Van Bemten
+ */
+public class RouteMetrics {
+    private final String name;
+    private final LongAdder requests;
+    private final LongAdder[] errors;
+    private final LatencyHistogram duration;
+    private final LatencyHistogram parsing;
+
+    RouteMetrics(String name) {
+        this.name = name;
+        this.requests = new LongAdder();
+        this.errors = new LongAdder[ErrorReason.values().length];
+        for(int i = 0; i < errors.length; i++)
+            errors[i] = new LongAdder();
+        this.duration = new LatencyHistogram();
+        this.parsing = new LatencyHistogram();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a request handled by the route, successful or not.
+     *
+     * @param nanos Time taken to handle the request, in nanoseconds.
+     */
+    public void request(long nanos) {
+        requests.increment();
+        duration.record(nanos);
+    }
+
+    /**
+     * Records a rejected request. The request itself is recorded through
+     * {@link #request(long)}.
+     *
+     * @param reason Reason of the rejection.
+     */
+    public void error(ErrorReason reason) {
+        errors[reason.ordinal()].increment();
+    }
+
+    /**
+     * Records the decoding of the body of a request.
+     *
+     * @param nanos Time taken to decode the body, in nanoseconds.
+     */
+    public void parsing(long nanos) {
+        parsing.record(nanos);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors(ErrorReason reason) {
+        return errors[reason.ordinal()].sum();
+    }
+
+    LatencyHistogram getDuration() {
+        return duration;
+    }
+
+    LatencyHistogram getParsing() {
+        return parsing;
+    }
+}
@@ -0,0 +1,28 @@
+package de.tum.ei.lkn.eces.nbi.metrics;
+
+/**
+ * Operations of the TenantManagerSystem called by the NBI.
+ *
+ * @author Amaury Van Bemten
+ */
+public enum TenantManagerCall {
+    CREATE_TENANT("createTenant"),
+    CREATE_VM("createVirtualMachine"),
+    CREATE_FLOW("createFlow"),
+    DELETE_TENANT("deleteTenant"),
+    DELETE_VM("deleteVM"),
+    DELETE_FLOW("deleteFlow");
+
+    private final String label;
+
+    TenantManagerCall(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return Value of the operation label of the metrics.
+     */
+    public String getLabel() {
+        return label;
+    }
+}
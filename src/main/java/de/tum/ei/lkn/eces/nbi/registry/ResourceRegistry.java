@@ -0,0 +1,347 @@
+package de.tum.ei.lkn.eces.nbi.registry;
+
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongLongMap;
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongObjectMap;
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongSortedSet;
+import de.tum.ei.lkn.eces.tenantmanager.Flow;
+import de.tum.ei.lkn.eces.tenantmanager.Tenant;
+import de.tum.ei.lkn.eces.tenantmanager.VirtualMachine;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the tenants, VMs and flows exposed by the NBI.
+ *
+ * Resources are known to clients by IDs assigned by the NBI ({@link #newId()})
+ * rather than by the IDs of the TenantManagerSystem, so that they keep their
+ * IDs when they are recreated in another TenantManagerSystem (e.g., when
+ * the journal is replayed after a restart). IDs are unique among all the
+ * resources and never reused.
+ *
+ * Besides the indexes by ID, the registry keeps the VMs of each tenant and
+ * the flows of each VM (as source or destination), so that removing a
+ * tenant or a VM also unregisters everything it contained, in time
+ * proportional to the number of its children. The flows of each tenant are
+ * kept as well, so that they can be listed page by page.
+ *
+ * These secondary indexes only hold IDs, in sorted sets of longs: a flow
+ * costs about 8 bytes in each of the three sets it is in (flows of its
+ * tenant, of its source and of its destination), instead of a skip list
+ * node, a boxed ID and index nodes, i.e., about 60 bytes, in each of them.
+ * The resources themselves are only referenced by the indexes by ID.
+ *
+ * Lookups and listings can be done concurrently with updates: listings
+ * iterate over the sorted indexes without locking, and see the updates
+ * made during the iteration or not (they may thus return IDs of resources
+ * which have just been removed). Updates concerning the resources of a
+ * same tenant must however not be concurrent, which is ensured by
+ * performing them in the lane of the tenant.
+ *
+ * @author Amaury Van Bemten
+ */
+public class ResourceRegistry {
+    /**
+     * ID returned for resources which are not registered.
+     */
+    public static final long NONE = 0;
+    private static final ConcurrentLongSortedSet NO_IDS = new ConcurrentLongSortedSet();
+
+    private final AtomicLong lastId;
+
+    private final ConcurrentLongObjectMap<Tenant> tenants;
+    private final ConcurrentLongObjectMap<VirtualMachine> vms;
+    private final ConcurrentLongObjectMap<Flow> flows;
+
+    // Secondary indexes: IDs of the VMs and flows of each tenant and of the flows of each VM
+    private final ConcurrentLongObjectMap<ConcurrentLongSortedSet> tenantVMs;
+    private final ConcurrentLongObjectMap<ConcurrentLongSortedSet> tenantFlows;
+    private final ConcurrentLongObjectMap<ConcurrentLongSortedSet> vmFlows;
+    // Tenant of each VM and VMs of each flow
+    private final ConcurrentLongLongMap vmTenants;
+    private final ConcurrentLongLongMap flowSources;
+    private final ConcurrentLongLongMap flowDestinations;
+
+    public ResourceRegistry() {
+        this.lastId = new AtomicLong(NONE);
+        this.tenants = new ConcurrentLongObjectMap<>();
+        this.vms = new ConcurrentLongObjectMap<>();
+        this.flows = new ConcurrentLongObjectMap<>();
+        this.tenantVMs = new ConcurrentLongObjectMap<>();
+        this.tenantFlows = new ConcurrentLongObjectMap<>();
+        this.vmFlows = new ConcurrentLongObjectMap<>();
+        this.vmTenants = new ConcurrentLongLongMap();
+        this.flowSources = new ConcurrentLongLongMap();
+        this.flowDestinations = new ConcurrentLongLongMap();
+    }
+
+    /**
+     * @return A new ID for a resource.
+     */
+    public long newId() {
+        return lastId.incrementAndGet();
+    }
+
+    /**
+     * Makes sure that IDs up to a given one are not assigned anymore.
+     *
+     * @param id An ID assigned earlier (e.g., before a restart).
+     */
+    public void reserveIds(long id) {
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * @return The last ID assigned or reserved.
+     */
+    public long getLastId() {
+        return lastId.get();
+    }
+
+    public Tenant getTenant(long id) {
+        return tenants.get(id);
+    }
+
+    public VirtualMachine getVM(long id) {
+        return vms.get(id);
+    }
+
+    public Flow getFlow(long id) {
+        return flows.get(id);
+    }
+
+    /**
+     * @param vmId ID of a VM.
+     * @return ID of the tenant of the VM, {@link #NONE} if the VM is not
+     *         registered.
+     */
+    public long getTenantOfVM(long vmId) {
+        return vmTenants.get(vmId, NONE);
+    }
+
+    /**
+     * @param flowId ID of a flow.
+     * @return ID of the tenant of the flow, {@link #NONE} if the flow is not
+     *         registered.
+     */
+    public long getTenantOfFlow(long flowId) {
+        return getTenantOfVM(getSource(flowId));
+    }
+
+    /**
+     * @param flowId ID of a flow.
+     * @return ID of the source VM of the flow, {@link #NONE} if the flow is
+     *         not registered.
+     */
+    public long getSource(long flowId) {
+        return flowSources.get(flowId, NONE);
+    }
+
+    /**
+     * @param flowId ID of a flow.
+     * @return ID of the destination VM of the flow, {@link #NONE} if the flow
+     *         is not registered.
+     */
+    public long getDestination(long flowId) {
+        return flowDestinations.get(flowId, NONE);
+    }
+
+    /**
+     * @param tenantId ID of a tenant.
+     * @param after ID after which the VMs are listed, null to list them from
+     *              the first one.
+     * @return The IDs of the VMs of the tenant which are greater than after,
+     *         in increasing order (none if the tenant does not exist).
+     */
+    public PrimitiveIterator.OfLong getVMs(long tenantId, Long after) {
+        return page(tenantVMs.get(tenantId), after);
+    }
+
+    /**
+     * @param tenantId ID of a tenant.
+     * @param after ID after which the flows are listed, null to list them
+     *              from the first one.
+     * @return The IDs of the flows of the tenant which are greater than
+     *         after, in increasing order (none if the tenant does not exist).
+     */
+    public PrimitiveIterator.OfLong getFlows(long tenantId, Long after) {
+        return page(tenantFlows.get(tenantId), after);
+    }
+
+    /**
+     * @param tenantId ID of a tenant.
+     * @return Number of VMs of the tenant.
+     */
+    public int getNumberOfVMs(long tenantId) {
+        ConcurrentLongSortedSet children = tenantVMs.get(tenantId);
+        return (children == null) ? 0 : children.size();
+    }
+
+    /**
+     * @param tenantId ID of a tenant.
+     * @return Number of flows of the tenant.
+     */
+    public int getNumberOfFlows(long tenantId) {
+        ConcurrentLongSortedSet children = tenantFlows.get(tenantId);
+        return (children == null) ? 0 : children.size();
+    }
+
+    /**
+     * Registers a tenant.
+     *
+     * @param id ID of the tenant.
+     * @param tenant The tenant.
+     */
+    public void addTenant(long id, Tenant tenant) {
+        tenantVMs.put(id, new ConcurrentLongSortedSet());
+        tenantFlows.put(id, new ConcurrentLongSortedSet());
+        tenants.put(id, tenant);
+    }
+
+    /**
+     * Registers a VM, whose tenant must be registered.
+     *
+     * @param id ID of the VM.
+     * @param tenantId ID of the tenant of the VM.
+     * @param vm The VM.
+     */
+    public void addVM(long id, long tenantId, VirtualMachine vm) {
+        vmFlows.put(id, new ConcurrentLongSortedSet());
+        vmTenants.put(id, tenantId);
+        tenantVMs.get(tenantId).add(id);
+        vms.put(id, vm);
+    }
+
+    /**
+     * Registers a flow, whose VMs must be registered.
+     *
+     * @param id ID of the flow.
+     * @param sourceId ID of the source VM of the flow.
+     * @param destinationId ID of the destination VM of the flow.
+     * @param flow The flow.
+     */
+    public void addFlow(long id, long sourceId, long destinationId, Flow flow) {
+        flowSources.put(id, sourceId);
+        flowDestinations.put(id, destinationId);
+        vmFlows.get(sourceId).add(id);
+        vmFlows.get(destinationId).add(id);
+        tenantFlows.get(vmTenants.get(sourceId, NONE)).add(id);
+        flows.put(id, flow);
+    }
+
+    /**
+     * Unregisters a flow.
+     *
+     * @param id ID of the flow.
+     * @param flow The flow.
+     * @return Whether the flow was registered (and is not anymore).
+     */
+    public boolean removeFlow(long id, Flow flow) {
+        if(!flows.remove(id, flow))
+            return false;
+
+        unindexFlow(id);
+        return true;
+    }
+
+    /**
+     * Unregisters a VM and all the flows from or to it.
+     *
+     * @param id ID of the VM.
+     * @param vm The VM.
+     * @return Whether the VM was registered (and is not anymore).
+     */
+    public boolean removeVM(long id, VirtualMachine vm) {
+        if(!vms.remove(id, vm))
+            return false;
+
+        ConcurrentLongSortedSet siblings = tenantVMs.get(vmTenants.get(id, NONE));
+        if(siblings != null)
+            siblings.remove(id);
+        removeFlowsOf(id);
+        vmTenants.remove(id);
+        return true;
+    }
+
+    /**
+     * Unregisters a tenant, all its VMs and all their flows.
+     *
+     * @param id ID of the tenant.
+     * @param tenant The tenant.
+     * @return Whether the tenant was registered (and is not anymore).
+     */
+    public boolean removeTenant(long id, Tenant tenant) {
+        if(!tenants.remove(id, tenant))
+            return false;
+
+        tenantFlows.remove(id);
+        ConcurrentLongSortedSet children = tenantVMs.remove(id);
+        if(children != null) {
+            for(PrimitiveIterator.OfLong iterator = children.iterator(); iterator.hasNext(); ) {
+                long child = iterator.nextLong();
+                vms.remove(child);
+                removeFlowsOf(child);
+                vmTenants.remove(child);
+            }
+        }
+        return true;
+    }
+
+    public int getNumberOfTenants() {
+        return tenants.size();
+    }
+
+    public int getNumberOfVMs() {
+        return vms.size();
+    }
+
+    public int getNumberOfFlows() {
+        return flows.size();
+    }
+
+    /**
+     * @return Number of entries of the secondary indexes (tenants with VMs
+     *         and flows lists, VMs with flows lists and tenants, and flows
+     *         with VMs).
+     */
+    public int getNumberOfIndexEntries() {
+        return tenantVMs.size() + tenantFlows.size() + vmFlows.size() + vmTenants.size()
+                + flowSources.size() + flowDestinations.size();
+    }
+
+    // IDs of an index after a given ID, iterated without locking
+    private static PrimitiveIterator.OfLong page(ConcurrentLongSortedSet index, Long after) {
+        if(index == null)
+            return NO_IDS.iterator();
+        return (after == null) ? index.iterator() : index.iterator(after);
+    }
+
+    private void removeFlowsOf(long vmId) {
+        ConcurrentLongSortedSet children = vmFlows.remove(vmId);
+        if(children == null)
+            return;
+
+        for(PrimitiveIterator.OfLong iterator = children.iterator(); iterator.hasNext(); ) {
+            long child = iterator.nextLong();
+            if(flows.remove(child) != null)
+                unindexFlow(child);
+        }
+    }
+
+    // Removes a flow from the flows of its VMs and tenant (which might already be gone)
+    private void unindexFlow(long id) {
+        long sourceId = flowSources.get(id, NONE);
+        long destinationId = flowDestinations.get(id, NONE);
+        flowSources.remove(id);
+        flowDestinations.remove(id);
+        ConcurrentLongSortedSet sourceFlows = vmFlows.get(sourceId);
+        if(sourceFlows != null)
+            sourceFlows.remove(id);
+        ConcurrentLongSortedSet destinationFlows = vmFlows.get(destinationId);
+        if(destinationFlows != null)
+            destinationFlows.remove(id);
+        ConcurrentLongSortedSet siblings = tenantFlows.get(vmTenants.get(sourceId, NONE));
+        if(siblings != null)
+            siblings.remove(id);
+    }
+}
@@ -0,0 +1,163 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the flow specifications whose embedding was refused by
+ * the TenantManagerSystem, so that retries of an infeasible flow are
+ * rejected without routing it again.
+ *
+ * Creating resources only consumes capacity: a flow refused at some point
+ * stays infeasible until a flow or a VM is removed. Each removal starts a
+ * new epoch, which forgets all the refusals. A refusal is only recorded if
+ * no removal completed since the attempt started (the caller reads the
+ * epoch before the attempt), so that a refusal overtaken by a removal is
+ * never cached.
+ *
+ * Flow specifications are compared on all their fields but their name.
+ *
+ * @author Amaury Van Bemten
+ */
+public class AdmissionCache {
+    /**
+     * Normalized flow specification.
+     */
+    private static final class Key {
+        private final long source;
+        private final long destination;
+        private final int srcIp;
+        private final int dstIp;
+        private final int srcPort;
+        private final int dstPort;
+        private final int protocol;
+        private final long rate;
+        private final long burst;
+        private final long latency;
+
+        private Key(FlowSpec spec) {
+            this.source = spec.getSource();
+            this.destination = spec.getDestination();
+            this.srcIp = spec.getSrcIp();
+            this.dstIp = spec.getDstIp();
+            this.srcPort = spec.getSrcPort();
+            this.dstPort = spec.getDstPort();
+            this.protocol = spec.getProtocol();
+            this.rate = spec.getRate();
+            this.burst = spec.getBurst();
+            // 0.0 and -0.0 are the same latency
+            this.latency = Double.doubleToLongBits(spec.getLatency() + 0.0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return source == key.source && destination == key.destination && srcIp == key.srcIp && dstIp == key.dstIp &&
+                    srcPort == key.srcPort && dstPort == key.dstPort && protocol == key.protocol &&
+                    rate == key.rate && burst == key.burst && latency == key.latency;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = source;
+            hash = 31 * hash + destination;
+            hash = 31 * hash + srcIp;
+            hash = 31 * hash + dstIp;
+            hash = 31 * hash + srcPort;
+            hash = 31 * hash + dstPort;
+            hash = 31 * hash + protocol;
+            hash = 31 * hash + rate;
+            hash = 31 * hash + burst;
+            hash = 31 * hash + latency;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * Refusal of a flow specification.
+     */
+    private static final class Refusal {
+        private final long epoch;
+        private final String reason;
+
+        private Refusal(long epoch, String reason) {
+            this.epoch = epoch;
+            this.reason = reason;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicLong epoch;
+    private final ConcurrentMap<Key, Refusal> refusals;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity Maximum number of refused flow specifications
+     *                 remembered.
+     */
+    public AdmissionCache(int capacity) {
+        this.capacity = capacity;
+        this.epoch = new AtomicLong();
+        this.refusals = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return The current epoch, to read before attempting to embed a flow.
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Looks up a flow specification.
+     *
+     * @param spec Flow specification.
+     * @return The reason why the same flow was refused in the current epoch,
+     *         null if it was not.
+     */
+    public String getRefusal(FlowSpec spec) {
+        Refusal refusal = refusals.get(new Key(spec));
+        if(refusal == null || refusal.epoch != epoch.get())
+            return null;
+        return refusal.reason;
+    }
+
+    /**
+     * Records the refusal of a flow specification.
+     *
+     * @param spec Flow specification.
+     * @param attemptEpoch Epoch read before the attempt to embed the flow.
+     * @param reason Reason of the refusal.
+     */
+    public void refuse(FlowSpec spec, long attemptEpoch, String reason) {
+        if(attemptEpoch != epoch.get())
+            return;
+        // When full, the oldest refusals are not known: new ones are simply not cached until the next epoch
+        if(refusals.size() >= capacity)
+            return;
+        // Ignored by the lookups if a removal started a new epoch in the meantime
+        refusals.put(new Key(spec), new Refusal(attemptEpoch, reason));
+    }
+
+    /**
+     * Starts a new epoch, to call once a flow or a VM has been removed.
+     */
+    public void invalidate() {
+        epoch.incrementAndGet();
+        refusals.clear();
+    }
+
+    /**
+     * @return Number of refused flow specifications in the cache (some of
+     *         them possibly from a past epoch).
+     */
+    public int size() {
+        return refusals.size();
+    }
+}
@@ -0,0 +1,181 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import de.tum.ei.lkn.eces.nbi.json.JsonFields;
+
+import java.util.Arrays;
+
+/**
+ * Validated specification of a flow to embed, as sent by a client.
+ *
+ * The source and destination are the IDs of the VMs as known by the NBI:
+ * checking that they exist and belong to the tenant is up to the caller.
+ * IP addresses are IPv4 addresses packed in ints (see {@link Ipv4}).
+ *
+ * @author Amaury Van Bemten
+ */
+public class FlowSpec {
+    private final String name;
+    private final int srcIp;
+    private final int dstIp;
+    private final int srcPort;
+    private final int dstPort;
+    private final int protocol;
+    private final long source;
+    private final long destination;
+    private final long rate;
+    private final long burst;
+    private final double latency;
+
+    public FlowSpec(String name, int srcIp, int dstIp, int srcPort, int dstPort, int protocol, long source, long destination, long rate, long burst, double latency) {
+        this.name = name;
+        this.srcIp = srcIp;
+        this.dstIp = dstIp;
+        this.srcPort = srcPort;
+        this.dstPort = dstPort;
+        this.protocol = protocol;
+        this.source = source;
+        this.destination = destination;
+        this.rate = rate;
+        this.burst = burst;
+        this.latency = latency;
+    }
+
+    /**
+     * Keys of the fields of a flow specification, in the order expected by
+     * {@link #fromFields(JsonFields, int)}.
+     */
+    public static final String[] FIELDS = {"name", "srcIp", "dstIp", "srcPort", "dstPort", "protocol",
+            "source", "destination", "rate" /* bps */, "burst" /* bytes */, "latency" /* ms */};
+
+    /**
+     * Appends the keys of a flow specification to other keys, e.g., to
+     * decode a request containing a flow specification and other fields.
+     *
+     * @param keys Keys preceding the flow specification.
+     * @return The keys followed by {@link #FIELDS}.
+     */
+    public static String[] withFields(String... keys) {
+        String[] result = Arrays.copyOf(keys, keys.length + FIELDS.length);
+        System.arraycopy(FIELDS, 0, result, keys.length, FIELDS.length);
+        return result;
+    }
+
+    private static final int NAME = 0;
+    private static final int SRC_IP = 1;
+    private static final int DST_IP = 2;
+    private static final int SRC_PORT = 3;
+    private static final int DST_PORT = 4;
+    private static final int PROTOCOL = 5;
+    private static final int SOURCE = 6;
+    private static final int DESTINATION = 7;
+    private static final int RATE = 8;
+    private static final int BURST = 9;
+    private static final int LATENCY = 10;
+
+    /**
+     * Validates the flow specification contained in decoded JSON fields.
+     *
+     * @param fields Decoded fields, containing {@link #FIELDS}.
+     * @param offset Index of the first of {@link #FIELDS} in the fields.
+     * @return The flow specification.
+     * @throws InvalidRequestException if a value has the wrong type.
+     */
+    public static FlowSpec fromFields(JsonFields fields, int offset) throws InvalidRequestException {
+        if(!fields.isString(offset + NAME))
+            throw new InvalidRequestException("Name should be a string");
+
+        if(!fields.isString(offset + SRC_IP))
+            throw new InvalidRequestException("Source IP should be a string representing an IP");
+        long srcIp = parseAddress(fields, offset + SRC_IP);
+        if(srcIp == Ipv4.INVALID)
+            throw new InvalidRequestException("Source IP is not a valid IPv4 address");
+
+        if(!fields.isString(offset + DST_IP))
+            throw new InvalidRequestException("Destination IP should be a string representing an IP");
+        long dstIp = parseAddress(fields, offset + DST_IP);
+        if(dstIp == Ipv4.INVALID)
+            throw new InvalidRequestException("Destination IP is not a valid IPv4 address");
+
+        if(!fields.isInt(offset + SRC_PORT))
+            throw new InvalidRequestException("Source port should be an integer");
+
+        if(!fields.isInt(offset + DST_PORT))
+            throw new InvalidRequestException("Destination port should be an integer");
+
+        if(!fields.isInt(offset + PROTOCOL))
+            throw new InvalidRequestException("Protocol number should be an integer");
+
+        if(!fields.isLong(offset + SOURCE))
+            throw new InvalidRequestException("Source VM ID should be an integer");
+
+        if(!fields.isLong(offset + DESTINATION))
+            throw new InvalidRequestException("Destination VM ID should be an integer");
+
+        if(!fields.isLong(offset + RATE))
+            throw new InvalidRequestException("Rate should be a number");
+
+        if(!fields.isLong(offset + BURST))
+            throw new InvalidRequestException("Burst should be an int/long");
+
+        // Same message as for the rate, which clients already handle
+        if(!fields.isNumber(offset + LATENCY))
+            throw new InvalidRequestException("Rate should be a number");
+
+        return new FlowSpec(fields.getString(offset + NAME), (int) srcIp, (int) dstIp,
+                fields.getInt(offset + SRC_PORT), fields.getInt(offset + DST_PORT), fields.getInt(offset + PROTOCOL),
+                fields.getLong(offset + SOURCE), fields.getLong(offset + DESTINATION),
+                fields.getLong(offset + RATE), fields.getLong(offset + BURST), fields.getDouble(offset + LATENCY));
+    }
+
+    // Parses an address in place, only decoding it if it is escaped
+    private static long parseAddress(JsonFields fields, int index) {
+        if(fields.isEscaped(index))
+            return Ipv4.parse(fields.getString(index));
+        return Ipv4.parse(fields.getData(), fields.getStart(index), fields.getEnd(index));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSrcIp() {
+        return srcIp;
+    }
+
+    public int getDstIp() {
+        return dstIp;
+    }
+
+    public int getSrcPort() {
+        return srcPort;
+    }
+
+    public int getDstPort() {
+        return dstPort;
+    }
+
+    public int getProtocol() {
+        return protocol;
+    }
+
+    public long getSource() {
+        return source;
+    }
+
+    public long getDestination() {
+        return destination;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    public double getLatency() {
+        return latency;
+    }
+}
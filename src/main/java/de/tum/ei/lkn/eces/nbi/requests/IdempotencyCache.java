@@ -0,0 +1,170 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache of the responses to requests carrying a request ID, so that
+ * a request retried by a client (e.g., after a timeout) is answered with
+ * the response to the first request instead of being performed again.
+ *
+ * A request ID is registered when its first request starts, so that retries
+ * arriving while it is in progress can wait for its response. Requests which
+ * fail are forgotten, since retrying them has no side effect. Entries are
+ * evicted in the order in which they were registered, once they are older
+ * than the retention time or the cache is full.
+ *
+ * @author Amaury Van Bemten
+ */
+public class IdempotencyCache {
+    /**
+     * Request registered in the cache.
+     */
+    public static final class Entry {
+        private final String key;
+        private final long fingerprint;
+        private final long creationTime;
+        private final CompletableFuture<byte[]> response;
+
+        private Entry(String key, long fingerprint) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.creationTime = System.currentTimeMillis();
+            this.response = new CompletableFuture<>();
+        }
+
+        /**
+         * @return Fingerprint of the request (e.g., a hash of its body).
+         */
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return The response to the request, completed with null if the
+         *         request failed.
+         */
+        public CompletableFuture<byte[]> getResponse() {
+            return response;
+        }
+    }
+
+    private final int capacity;
+    private final long retentionMillis;
+    private final ConcurrentMap<String, Entry> entries;
+    // Entries in the order in which they were registered (some might already have been removed) and their number
+    private final Queue<Entry> order;
+    private final AtomicInteger queued;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity Maximum number of requests remembered.
+     * @param retentionMillis Time after which a request is forgotten, in
+     *                        milliseconds.
+     */
+    public IdempotencyCache(int capacity, long retentionMillis) {
+        this.capacity = capacity;
+        this.retentionMillis = retentionMillis;
+        this.entries = new ConcurrentHashMap<>();
+        this.order = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+    }
+
+    /**
+     * Registers a request unless a request with the same key is already
+     * registered.
+     *
+     * @param key Key of the request (its request ID, scoped to the route and
+     *            tenant).
+     * @param fingerprint Fingerprint of the request.
+     * @return null if the request was registered (it must then be completed
+     *         or abandoned), the earlier request with the same key otherwise.
+     */
+    public Entry register(String key, long fingerprint) {
+        Entry entry = new Entry(key, fingerprint);
+        while(true) {
+            Entry previous = entries.putIfAbsent(key, entry);
+            if(previous == null)
+                break;
+            if(!isExpired(previous, entry.creationTime))
+                return previous;
+            remove(previous);
+        }
+
+        order.add(entry);
+        queued.incrementAndGet();
+        evict(entry.creationTime);
+        return null;
+    }
+
+    /**
+     * Records the response to a registered request.
+     *
+     * @param key Key of the request.
+     * @param response The response.
+     */
+    public void complete(String key, byte[] response) {
+        Entry entry = entries.get(key);
+        if(entry != null)
+            entry.response.complete(response);
+    }
+
+    /**
+     * Replaces the response to a request, e.g., once the job it returned is
+     * done. Requests already answered keep the previous response.
+     *
+     * @param key Key of the request.
+     * @param response The new response.
+     */
+    public void update(String key, byte[] response) {
+        Entry entry = entries.get(key);
+        if(entry != null)
+            entry.response.obtrudeValue(response);
+    }
+
+    /**
+     * Forgets a registered request which failed. Requests waiting for its
+     * response get null.
+     *
+     * @param key Key of the request.
+     */
+    public void abandon(String key) {
+        Entry entry = entries.get(key);
+        if(entry != null) {
+            remove(entry);
+            entry.response.complete(null);
+        }
+    }
+
+    /**
+     * @return Number of requests in the cache.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return entry.creationTime < now - retentionMillis;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key, entry);
+    }
+
+    // Removes the oldest entries while they are expired, already removed or the cache is full
+    private void evict(long now) {
+        Entry oldest;
+        while((oldest = order.peek()) != null && (queued.get() > capacity || isExpired(oldest, now) || entries.get(oldest.key) != oldest)) {
+            // Unless another thread evicted it in the meantime
+            if(order.remove(oldest)) {
+                queued.decrementAndGet();
+                remove(oldest);
+            }
+        }
+    }
+}
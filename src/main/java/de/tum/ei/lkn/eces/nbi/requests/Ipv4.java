@@ -0,0 +1,99 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Parsing and conversion of IPv4 addresses packed in ints.
+ *
+ * Only dotted-quad literals (four decimal bytes without leading zeros) are
+ * accepted: unlike {@link InetAddress#getByName(String)}, parsing never
+ * triggers a name resolution, and it does not allocate.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class Ipv4 {
+    /**
+     * Returned by the parsing methods for invalid addresses.
+     */
+    public static final long INVALID = -1;
+
+    private Ipv4() {
+    }
+
+    /**
+     * Parses an ASCII dotted-quad address.
+     *
+     * @param data Data containing the address.
+     * @param start Start of the address in the data (inclusive).
+     * @param end End of the address in the data (exclusive).
+     * @return The address as an unsigned int (to be cast to an int), or
+     *         {@link #INVALID}.
+     */
+    public static long parse(byte[] data, int start, int end) {
+        long address = 0;
+        int octets = 0;
+        int i = start;
+        while(i < end) {
+            int octetStart = i;
+            int octet = 0;
+            while(i < end && data[i] >= '0' && data[i] <= '9' && i - octetStart < 3) {
+                octet = octet * 10 + (data[i] - '0');
+                i++;
+            }
+            int digits = i - octetStart;
+            if(digits == 0 || octet > 255 || (digits > 1 && data[octetStart] == '0'))
+                return INVALID;
+            address = (address << 8) | octet;
+            octets++;
+
+            if(i == end)
+                break;
+            if(data[i] != '.' || octets == 4)
+                return INVALID;
+            i++;
+            if(i == end)
+                return INVALID;
+        }
+        return octets == 4 ? address : INVALID;
+    }
+
+    /**
+     * Parses a dotted-quad address.
+     *
+     * @param address The address.
+     * @return The address as an unsigned int (to be cast to an int), or
+     *         {@link #INVALID}.
+     */
+    public static long parse(CharSequence address) {
+        byte[] data = new byte[address.length()];
+        for(int i = 0; i < data.length; i++) {
+            char c = address.charAt(i);
+            // Any non-ASCII character makes the address invalid
+            data[i] = c < 0x80 ? (byte) c : (byte) 'x';
+        }
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * @param address Address packed in an int.
+     * @return The corresponding InetAddress (no resolution is performed).
+     */
+    public static InetAddress toInetAddress(int address) {
+        byte[] bytes = {(byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address};
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Only thrown for addresses of illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param address Address packed in an int.
+     * @return The dotted-quad representation of the address.
+     */
+    public static String toString(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff) + "." + (address & 0xff);
+    }
+}
@@ -0,0 +1,147 @@
+package de.tum.ei.lkn.eces.nbi.scheduling;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded registry of asynchronous jobs.
+ *
+ * A job stays in the registry until its result is fetched by the client.
+ * Results which are never fetched are evicted once they are older than the
+ * retention time and the registry is full.
+ *
+ * @param <T> Type of the result of the jobs.
+ * @author Amaury Van Bemten
+ */
+public class JobRegistry<T> {
+    /**
+     * Asynchronous job performed on behalf of a tenant.
+     *
+     * @param <T> Type of the result of the job.
+     */
+    public static class Job<T> {
+        private final long id;
+        private final long tenantId;
+        private final long cookie;
+        private final CompletableFuture<T> result;
+        private volatile long completionTime;
+
+        private Job(long id, long tenantId, long cookie) {
+            this.id = id;
+            this.tenantId = tenantId;
+            this.cookie = cookie;
+            this.result = new CompletableFuture<>();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getTenantId() {
+            return tenantId;
+        }
+
+        public long getCookie() {
+            return cookie;
+        }
+
+        public CompletableFuture<T> getResult() {
+            return result;
+        }
+
+        /**
+         * Completes the job with the outcome of a computation.
+         *
+         * @param value Result of the computation.
+         * @param exception Exception thrown by the computation, null if none.
+         */
+        public void complete(T value, Throwable exception) {
+            completionTime = System.currentTimeMillis();
+            if(exception == null)
+                result.complete(value);
+            else
+                result.completeExceptionally(exception);
+        }
+    }
+
+    private final int capacity;
+    private final long retentionMillis;
+    private final ConcurrentMap<Long, Job<T>> jobs;
+    private final AtomicLong jobCounter;
+    private final AtomicInteger size;
+
+    /**
+     * Creates a registry.
+     *
+     * @param capacity Maximum number of jobs (pending or not fetched yet).
+     * @param retentionMillis Time after which the result of a completed job
+     *                        can be evicted, in milliseconds.
+     */
+    public JobRegistry(int capacity, long retentionMillis) {
+        this.capacity = capacity;
+        this.retentionMillis = retentionMillis;
+        this.jobs = new ConcurrentHashMap<>();
+        this.jobCounter = new AtomicLong();
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Creates and registers a new job.
+     *
+     * @param tenantId ID of the tenant on behalf of which the job runs.
+     * @param cookie Cookie required to access the job.
+     * @return The new job, or null if the registry is full.
+     */
+    public Job<T> create(long tenantId, long cookie) {
+        if(size.incrementAndGet() > capacity) {
+            evictExpiredJobs();
+            if(size.get() > capacity) {
+                size.decrementAndGet();
+                return null;
+            }
+        }
+
+        Job<T> job = new Job<>(jobCounter.incrementAndGet(), tenantId, cookie);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * @param id ID of a job.
+     * @return The job, null if it does not exist.
+     */
+    public Job<T> get(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Unregisters a job.
+     *
+     * @param job The job.
+     */
+    public void remove(Job<T> job) {
+        if(jobs.remove(job.getId(), job))
+            size.decrementAndGet();
+    }
+
+    /**
+     * @return Number of jobs in the registry.
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    private void evictExpiredJobs() {
+        long limit = System.currentTimeMillis() - retentionMillis;
+        Iterator<Job<T>> iterator = jobs.values().iterator();
+        while(iterator.hasNext()) {
+            Job<T> job = iterator.next();
+            if(job.getResult().isDone() && job.completionTime < limit && jobs.remove(job.getId(), job))
+                size.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.tum.ei.lkn.eces.nbi.scheduling;
+
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongObjectMap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets limiting the rate at which each tenant can submit
+ * operations, so that a tenant flooding the NBI is rejected before its
+ * requests occupy threads and lanes.
+ *
+ * Each bucket is implemented as a generic cell rate algorithm: the only
+ * state of a tenant is the theoretical time at which its bucket will be
+ * full again, updated by compare-and-set. A tenant can submit a burst of
+ * operations at once and then operations at the sustained rate. A batch of
+ * operations is admitted as long as the bucket is not empty, and may drive
+ * it into debt, so that batches larger than the burst are not refused
+ * forever.
+ *
+ * @author Amaury Van Bemten
+ */
+public class TenantRateLimiter {
+    // Time between two operations at the sustained rate, and advance of a full bucket over the current time
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // Theoretical time at which the bucket of each tenant is full again
+    private final ConcurrentLongObjectMap<AtomicLong> fullTimes;
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param rate Sustained rate of operations of each tenant, per second.
+     * @param burst Number of operations a tenant can submit at once.
+     */
+    public TenantRateLimiter(double rate, int burst) {
+        if(rate <= 0 || burst < 1)
+            throw new IllegalArgumentException("Invalid rate or burst (" + rate + " and " + burst + " given)");
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        this.toleranceNanos = (burst - 1) * intervalNanos;
+        this.fullTimes = new ConcurrentLongObjectMap<>();
+    }
+
+    /**
+     * Takes tokens from the bucket of a tenant.
+     *
+     * @param tenantId ID of the tenant.
+     * @param operations Number of operations submitted.
+     * @return 0 if the operations are admitted, the time to wait before the
+     *         bucket is not empty anymore, in nanoseconds, otherwise.
+     */
+    public long acquire(long tenantId, int operations) {
+        return acquire(tenantId, operations, System.nanoTime());
+    }
+
+    long acquire(long tenantId, int operations, long now) {
+        AtomicLong fullTime = fullTimes.get(tenantId);
+        if(fullTime == null) {
+            AtomicLong created = new AtomicLong(now);
+            fullTime = fullTimes.putIfAbsent(tenantId, created);
+            if(fullTime == null)
+                fullTime = created;
+        }
+
+        while(true) {
+            long current = fullTime.get();
+            // Buckets do not fill beyond their burst
+            long start = current - now > 0 ? current : now;
+            long wait = start - toleranceNanos - now;
+            if(wait > 0)
+                return wait;
+            if(fullTime.compareAndSet(current, start + operations * intervalNanos))
+                return 0;
+        }
+    }
+
+    /**
+     * Forgets the bucket of a tenant, e.g., when it is removed.
+     *
+     * @param tenantId ID of the tenant.
+     */
+    public void remove(long tenantId) {
+        fullTimes.remove(tenantId);
+    }
+
+    /**
+     * @return Number of tenants with a bucket.
+     */
+    public int size() {
+        return fullTimes.size();
+    }
+}
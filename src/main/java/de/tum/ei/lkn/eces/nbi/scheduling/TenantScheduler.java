@@ -0,0 +1,253 @@
+package de.tum.ei.lkn.eces.nbi.scheduling;
+
+import de.tum.ei.lkn.eces.nbi.collections.ConcurrentLongLongMap;
+import de.tum.ei.lkn.eces.tenantmanager.exceptions.TenantManagerException;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler executing the operations of each tenant in a dedicated ordered
+ * lane.
+ *
+ * All tasks submitted for the same tenant are executed one after the other,
+ * in submission order. Lanes of different tenants run concurrently on a
+ * shared pool whose size bounds the overall parallelism. After each task, a
+ * lane goes back to the end of the pool's queue, so that a tenant with many
+ * (slow) pending operations cannot starve the others.
+ *
+ * Tenants can be given a weight: a lane runs as many tasks in a row as the
+ * weight of its tenant (1 by default) before going back to the end of the
+ * queue, so that busy tenants share the pool in proportion to their
+ * weights (weighted round robin).
+ *
+ * A lane only exists while it has pending or running tasks: all the
+ * transitions of a lane happen within the atomic compute operations of the
+ * lanes map, so that there is never more than one lane per tenant.
+ *
+ * Lanes can also run on virtual threads (see {@link VirtualThreads}). The
+ * parallelism is then enforced by a fair semaphore taken by a lane for each
+ * of its turns (as many tasks as its weight), so that waiting lanes do not
+ * hold platform threads and still share the permits according to their
+ * weights.
+ *
+ * @author Amaury Van Bemten
+ */
+public class TenantScheduler {
+    /**
+     * Operation to run in the lane of a tenant.
+     *
+     * @param <T> Type of the result of the operation.
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T run() throws TenantManagerException;
+    }
+
+    private final ExecutorService executor;
+    private final ConcurrentMap<Long, Lane> lanes;
+    // Weights of the tenants whose weight is not 1
+    private final ConcurrentLongLongMap weights;
+    // Bounds the parallelism when lanes run on virtual threads, null otherwise
+    private final Semaphore permits;
+
+    public TenantScheduler(int parallelism) {
+        this(parallelism, false);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param parallelism Maximum number of tasks (of different tenants)
+     *                    running at once.
+     * @param virtualThreads Whether lanes run on virtual threads.
+     * @throws UnsupportedOperationException if virtual threads are requested
+     *                                       but not supported by the JDK.
+     */
+    public TenantScheduler(int parallelism, boolean virtualThreads) {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be at least 1 (" + parallelism + " given)");
+
+        if(virtualThreads) {
+            this.executor = VirtualThreads.newExecutor("nbi-lane-");
+            this.permits = new Semaphore(parallelism, true);
+        }
+        else {
+            AtomicInteger threadCounter = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "nbi-lane-" + threadCounter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.permits = null;
+        }
+        this.lanes = new ConcurrentHashMap<>();
+        this.weights = new ConcurrentLongLongMap();
+    }
+
+    /**
+     * Submits a task to the lane of a tenant.
+     *
+     * @param tenantId ID of the tenant.
+     * @param task Task to run.
+     * @param <T> Type of the result of the task.
+     * @return Future completed with the result of the task or with the
+     *         exception it threw.
+     */
+    public <T> CompletableFuture<T> submit(long tenantId, Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        schedule(tenantId, () -> {
+            try {
+                future.complete(task.run());
+            }
+            catch(Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs a task in the lane of a tenant and waits for its completion.
+     *
+     * Exceptions thrown by the task are rethrown as is in the calling
+     * thread.
+     *
+     * @param tenantId ID of the tenant.
+     * @param task Task to run.
+     * @param <T> Type of the result of the task.
+     * @return Result of the task.
+     * @throws TenantManagerException if the task threw it.
+     */
+    public <T> T execute(long tenantId, Task<T> task) throws TenantManagerException {
+        try {
+            return submit(tenantId, task).get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the lane of tenant " + tenantId, e);
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof TenantManagerException)
+                throw (TenantManagerException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Sets the weight of a tenant, taken into account from the next turn of
+     * its lane.
+     *
+     * @param tenantId ID of the tenant.
+     * @param weight Number of tasks of the tenant run in a row, 1 by default.
+     */
+    public void setWeight(long tenantId, int weight) {
+        if(weight < 1)
+            throw new IllegalArgumentException("The weight must be at least 1 (" + weight + " given)");
+        if(weight == 1)
+            weights.remove(tenantId);
+        else
+            weights.put(tenantId, weight);
+    }
+
+    /**
+     * @param tenantId ID of the tenant.
+     * @return Weight of the tenant.
+     */
+    public int getWeight(long tenantId) {
+        return (int) weights.get(tenantId, 1);
+    }
+
+    /**
+     * @return Number of tenants with pending or running tasks.
+     */
+    public int getNumberOfActiveLanes() {
+        return lanes.size();
+    }
+
+    /**
+     * Stops the scheduler. Tasks already submitted are still executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void schedule(long tenantId, Runnable task) {
+        lanes.compute(tenantId, (id, lane) -> {
+            if(lane == null) {
+                lane = new Lane(id);
+                executor.execute(lane);
+            }
+            lane.tasks.add(task);
+            return lane;
+        });
+    }
+
+    /**
+     * Ordered queue of the tasks of a tenant. The queue is only accessed
+     * within compute operations on the lanes map.
+     */
+    private class Lane implements Runnable {
+        private final long tenantId;
+        private final Queue<Runnable> tasks;
+
+        private Lane(long tenantId) {
+            this.tenantId = tenantId;
+            this.tasks = new ArrayDeque<>();
+        }
+
+        @Override
+        public void run() {
+            do {
+                // On virtual threads, the permit is held for the whole turn: a lane queues for it once per turn
+                if(permits != null)
+                    permits.acquireUninterruptibly();
+                try {
+                    for(int turn = getWeight(tenantId); turn > 0; turn--) {
+                        runNextTask();
+                        if(!hasPendingTasks())
+                            return;
+                    }
+                }
+                finally {
+                    if(permits != null)
+                        permits.release();
+                }
+            } while(!yieldThread());
+        }
+
+        private void runNextTask() {
+            Runnable[] next = new Runnable[1];
+            lanes.computeIfPresent(tenantId, (id, lane) -> {
+                next[0] = lane.tasks.poll();
+                return lane;
+            });
+
+            if(next[0] != null)
+                next[0].run();
+        }
+
+        // Removes the lane if it has no more tasks
+        private boolean hasPendingTasks() {
+            return lanes.computeIfPresent(tenantId, (id, lane) -> lane.tasks.isEmpty() ? null : lane) != null;
+        }
+
+        // Goes back to the end of the queue of the pool, or keeps running if the pool is shut down
+        private boolean yieldThread() {
+            try {
+                executor.execute(this);
+                return true;
+            }
+            catch(RejectedExecutionException e) {
+                return false;
+            }
+        }
+    }
+}
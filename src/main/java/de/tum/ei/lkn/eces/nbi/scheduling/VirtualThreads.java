@@ -0,0 +1,84 @@
+package de.tum.ei.lkn.eces.nbi.scheduling;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of the JDK (Java 21 and later), through
+ * reflection so that the NBI still builds and runs on older JDKs.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class VirtualThreads {
+    // Thread.ofVirtual(), Thread.Builder.name(String, long), Thread.Builder.factory() and Executors.newThreadPerTaskExecutor(ThreadFactory)
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newExecutor = null;
+        try {
+            // Methods of the public interface: the classes of the builders are not accessible
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_EXECUTOR = newExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return Whether the JDK supports virtual threads.
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param prefix Prefix of the names of the threads, followed by a counter.
+     * @return A factory of virtual threads.
+     * @throws UnsupportedOperationException if the JDK does not support
+     *                                       virtual threads.
+     */
+    public static ThreadFactory newFactory(String prefix) {
+        if(!isAvailable())
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, prefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unable to create virtual threads", e);
+        }
+    }
+
+    /**
+     * @param prefix Prefix of the names of the threads, followed by a counter.
+     * @return An executor running each task in a new virtual thread.
+     * @throws UnsupportedOperationException if the JDK does not support
+     *                                       virtual threads.
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = newFactory(prefix);
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Unable to create virtual threads", e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.tum.ei.lkn.eces.nbi.server;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Jetty thread pool with a bounded queue of jobs, which does not drop the
+ * jobs not fitting in the queue.
+ *
+ * Jetty closes the connection of a job rejected by its pool, without any
+ * response. This pool instead runs a job which does not fit in the queue
+ * right away, in the thread submitting it (e.g., a selector thread), marked
+ * as rejected: the {@link OverloadHandler} then answers the request it
+ * carries with a 503, without passing it on to the NBI.
+ *
+ * @author Amaury Van Bemten
+ */
+public class BoundedThreadPool extends QueuedThreadPool {
+    // Whether the job run by the current thread was rejected by the pool
+    private static final ThreadLocal<Boolean> REJECTED = ThreadLocal.withInitial(() -> false);
+
+    private final int maxQueuedJobs;
+    private final LongAdder rejectedJobs;
+
+    /**
+     * @param maxThreads Maximum number of threads.
+     * @param minThreads Number of threads kept alive when idle.
+     * @param idleTimeoutMillis Time after which an idle thread beyond the
+     *                          minimum is stopped.
+     * @param maxQueuedJobs Maximum number of jobs waiting for a thread.
+     */
+    public BoundedThreadPool(int maxThreads, int minThreads, int idleTimeoutMillis, int maxQueuedJobs) {
+        super(maxThreads, minThreads, idleTimeoutMillis,
+                new BlockingArrayQueue<>(Math.min(maxQueuedJobs, minThreads), minThreads, maxQueuedJobs));
+        this.maxQueuedJobs = maxQueuedJobs;
+        this.rejectedJobs = new LongAdder();
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        // Checking the queue first spares the warning logged by Jetty for each rejected job
+        if(getQueueSize() < maxQueuedJobs || !isRunning()) {
+            try {
+                super.execute(job);
+                return;
+            } catch (RejectedExecutionException e) {
+                // Jobs submitted while the pool is stopping are dropped as usual
+                if(!isRunning())
+                    throw e;
+            }
+        }
+
+        rejectedJobs.increment();
+        boolean rejected = REJECTED.get();
+        REJECTED.set(true);
+        try {
+            job.run();
+        }
+        finally {
+            REJECTED.set(rejected);
+        }
+    }
+
+    /**
+     * @return Whether the current thread runs a job which did not fit in the
+     *         queue of its pool.
+     */
+    static boolean isRejected() {
+        return REJECTED.get();
+    }
+
+    /**
+     * @return Number of jobs which did not fit in the queue.
+     */
+    public long getRejectedJobs() {
+        return rejectedJobs.sum();
+    }
+}
@@ -0,0 +1,108 @@
+package de.tum.ei.lkn.eces.nbi.server;
+
+import de.tum.ei.lkn.eces.nbi.NBIConfiguration;
+import org.eclipse.jetty.server.ConnectionLimit;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+/**
+ * Creates the Jetty servers of the NBIs according to their
+ * {@link NBIConfiguration}: bounded queue of the thread pool, whose overflow
+ * is answered with a 503 (see {@link BoundedThreadPool}), or virtual
+ * threads, accept queue, idle timeout, maximum number of connections and
+ * HTTP/2 over cleartext (h2c) next to HTTP/1.1.
+ *
+ * @author Amaury Van Bemten
+ */
+public class NBIServerFactory implements JettyServerFactory {
+    private final NBIConfiguration configuration;
+    private volatile BoundedThreadPool threadPool;
+
+    public NBIServerFactory(NBIConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Number of threads of the pool which Jetty keeps for accepting and
+     * selecting connections, and which thus never handle requests. These are
+     * the defaults of Jetty for the connector created by Spark.
+     *
+     * @param maxThreads Maximum number of threads of the pool.
+     * @return Number of threads taken by the connector.
+     */
+    public static int getConnectorThreads(int maxThreads) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int acceptors = Math.max(1, Math.min(4, cores / 8));
+        int selectors = Math.max(1, Math.min(cores / 2, maxThreads / 16));
+        return acceptors + selectors;
+    }
+
+    /**
+     * @return Number of requests answered with a 503 because they did not fit
+     *         in the queue of the thread pool.
+     */
+    public long getRejectedRequests() {
+        BoundedThreadPool threadPool = this.threadPool;
+        return threadPool == null ? 0 : threadPool.getRejectedJobs();
+    }
+
+    @Override
+    public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+        if(configuration.isVirtualThreads())
+            return create(new VirtualThreadPool("nbi-" + configuration.getPort()));
+
+        BoundedThreadPool threadPool = new BoundedThreadPool(maxThreads, minThreads, threadTimeoutMillis, configuration.getMaxQueuedRequests());
+        threadPool.setName("nbi-" + configuration.getPort());
+        this.threadPool = threadPool;
+        return create(threadPool);
+    }
+
+    @Override
+    public Server create(ThreadPool threadPool) {
+        Server server = new Server(threadPool) {
+            @Override
+            public void setConnectors(Connector[] connectors) {
+                // Spark creates the connector itself and then installs it
+                for(Connector connector : connectors) {
+                    if(connector instanceof ServerConnector) {
+                        ServerConnector serverConnector = (ServerConnector) connector;
+                        serverConnector.setAcceptQueueSize(configuration.getAcceptQueueSize());
+                        serverConnector.setIdleTimeout(configuration.getConnectionIdleTimeoutMillis());
+                        if(configuration.isHttp2())
+                            addHttp2(serverConnector);
+                    }
+                }
+                super.setConnectors(connectors);
+            }
+
+            @Override
+            public void setHandler(Handler handler) {
+                // Spark installs its handler itself: requests not fitting in the queue are answered before reaching it
+                if(handler != null && threadPool instanceof BoundedThreadPool)
+                    handler = new OverloadHandler(handler, configuration.getRetryAfterSeconds());
+                super.setHandler(handler);
+            }
+        };
+
+        if(configuration.getMaxConnections() > 0)
+            server.addBean(new ConnectionLimit(configuration.getMaxConnections(), server));
+
+        return server;
+    }
+
+    // Accepts h2c on the HTTP/1.1 connector, with the same HTTP configuration
+    private void addHttp2(ServerConnector connector) {
+        HttpConnectionFactory http1 = connector.getConnectionFactory(HttpConnectionFactory.class);
+        if(http1 == null)
+            return;
+        HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(http1.getHttpConfiguration());
+        h2c.setMaxConcurrentStreams(configuration.getMaxConcurrentStreams());
+        connector.addConnectionFactory(h2c);
+    }
+}
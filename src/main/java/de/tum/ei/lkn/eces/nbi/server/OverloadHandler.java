@@ -0,0 +1,44 @@
+package de.tum.ei.lkn.eces.nbi.server;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Jetty handler answering the requests rejected by a
+ * {@link BoundedThreadPool} with a 503 and a {@code Retry-After} header,
+ * before they reach the wrapped handler. Their bodies are not read.
+ *
+ * @author Amaury Van Bemten
+ */
+class OverloadHandler extends HandlerWrapper {
+    private final String retryAfterSeconds;
+
+    /**
+     * @param handler Handler of the accepted requests.
+     * @param retryAfterSeconds Delay after which clients are advised to
+     *                          retry a rejected request.
+     */
+    OverloadHandler(Handler handler, int retryAfterSeconds) {
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+        setHandler(handler);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        if(!BoundedThreadPool.isRejected()) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+
+        baseRequest.setHandled(true);
+        response.setStatus(503);
+        response.setHeader("Retry-After", retryAfterSeconds);
+        response.getWriter().write("Too many requests queued");
+    }
+}
@@ -0,0 +1,79 @@
+package de.tum.ei.lkn.eces.nbi.server;
+
+import de.tum.ei.lkn.eces.nbi.scheduling.VirtualThreads;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jetty thread pool running each job (accepting and selecting connections,
+ * handling a request) in a new virtual thread.
+ *
+ * The pool is unbounded: the number of requests processed at once is
+ * bounded by the in-flight limit of the NBI, and the number of operations
+ * running in the TenantManagerSystem by the parallelism of the lanes.
+ *
+ * @author Amaury Van Bemten
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    // Time given to running jobs to complete when the pool is stopped
+    private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final ExecutorService executor;
+    private final AtomicInteger threads;
+
+    /**
+     * @param name Prefix of the names of the threads.
+     * @throws UnsupportedOperationException if the JDK does not support
+     *                                       virtual threads.
+     */
+    public VirtualThreadPool(String name) {
+        this.executor = VirtualThreads.newExecutor(name + "-");
+        this.threads = new AtomicInteger();
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        executor.execute(() -> {
+            threads.incrementAndGet();
+            try {
+                job.run();
+            }
+            finally {
+                threads.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        while(!executor.awaitTermination(1, TimeUnit.DAYS))
+            ;
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        // Threads are created for each job and end with it
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        if(!executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+            executor.shutdownNow();
+    }
+}
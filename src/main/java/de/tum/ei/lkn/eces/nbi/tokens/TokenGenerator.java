@@ -0,0 +1,98 @@
+package de.tum.ei.lkn.eces.nbi.tokens;
+
+import de.tum.ei.lkn.eces.nbi.collections.Recycler;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Generator of secret tokens, used as cookies of the tenants.
+ *
+ * Tokens are 53-bit positive integers: as wide as possible while still
+ * being represented exactly by JSON parsers working with doubles (e.g.,
+ * JavaScript). Each thread has its own cryptographically secure generator,
+ * seeded once, from which random bytes are drawn in batches: generating
+ * tokens neither contends on a shared generator nor reseeds it. Threads
+ * which only live for a request pass their generators on to the next ones
+ * (see {@link Recycler}), so that they are not seeded for each request.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class TokenGenerator {
+    /**
+     * Number of random bits of a token.
+     */
+    public static final int TOKEN_BITS = 53;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    // Number of tokens drawn from the generator at once
+    private static final int POOL_SIZE = 32;
+
+    // Only used to seed the generators of the threads
+    private static final SecureRandom SEEDER = new SecureRandom();
+    private static final Recycler<TokenGenerator> GENERATORS = Recycler.withInitial(TokenGenerator::new);
+
+    private final SecureRandom random;
+    private final byte[] pool;
+    private int position;
+
+    private TokenGenerator() {
+        byte[] seed = new byte[32];
+        SEEDER.nextBytes(seed);
+        SecureRandom generator;
+        try {
+            generator = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            generator = new SecureRandom();
+        }
+        // Seeding before the first use prevents the generator from seeding itself
+        generator.setSeed(seed);
+        this.random = generator;
+        this.pool = new byte[POOL_SIZE * Long.BYTES];
+        this.position = pool.length;
+    }
+
+    /**
+     * @return A new random token, strictly positive.
+     */
+    public static long nextToken() {
+        return GENERATORS.get().next();
+    }
+
+    /**
+     * Compares two tokens in constant time, with
+     * {@link MessageDigest#isEqual(byte[], byte[])} on their bytes.
+     *
+     * @param expected The expected token.
+     * @param actual The token to check.
+     * @return Whether the tokens are equal.
+     */
+    public static boolean matches(long expected, long actual) {
+        return MessageDigest.isEqual(toBytes(expected), toBytes(actual));
+    }
+
+    // Big-endian bytes of a token
+    private static byte[] toBytes(long token) {
+        byte[] bytes = new byte[Long.BYTES];
+        for(int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[i] = (byte) token;
+            token >>>= 8;
+        }
+        return bytes;
+    }
+
+    private long next() {
+        long token;
+        do {
+            if(position == pool.length) {
+                random.nextBytes(pool);
+                position = 0;
+            }
+            token = 0;
+            for(int i = 0; i < Long.BYTES; i++)
+                token = (token << 8) | (pool[position++] & 0xFF);
+            token &= TOKEN_MASK;
+        } while(token == 0);
+        return token;
+    }
+}
@@ -0,0 +1,91 @@
+package de.tum.ei.lkn.eces.nbi;
+
+import de.tum.ei.lkn.eces.nbi.scheduling.VirtualThreads;
+import de.tum.ei.lkn.eces.nbi.server.NBIServerFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NBIConfigurationTest {
+    @Test
+    public void testChaining() {
+        NBIConfiguration configuration = new NBIConfiguration()
+                .setPort(8100)
+                .setParallelism(2)
+                .setMaxThreads(32)
+                .setMaxInFlightRequests(16)
+                .setRetryAfterSeconds(5);
+        assertEquals(8100, configuration.getPort());
+        assertEquals(2, configuration.getParallelism());
+        assertEquals(32, configuration.getMaxThreads());
+        assertEquals(16, configuration.getMaxInFlightRequests());
+        assertEquals(5, configuration.getRetryAfterSeconds());
+        // Defaults
+        assertEquals(0, configuration.getMaxConnections());
+        assertEquals(1, configuration.getAuditSamplingRate(), 0);
+    }
+
+    @Test
+    public void testVirtualThreads() {
+        try {
+            assertTrue(new NBIConfiguration().setVirtualThreads(true).isVirtualThreads());
+            assertTrue(VirtualThreads.isAvailable());
+        }
+        catch(UnsupportedOperationException e) {
+            // Only on JDKs without virtual threads
+            assertFalse(VirtualThreads.isAvailable());
+        }
+        assertFalse(new NBIConfiguration().setVirtualThreads(false).isVirtualThreads());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPort() {
+        new NBIConfiguration().setPort(70000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInFlightRequests() {
+        new NBIConfiguration().setMaxInFlightRequests(0);
+    }
+
+    @Test
+    public void testThreads() {
+        // Setters can be called in any order, the settings are checked together
+        NBIConfiguration configuration = new NBIConfiguration().setMaxThreads(16).setMinThreads(8).setMaxInFlightRequests(4);
+        configuration.validate();
+        try {
+            configuration.setMinThreads(32).validate();
+            fail("More threads than the maximum accepted");
+        }
+        catch(IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testInFlightRequests() {
+        // Threads must remain to reject the requests beyond the limit
+        NBIConfiguration configuration = new NBIConfiguration().setMaxThreads(64).setMaxInFlightRequests(32).setMaxQueuedRequests(1);
+        configuration.validate();
+        for(int maxInFlightRequests : new int[]{64, 65, 1000}) {
+            try {
+                configuration.setMaxInFlightRequests(maxInFlightRequests).validate();
+                fail("More in-flight requests than threads accepted");
+            }
+            catch(IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        configuration.setMaxInFlightRequests(64 - NBIServerFactory.getConnectorThreads(64) - 1).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSamplingRate() {
+        new NBIConfiguration().setAuditSamplingRate(-0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConcurrentStreams() {
+        new NBIConfiguration().setMaxConcurrentStreams(0);
+    }
+}
@@ -0,0 +1,205 @@
+package de.tum.ei.lkn.eces.nbi;
+
+import de.tum.ei.lkn.eces.core.Controller;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Level;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests hammering the NBI from several threads at once.
+ *
+ * Each worker owns a tenant and creates/removes VMs and flows in a loop, so
+ * that the registries of the NBISystem are modified concurrently by requests
+ * of different tenants.
+ */
+public class NBISystemConcurrencyTest {
+    private static int NBI_PORT = 8093;
+    private static String NEW_TENANT_PATH = "/newTenant";
+    private static String NEW_VM_PATH = "/newVM";
+    private static String NEW_FLOW_PATH = "/newFlow";
+    private static String REMOVE_TENANT_PATH = "/removeTenant";
+    private static String REMOVE_VM_PATH = "/removeVM";
+    private static String REMOVE_FLOW_PATH = "/removeFlow";
+
+    private static int THREADS = 16;
+    private static int ITERATIONS = 20;
+
+    private NBISystem nbiSystem;
+    private CloseableHttpClient client;
+
+    @Before
+    public void setUp() {
+        TinyNetwork.configureLogging(Level.WARN);
+        Controller controller = new Controller();
+        nbiSystem = new NBISystem(TinyNetwork.createTenantManager(controller), controller, NBI_PORT);
+
+        client = HttpClients.custom()
+                .setMaxConnTotal(THREADS * 2)
+                .setMaxConnPerRoute(THREADS * 2)
+                .build();
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        client.close();
+        nbiSystem.stop();
+    }
+
+    @Test
+    public void testConcurrentTenants() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        Set<Long> flowIds = ConcurrentHashMap.newKeySet();
+        AtomicInteger createdFlows = new AtomicInteger();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            int worker = i;
+            futures.add(executor.submit(() -> {
+                barrier.await();
+
+                Response tenant = sendPost(NEW_TENANT_PATH, "{\"name\": \"stress" + worker + "\"}");
+                assertEquals(tenant.body, 200, tenant.status);
+                long tenantId = tenant.json.getLong("id");
+                long cookie = tenant.json.getLong("cookie");
+
+                Response vm1 = sendPost(NEW_VM_PATH, "{\"name\": vm1, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}");
+                Response vm2 = sendPost(NEW_VM_PATH, "{\"name\": vm2, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}");
+                assertEquals(vm1.body, 200, vm1.status);
+                assertEquals(vm2.body, 200, vm2.status);
+                long vm1Id = vm1.json.getLong("id");
+                long vm2Id = vm2.json.getLong("id");
+
+                for(int j = 0; j < ITERATIONS; j++) {
+                    Response flow = sendPost(NEW_FLOW_PATH, flowBody(tenantId, cookie, vm1Id, vm2Id, 1000 + j));
+                    assertEquals(flow.body, 200, flow.status);
+                    long flowId = flow.json.getLong("id");
+                    assertTrue("Flow ID " + flowId + " was handed out twice", flowIds.add(flowId));
+                    createdFlows.incrementAndGet();
+
+                    // Every other flow is kept, the others are removed right away
+                    if(j % 2 == 0) {
+                        Response removal = sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowId + ", \"cookie\": " + cookie + "}");
+                        assertEquals(removal.body, 200, removal.status);
+                        // A second removal must be refused
+                        assertEquals(400, sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowId + ", \"cookie\": " + cookie + "}").status);
+                    }
+                }
+
+                Response removal = sendPost(REMOVE_VM_PATH, "{\"vmId\": " + vm1Id + ", \"cookie\": " + cookie + "}");
+                assertEquals(removal.body, 200, removal.status);
+                removal = sendPost(REMOVE_TENANT_PATH, "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}");
+                assertEquals(removal.body, 200, removal.status);
+                assertEquals(400, sendPost(NEW_VM_PATH, "{\"name\": vm3, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}").status);
+                assertEquals(400, sendPost(REMOVE_VM_PATH, "{\"vmId\": " + vm1Id + ", \"cookie\": " + cookie + "}").status);
+                return null;
+            }));
+        }
+
+        for(Future<?> future : futures)
+            future.get(5, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertEquals(THREADS * ITERATIONS, createdFlows.get());
+        assertEquals(THREADS * ITERATIONS, flowIds.size());
+    }
+
+    @Test
+    public void testConcurrentRemovalOfSameResources() throws Exception {
+        Response tenant = sendPost(NEW_TENANT_PATH, "{\"name\": \"contended\"}");
+        assertEquals(200, tenant.status);
+        long tenantId = tenant.json.getLong("id");
+        long cookie = tenant.json.getLong("cookie");
+        Response vm1 = sendPost(NEW_VM_PATH, "{\"name\": vm1, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}");
+        Response vm2 = sendPost(NEW_VM_PATH, "{\"name\": vm2, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}");
+        assertEquals(200, vm1.status);
+        assertEquals(200, vm2.status);
+        long vm1Id = vm1.json.getLong("id");
+        long vm2Id = vm2.json.getLong("id");
+
+        List<Long> flowIds = new ArrayList<>();
+        for(int j = 0; j < ITERATIONS; j++) {
+            Response flow = sendPost(NEW_FLOW_PATH, flowBody(tenantId, cookie, vm1Id, vm2Id, 2000 + j));
+            assertEquals(200, flow.status);
+            flowIds.add(flow.json.getLong("id"));
+        }
+
+        // All threads race to remove the same flows: each flow must be removed exactly once
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for(long flowId : flowIds) {
+            CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for(int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowId + ", \"cookie\": " + cookie + "}").status;
+                }));
+            }
+
+            int successes = 0;
+            for(Future<Integer> future : futures) {
+                int status = future.get(1, TimeUnit.MINUTES);
+                assertTrue(status == 200 || status == 400);
+                if(status == 200)
+                    successes++;
+            }
+            assertEquals(1, successes);
+        }
+        executor.shutdown();
+
+        assertEquals(200, sendPost(REMOVE_TENANT_PATH, "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}").status);
+    }
+
+    private static String flowBody(long tenantId, long cookie, long source, long destination, int dstPort) {
+        return "{\"name\": flow," +
+                "\"tenantId\": " + tenantId + "," +
+                "\"cookie\": " + cookie + "," +
+                "\"srcIp\": 10.152.1.1," +
+                "\"dstIp\": 10.152.1.2," +
+                "\"srcPort\": 4," +
+                "\"dstPort\": " + dstPort + "," +
+                "\"protocol\": 6," +
+                "\"source\": " + source + "," +
+                "\"destination\": " + destination + "," +
+                "\"rate\": 25," +
+                "\"burst\": 5," +
+                "\"latency\": 22}";
+    }
+
+    // Status, raw body and (if valid) JSON content of a response
+    private static class Response {
+        private int status;
+        private String body;
+        private JSONObject json;
+    }
+
+    // Helper to send a POST request through the shared client
+    private Response sendPost(String path, String jsonString) throws IOException {
+        HttpPost post = new HttpPost("http://localhost:" + NBI_PORT + path);
+        post.setEntity(new StringEntity(jsonString));
+        HttpResponse httpResponse = client.execute(post);
+        Response response = new Response();
+        response.status = httpResponse.getStatusLine().getStatusCode();
+        response.body = EntityUtils.toString(httpResponse.getEntity());
+        if(response.status == 200)
+            response.json = new JSONObject(response.body);
+        return response;
+    }
+}
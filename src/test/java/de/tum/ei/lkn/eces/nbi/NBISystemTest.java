@@ -1,39 +1,18 @@
 package de.tum.ei.lkn.eces.nbi;
 
 import de.tum.ei.lkn.eces.core.Controller;
-import de.tum.ei.lkn.eces.dnm.DNMSystem;
-import de.tum.ei.lkn.eces.dnm.ResidualMode;
-import de.tum.ei.lkn.eces.dnm.config.ACModel;
-import de.tum.ei.lkn.eces.dnm.config.BurstIncreaseModel;
-import de.tum.ei.lkn.eces.dnm.config.DetServConfig;
-import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.Division;
-import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.LowerLimit;
-import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.Summation;
-import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.UpperLimit;
-import de.tum.ei.lkn.eces.dnm.config.costmodels.values.Constant;
-import de.tum.ei.lkn.eces.dnm.config.costmodels.values.QueuePriority;
-import de.tum.ei.lkn.eces.dnm.mappers.DetServConfigMapper;
-import de.tum.ei.lkn.eces.dnm.proxies.DetServProxy;
-import de.tum.ei.lkn.eces.dnm.resourcemanagement.resourceallocation.MHM.MHMRateRatiosAllocation;
-import de.tum.ei.lkn.eces.graph.GraphSystem;
-import de.tum.ei.lkn.eces.network.Host;
-import de.tum.ei.lkn.eces.network.Network;
-import de.tum.ei.lkn.eces.network.NetworkNode;
-import de.tum.ei.lkn.eces.network.NetworkingSystem;
-import de.tum.ei.lkn.eces.network.util.NetworkInterface;
-import de.tum.ei.lkn.eces.routing.RoutingSystem;
-import de.tum.ei.lkn.eces.routing.algorithms.RoutingAlgorithm;
-import de.tum.ei.lkn.eces.routing.algorithms.csp.unicast.cbf.CBFAlgorithm;
-import de.tum.ei.lkn.eces.routing.pathlist.PathListSystem;
+import de.tum.ei.lkn.eces.nbi.client.NBIClient;
+import de.tum.ei.lkn.eces.nbi.registry.ResourceRegistry;
 import de.tum.ei.lkn.eces.tenantmanager.TenantManagerSystem;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.log4j.BasicConfigurator;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
@@ -43,74 +22,38 @@ import org.junit.Test;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.*;
 
 public class NBISystemTest {
     private static int NBI_PORT = 8092;
+    private static int OTHER_NBI_PORT = 8097;
     private static String NEW_TENANT_PATH = "/newTenant";
     private static String NEW_VM_PATH = "/newVM";
     private static String NEW_FLOW_PATH = "/newFlow";
+    private static String NEW_FLOWS_PATH = "/newFlows";
+    private static String JOBS_PATH = "/jobs";
     private static String REMOVE_TENANT_PATH = "/removeTenant";
     private static String REMOVE_VM_PATH = "/removeVM";
     private static String REMOVE_FLOW_PATH = "/removeFlow";
+    private static String REMOVE_FLOWS_PATH = "/removeFlows";
+    private static String REMOVE_VMS_PATH = "/removeVMs";
+    private static String TENANTS_PATH = "/tenants";
 
     private NBISystem nbiSystem;
+    private Controller controller;
+    private TenantManagerSystem tenantManagerSystem;
 
     @Before
     public void setUp() {
-        BasicConfigurator.configure();
-        Logger.getRootLogger().setLevel(Level.INFO);
-        Logger.getLogger("de.tum.ei.lkn.eces.dnm").setLevel(Level.ERROR);
-        Logger.getLogger("de.tum.ei.lkn.eces.graph").setLevel(Level.ERROR);
-        Logger.getLogger("de.tum.ei.lkn.eces.network").setLevel(Level.ERROR);
-        Logger.getLogger("org.eclipse.jetty").setLevel(Level.ERROR);
-
-        Controller controller = new Controller();
-        GraphSystem graphSystem = new GraphSystem(controller);
-        NetworkingSystem networkingSystem = new NetworkingSystem(controller, graphSystem);
-
-        DetServConfig modelConfig = new DetServConfig(
-                ACModel.MHM,
-                ResidualMode.LEAST_LATENCY,
-                BurstIncreaseModel.NO,
-                false,
-                new LowerLimit(new UpperLimit(
-                        new Division(new Constant(), new Summation(new Constant(), new QueuePriority())),
-                        1), 0),
-                (controller1, scheduler) -> new MHMRateRatiosAllocation(controller1, new double[]{1.0 / 4, 1.0 / 5, 1.0 / 6, 1.0 / 8}));
-
-
-        // DNC
-        new DNMSystem(controller);
-        DetServProxy proxy = new DetServProxy(controller);
-
-        // Routing
-        new RoutingSystem(controller);
-        RoutingAlgorithm cbf = new CBFAlgorithm(controller);
-        cbf.setProxy(proxy);
-        modelConfig.initCostModel(controller);
-
-        // Path list system
-        PathListSystem pathListSystem = new PathListSystem(controller);
-
-        // Create network
-        Network network = networkingSystem.createNetwork();
-        DetServConfigMapper modelingConfigMapper = new DetServConfigMapper(controller);
-        modelingConfigMapper.attachComponent(network.getQueueGraph(), modelConfig);
-
-        Host lundi = networkingSystem.createHost(network, "lundi");
-        Host mardi = networkingSystem.createHost(network, "mardi");
-        NetworkNode lundiNode = networkingSystem.addInterface(lundi, new NetworkInterface("1", "00:00:00:00:00:00"));
-        NetworkNode mardiNode = networkingSystem.addInterface(mardi, new NetworkInterface("2", "00:00:00:00:00:00"));
-
-        NetworkNode node = networkingSystem.createNode(network);
-        networkingSystem.createLinkWithPriorityScheduling(lundiNode, node, 1e9 / 8, 0, new double[]{30000});
-        networkingSystem.createLinkWithPriorityScheduling(node, lundiNode, 1e9 / 8, 0, new double[]{30000});
-        networkingSystem.createLinkWithPriorityScheduling(mardiNode, node, 1e9 / 8, 0, new double[]{30000});
-        networkingSystem.createLinkWithPriorityScheduling(node, mardiNode, 1e9 / 8, 0, new double[]{30000});
-
-        nbiSystem = new NBISystem(new TenantManagerSystem(network, cbf, controller), controller, NBI_PORT);
+        TinyNetwork.configureLogging(Level.INFO);
+        controller = new Controller();
+        tenantManagerSystem = TinyNetwork.createTenantManager(controller);
+        nbiSystem = new NBISystem(tenantManagerSystem, controller, NBI_PORT);
     }
 
     @After
@@ -145,15 +88,15 @@ public class NBISystemTest {
         HttpResponse response = sendPost(NEW_TENANT_PATH, "{\"name\": ok}");
         JSONObject json = getResponseContent(response);
         assertEquals(response.getStatusLine().getStatusCode(), 200);
-        assertTrue(json != null && json.get("id") != null && json.get("cookie") != null && (json.get("id") instanceof Integer || json.get("id") instanceof Long) && json.get("cookie") instanceof Integer);
+        assertTrue(json != null && json.get("id") != null && json.get("cookie") != null && (json.get("id") instanceof Integer || json.get("id") instanceof Long) && (json.get("cookie") instanceof Integer || json.get("cookie") instanceof Long));
         response = sendPost(NEW_TENANT_PATH, "{\"name\": \"another name\"}");
         json = getResponseContent(response);
         assertEquals(response.getStatusLine().getStatusCode(), 200);
-        assertTrue(json != null && json.get("id") != null && json.get("cookie") != null && (json.get("id") instanceof Integer || json.get("id") instanceof Long) && json.get("cookie") instanceof Integer);
+        assertTrue(json != null && json.get("id") != null && json.get("cookie") != null && (json.get("id") instanceof Integer || json.get("id") instanceof Long) && (json.get("cookie") instanceof Integer || json.get("cookie") instanceof Long));
         response = sendPost(NEW_TENANT_PATH, "{\"name\": \"another2 name\"}");
         json = getResponseContent(response);
         assertEquals(response.getStatusLine().getStatusCode(), 200);
-        assertTrue(json != null && json.get("id") != null && json.get("cookie") != null && (json.get("id") instanceof Integer || json.get("id") instanceof Long) && json.get("cookie") instanceof Integer);
+        assertTrue(json != null && json.get("id") != null && json.get("cookie") != null && (json.get("id") instanceof Integer || json.get("id") instanceof Long) && (json.get("cookie") instanceof Integer || json.get("cookie") instanceof Long));
         // Now same names, should fail
         assertEquals(sendPost(NEW_TENANT_PATH, "{\"name\": \"another2 name\"}").getStatusLine().getStatusCode(), 400);
         assertEquals(sendPost(NEW_TENANT_PATH, "{\"name\": \"another name\"}").getStatusLine().getStatusCode(), 400);
@@ -175,8 +118,8 @@ public class NBISystemTest {
         JSONObject tenant2Json = getResponseContent(tenant2Response);
         long tenant1Id = tenant1Json.getLong("id");
         long tenant2Id = tenant2Json.getLong("id");
-        int tenant1Cookie = tenant1Json.getInt("cookie");
-        int tenant2Cookie = tenant2Json.getInt("cookie");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
 
         // Invalid JSON
         assertEquals(sendPost(NEW_VM_PATH, "shit").getStatusLine().getStatusCode(), 400);
@@ -221,8 +164,8 @@ public class NBISystemTest {
         JSONObject tenant2Json = getResponseContent(tenant2Response);
         long tenant1Id = tenant1Json.getLong("id");
         long tenant2Id = tenant2Json.getLong("id");
-        int tenant1Cookie = tenant1Json.getInt("cookie");
-        int tenant2Cookie = tenant2Json.getInt("cookie");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
 
         // Create 3 VMs
         HttpResponse vm1Response = sendPost(NEW_VM_PATH, "{\"name\": ok, \"tenantId\": " + (tenant1Id) + ", \"cookie\": " + tenant1Cookie + "}");
@@ -603,6 +546,147 @@ public class NBISystemTest {
                 "\"latency\": 22}").getStatusLine().getStatusCode(), 400);
     }
 
+    @Test
+    public void testNewFlows() throws IOException {
+        // Create two tenants
+        HttpResponse tenant1Response = sendPost(NEW_TENANT_PATH, "{\"name\": tenant1}");
+        HttpResponse tenant2Response = sendPost(NEW_TENANT_PATH, "{\"name\": tenant2}");
+        assertEquals(tenant1Response.getStatusLine().getStatusCode(), 200);
+        assertEquals(tenant2Response.getStatusLine().getStatusCode(), 200);
+        JSONObject tenant1Json = getResponseContent(tenant1Response);
+        JSONObject tenant2Json = getResponseContent(tenant2Response);
+        long tenant1Id = tenant1Json.getLong("id");
+        long tenant2Id = tenant2Json.getLong("id");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
+
+        // Create 3 VMs
+        HttpResponse vm1Response = sendPost(NEW_VM_PATH, "{\"name\": ok, \"tenantId\": " + (tenant1Id) + ", \"cookie\": " + tenant1Cookie + "}");
+        HttpResponse vm2Response = sendPost(NEW_VM_PATH, "{\"name\": vm1, \"tenantId\": " + (tenant2Id) + ", \"cookie\": " + tenant2Cookie + "}");
+        HttpResponse vm3Response = sendPost(NEW_VM_PATH, "{\"name\": vm2, \"tenantId\": " + (tenant2Id) + ", \"cookie\": " + tenant2Cookie + "}");
+        assertEquals(vm1Response.getStatusLine().getStatusCode(), 200);
+        assertEquals(vm2Response.getStatusLine().getStatusCode(), 200);
+        assertEquals(vm3Response.getStatusLine().getStatusCode(), 200);
+        long vm1Id = getResponseContent(vm1Response).getLong("id");
+        long vm2Id = getResponseContent(vm2Response).getLong("id");
+        long vm3Id = getResponseContent(vm3Response).getLong("id");
+
+        // Invalid JSON
+        assertEquals(sendPost(NEW_FLOWS_PATH, "shit").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"}").getStatusLine().getStatusCode(), 400);
+        // Missing necessary key (tenantId, cookie, flows)
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + "}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"flows\": []}").getStatusLine().getStatusCode(), 400);
+        // Key is there but type of value is wrong
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"flows\": 4}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": ok, \"cookie\": " + tenant2Cookie + ", \"flows\": []}").getStatusLine().getStatusCode(), 400);
+        // Wrong tenant ID or cookie
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + (tenant1Id + tenant2Id) + ", \"cookie\": " + tenant2Cookie + ", \"flows\": []}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant1Cookie + ", \"flows\": []}").getStatusLine().getStatusCode(), 400);
+        // Empty batch is fine
+        HttpResponse response = sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"flows\": []}");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        assertEquals(getResponseContent(response).getJSONArray("flows").length(), 0);
+
+        // Mix of valid and invalid flows: each gets its own result
+        response = sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"flows\": [" +
+                batchFlow(vm3Id, vm2Id, 41) + "," + // fine
+                batchFlow(vm2Id, vm3Id, 41) + "," + // fine (reverse)
+                batchFlow(vm3Id, vm2Id, 41) + "," + // same matching as first flow
+                batchFlow(vm1Id, vm2Id, 42) + "," + // VM of another tenant
+                "{\"name\": fine, \"srcIp\": 10.152.1.1}," + // missing keys
+                "4," + // not a flow
+                batchFlow(vm3Id, vm2Id, 44) + // fine
+                "]}");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        JSONArray results = getResponseContent(response).getJSONArray("flows");
+        assertEquals(results.length(), 7);
+        assertTrue(results.getJSONObject(0).has("id") && !results.getJSONObject(0).has("error"));
+        assertTrue(results.getJSONObject(1).has("id") && !results.getJSONObject(1).has("error"));
+        assertTrue(results.getJSONObject(2).has("error") && !results.getJSONObject(2).has("id"));
+        assertTrue(results.getJSONObject(3).has("error") && !results.getJSONObject(3).has("id"));
+        assertTrue(results.getJSONObject(4).has("error") && !results.getJSONObject(4).has("id"));
+        assertTrue(results.getJSONObject(5).has("error") && !results.getJSONObject(5).has("id"));
+        assertTrue(results.getJSONObject(6).has("id") && !results.getJSONObject(6).has("error"));
+
+        // Flows created in a batch can be removed one by one
+        for(int i : new int[]{0, 1, 6}) {
+            response = sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + results.getJSONObject(i).getLong("id") + ", \"cookie\": " + tenant2Cookie + "}");
+            assertEquals(response.getStatusLine().getStatusCode(), 200);
+        }
+    }
+
+    // Helper to build a flow of a batch between two VMs
+    private static String batchFlow(long source, long destination, int dstPort) {
+        return "{\"name\": fine," +
+                "\"srcIp\": 10.152.1.1," +
+                "\"dstIp\": 10.152.1.2," +
+                "\"srcPort\": 4," +
+                "\"dstPort\": " + dstPort + "," +
+                "\"protocol\": 5," +
+                "\"source\": " + source + "," +
+                "\"destination\": " + destination + "," +
+                "\"rate\": 25," +
+                "\"burst\": 5," +
+                "\"latency\": 22}";
+    }
+
+    @Test
+    public void testAsyncNewFlow() throws IOException {
+        // Create a tenant with 2 VMs
+        HttpResponse tenantResponse = sendPost(NEW_TENANT_PATH, "{\"name\": tenant1}");
+        assertEquals(tenantResponse.getStatusLine().getStatusCode(), 200);
+        JSONObject tenantJson = getResponseContent(tenantResponse);
+        long tenantId = tenantJson.getLong("id");
+        long tenantCookie = tenantJson.getLong("cookie");
+        HttpResponse vm1Response = sendPost(NEW_VM_PATH, "{\"name\": vm1, \"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "}");
+        HttpResponse vm2Response = sendPost(NEW_VM_PATH, "{\"name\": vm2, \"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "}");
+        assertEquals(vm1Response.getStatusLine().getStatusCode(), 200);
+        assertEquals(vm2Response.getStatusLine().getStatusCode(), 200);
+        long vm1Id = getResponseContent(vm1Response).getLong("id");
+        long vm2Id = getResponseContent(vm2Response).getLong("id");
+
+        // Validation errors are still reported synchronously
+        assertEquals(sendPost(NEW_FLOW_PATH + "?async=true", "shit").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_FLOW_PATH + "?async=true", "{\"tenantId\": " + tenantId + ", \"cookie\": " + (tenantCookie + 1) + "," + batchFlow(vm1Id, vm2Id, 41).substring(1)).getStatusLine().getStatusCode(), 400);
+
+        // Valid flow: a job is returned
+        String flow = "{\"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "," + batchFlow(vm1Id, vm2Id, 41).substring(1);
+        HttpResponse response = sendPost(NEW_FLOW_PATH + "?async=true", flow);
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        long jobId = getResponseContent(response).getLong("job");
+
+        // Invalid job requests
+        assertEquals(sendGet(JOBS_PATH + "/" + jobId).getStatusLine().getStatusCode(), 400); // missing cookie
+        assertEquals(sendGet(JOBS_PATH + "/" + jobId + "?cookie=lol").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(JOBS_PATH + "/" + jobId + "?cookie=" + (tenantCookie + 1)).getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(JOBS_PATH + "/lol?cookie=" + tenantCookie).getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(JOBS_PATH + "/" + (jobId + 1000) + "?cookie=" + tenantCookie).getStatusLine().getStatusCode(), 400);
+
+        // Long poll until the flow is embedded
+        response = sendGet(JOBS_PATH + "/" + jobId + "?cookie=" + tenantCookie + "&wait=10000");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        JSONObject json = getResponseContent(response);
+        assertEquals(json.get("status"), "done");
+        long flowId = json.getLong("id");
+        // The result is only returned once
+        assertEquals(sendGet(JOBS_PATH + "/" + jobId + "?cookie=" + tenantCookie).getStatusLine().getStatusCode(), 400);
+
+        // Same flow again: the job fails since the matching already exists
+        response = sendPost(NEW_FLOW_PATH + "?async=true", flow);
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        jobId = getResponseContent(response).getLong("job");
+        response = sendGet(JOBS_PATH + "/" + jobId + "?cookie=" + tenantCookie + "&wait=10000");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        json = getResponseContent(response);
+        assertEquals(json.get("status"), "failed");
+        assertTrue(json.get("error") instanceof String);
+
+        // The asynchronously created flow is a normal flow
+        response = sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowId + ", \"cookie\": " + tenantCookie + "}");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+    }
+
     @Test
     public void testDeleteFlow() throws IOException {
         // Create two tenants
@@ -614,8 +698,8 @@ public class NBISystemTest {
         JSONObject tenant2Json = getResponseContent(tenant2Response);
         long tenant1Id = tenant1Json.getLong("id");
         long tenant2Id = tenant2Json.getLong("id");
-        int tenant1Cookie = tenant1Json.getInt("cookie");
-        int tenant2Cookie = tenant2Json.getInt("cookie");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
 
         // Create 3 VMs
         HttpResponse vm1Response = sendPost(NEW_VM_PATH, "{\"name\": ok, \"tenantId\": " + (tenant1Id) + ", \"cookie\": " + tenant1Cookie + "}");
@@ -721,8 +805,8 @@ public class NBISystemTest {
         JSONObject tenant2Json = getResponseContent(tenant2Response);
         long tenant1Id = tenant1Json.getLong("id");
         long tenant2Id = tenant2Json.getLong("id");
-        int tenant1Cookie = tenant1Json.getInt("cookie");
-        int tenant2Cookie = tenant2Json.getInt("cookie");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
 
         // Create 3 VMs
         HttpResponse vm1Response = sendPost(NEW_VM_PATH, "{\"name\": ok, \"tenantId\": " + (tenant1Id) + ", \"cookie\": " + tenant1Cookie + "}");
@@ -828,8 +912,8 @@ public class NBISystemTest {
         JSONObject tenant2Json = getResponseContent(tenant2Response);
         long tenant1Id = tenant1Json.getLong("id");
         long tenant2Id = tenant2Json.getLong("id");
-        int tenant1Cookie = tenant1Json.getInt("cookie");
-        int tenant2Cookie = tenant2Json.getInt("cookie");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
 
         // Create 3 VMs
         HttpResponse vm1Response = sendPost(NEW_VM_PATH, "{\"name\": ok, \"tenantId\": " + (tenant1Id) + ", \"cookie\": " + tenant1Cookie + "}");
@@ -920,15 +1004,396 @@ public class NBISystemTest {
         assertTrue(json != null && json.get("success") != null && json.get("success").equals(1));
     }
 
+    @Test
+    public void testBatchRemovals() throws IOException {
+        // Create two tenants
+        JSONObject tenant1Json = getResponseContent(sendPost(NEW_TENANT_PATH, "{\"name\": tenant1}"));
+        JSONObject tenant2Json = getResponseContent(sendPost(NEW_TENANT_PATH, "{\"name\": tenant2}"));
+        long tenant1Id = tenant1Json.getLong("id");
+        long tenant2Id = tenant2Json.getLong("id");
+        long tenant1Cookie = tenant1Json.getLong("cookie");
+        long tenant2Cookie = tenant2Json.getLong("cookie");
+
+        // Create 3 VMs and 3 flows
+        long vm1Id = getResponseContent(sendPost(NEW_VM_PATH, "{\"name\": vm1, \"tenantId\": " + tenant1Id + ", \"cookie\": " + tenant1Cookie + "}")).getLong("id");
+        long vm2Id = getResponseContent(sendPost(NEW_VM_PATH, "{\"name\": vm2, \"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + "}")).getLong("id");
+        long vm3Id = getResponseContent(sendPost(NEW_VM_PATH, "{\"name\": vm3, \"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + "}")).getLong("id");
+        JSONArray flows = getResponseContent(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"flows\": [" +
+                batchFlow(vm2Id, vm3Id, 41) + "," + batchFlow(vm3Id, vm2Id, 41) + "," + batchFlow(vm2Id, vm3Id, 42) + "]}")).getJSONArray("flows");
+        long flow1Id = flows.getJSONObject(0).getLong("id");
+        long flow2Id = flows.getJSONObject(1).getLong("id");
+        long flow3Id = flows.getJSONObject(2).getLong("id");
+        assertEquals(3, nbiSystem.getRegistry().getNumberOfFlows());
+
+        // Invalid requests
+        assertEquals(sendPost(REMOVE_FLOWS_PATH, "shit").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(REMOVE_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + "}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(REMOVE_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"flowIds\": 4}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(REMOVE_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant1Cookie + ", \"flowIds\": []}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(REMOVE_VMS_PATH, "{\"tenantId\": " + (tenant1Id + tenant2Id) + ", \"cookie\": " + tenant2Cookie + ", \"vmIds\": []}").getStatusLine().getStatusCode(), 400);
+
+        // Mix of valid and invalid flows: each gets its own result
+        HttpResponse response = sendPost(REMOVE_FLOWS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"flowIds\": [" +
+                flow1Id + "," + // fine
+                flow1Id + "," + // already removed
+                "ok," + // not an ID
+                (flow1Id + flow2Id + flow3Id) + "," + // does not exist
+                flow3Id + // fine
+                "]}");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        JSONArray results = getResponseContent(response).getJSONArray("flows");
+        assertEquals(results.length(), 5);
+        assertEquals(results.getJSONObject(0).getLong("id"), flow1Id);
+        assertEquals(results.getJSONObject(0).getInt("success"), 1);
+        assertTrue(results.getJSONObject(1).has("error"));
+        assertTrue(results.getJSONObject(2).has("error") && !results.getJSONObject(2).has("id"));
+        assertTrue(results.getJSONObject(3).has("error"));
+        assertEquals(results.getJSONObject(4).getInt("success"), 1);
+        assertEquals(1, nbiSystem.getRegistry().getNumberOfFlows());
+
+        // VMs of another tenant are not removed
+        response = sendPost(REMOVE_VMS_PATH, "{\"tenantId\": " + tenant2Id + ", \"cookie\": " + tenant2Cookie + ", \"vmIds\": [" + vm1Id + "," + vm2Id + "," + vm3Id + "]}");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        results = getResponseContent(response).getJSONArray("vms");
+        assertEquals(results.length(), 3);
+        assertTrue(results.getJSONObject(0).has("error"));
+        assertEquals(results.getJSONObject(1).getInt("success"), 1);
+        assertEquals(results.getJSONObject(2).getInt("success"), 1);
+        assertEquals(1, nbiSystem.getRegistry().getNumberOfVMs());
+        assertEquals(0, nbiSystem.getRegistry().getNumberOfFlows());
+    }
+
+    @Test
+    public void testListings() throws IOException {
+        JSONObject tenantJson = getResponseContent(sendPost(NEW_TENANT_PATH, "{\"name\": tenant}"));
+        JSONObject otherJson = getResponseContent(sendPost(NEW_TENANT_PATH, "{\"name\": other}"));
+        long tenantId = tenantJson.getLong("id");
+        long tenantCookie = tenantJson.getLong("cookie");
+        long otherCookie = otherJson.getLong("cookie");
+        String tenantPath = TENANTS_PATH + "/" + tenantId;
+
+        long[] vmIds = new long[5];
+        for(int i = 0; i < vmIds.length; i++)
+            vmIds[i] = getResponseContent(sendPost(NEW_VM_PATH, "{\"name\": vm" + i + ", \"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "}")).getLong("id");
+        JSONArray flows = getResponseContent(sendPost(NEW_FLOWS_PATH, "{\"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + ", \"flows\": [" +
+                batchFlow(vmIds[0], vmIds[1], 41) + "," + batchFlow(vmIds[1], vmIds[2], 41) + "," + batchFlow(vmIds[2], vmIds[0], 41) + "]}")).getJSONArray("flows");
+
+        // Invalid requests
+        assertEquals(sendGet(tenantPath).getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(tenantPath + "?cookie=ok").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(tenantPath + "?cookie=" + otherCookie).getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(TENANTS_PATH + "/ok?cookie=" + tenantCookie).getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(tenantPath + "/vms?cookie=" + tenantCookie + "&limit=0").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendGet(tenantPath + "/vms?cookie=" + tenantCookie + "&after=ok").getStatusLine().getStatusCode(), 400);
+
+        HttpResponse response = sendGet(tenantPath + "?cookie=" + tenantCookie);
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        JSONObject tenant = getResponseContent(response);
+        assertEquals(tenant.getLong("id"), tenantId);
+        assertEquals(tenant.getInt("vms"), 5);
+        assertEquals(tenant.getInt("flows"), 3);
+
+        // VMs page by page, in the order of their IDs
+        response = sendGet(tenantPath + "/vms?cookie=" + tenantCookie + "&limit=2");
+        assertEquals(response.getStatusLine().getStatusCode(), 200);
+        JSONObject page = getResponseContent(response);
+        assertEquals(page.getJSONArray("vms").length(), 2);
+        assertEquals(page.getJSONArray("vms").getJSONObject(0).getLong("id"), vmIds[0]);
+        assertEquals(page.getLong("next"), vmIds[1]);
+        page = getResponseContent(sendGet(tenantPath + "/vms?cookie=" + tenantCookie + "&limit=2&after=" + page.getLong("next")));
+        assertEquals(page.getJSONArray("vms").getJSONObject(0).getLong("id"), vmIds[2]);
+        page = getResponseContent(sendGet(tenantPath + "/vms?cookie=" + tenantCookie + "&limit=2&after=" + page.getLong("next")));
+        assertEquals(page.getJSONArray("vms").length(), 1);
+        assertEquals(page.getJSONArray("vms").getJSONObject(0).getLong("id"), vmIds[4]);
+        assertFalse(page.has("next"));
+
+        // Flows with their VMs
+        page = getResponseContent(sendGet(tenantPath + "/flows?cookie=" + tenantCookie));
+        assertEquals(page.getJSONArray("flows").length(), 3);
+        assertFalse(page.has("next"));
+        JSONObject flow = page.getJSONArray("flows").getJSONObject(1);
+        assertEquals(flow.getLong("id"), flows.getJSONObject(1).getLong("id"));
+        assertEquals(flow.getLong("source"), vmIds[1]);
+        assertEquals(flow.getLong("destination"), vmIds[2]);
+
+        // Removed resources are not listed anymore
+        assertEquals(sendPost(REMOVE_VM_PATH, "{\"vmId\": " + vmIds[0] + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 200);
+        page = getResponseContent(sendGet(tenantPath + "/flows?cookie=" + tenantCookie));
+        assertEquals(page.getJSONArray("flows").length(), 1);
+        assertEquals(page.getJSONArray("flows").getJSONObject(0).getLong("id"), flows.getJSONObject(1).getLong("id"));
+    }
+
+    @Test
+    public void testRequestIds() throws IOException {
+        // Tenants do not take request IDs: their responses carry their cookies
+        assertEquals(sendPost(NEW_TENANT_PATH, "{\"name\": tenant, \"requestId\": \"t1\"}").getStatusLine().getStatusCode(), 400);
+        assertEquals(0, nbiSystem.getRegistry().getNumberOfTenants());
+        JSONObject tenantJson = getResponseContent(sendPost(NEW_TENANT_PATH, "{\"name\": tenant}"));
+        long tenantId = tenantJson.getLong("id");
+        long cookie = tenantJson.getLong("cookie");
+
+        // Retried creations get the response to the first request
+        String vmRequest = "{\"name\": vm, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": \"v1\"}";
+        long vmId = getResponseContent(sendPost(NEW_VM_PATH, vmRequest)).getLong("id");
+        assertEquals(vmId, getResponseContent(sendPost(NEW_VM_PATH, vmRequest)).getLong("id"));
+        assertEquals(1, nbiSystem.getRegistry().getNumberOfVMs());
+        // Same ID for another request
+        assertEquals(sendPost(NEW_VM_PATH, "{\"name\": other, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": \"v1\"}").getStatusLine().getStatusCode(), 400);
+        // Invalid IDs
+        assertEquals(sendPost(NEW_VM_PATH, "{\"name\": other, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": 4}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_VM_PATH, "{\"name\": other, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": \"\"}").getStatusLine().getStatusCode(), 400);
+        // Wrong cookie: not answered from the cache
+        assertEquals(sendPost(NEW_VM_PATH, "{\"name\": vm, \"tenantId\": " + tenantId + ", \"cookie\": " + (cookie + 1) + ", \"requestId\": \"v1\"}").getStatusLine().getStatusCode(), 400);
+        long otherVMId = getResponseContent(sendPost(NEW_VM_PATH, "{\"name\": other, \"tenantId\": " + tenantId + ", \"cookie\": " + cookie + "}")).getLong("id");
+
+        String flowRequest = "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": \"f1\"," + batchFlow(vmId, otherVMId, 41).substring(1);
+        long flowId = getResponseContent(sendPost(NEW_FLOW_PATH, flowRequest)).getLong("id");
+        assertEquals(flowId, getResponseContent(sendPost(NEW_FLOW_PATH, flowRequest)).getLong("id"));
+        assertEquals(1, nbiSystem.getRegistry().getNumberOfFlows());
+
+        // Asynchronous creations: retries get the job while it runs, and then the flow, whose job might be gone
+        String asyncRequest = "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": \"f3\"," + batchFlow(vmId, otherVMId, 42).substring(1);
+        long jobId = getResponseContent(sendPost(NEW_FLOW_PATH + "?async=true", asyncRequest)).getLong("job");
+        JSONObject job = getResponseContent(sendGet(JOBS_PATH + "/" + jobId + "?cookie=" + cookie + "&wait=10000"));
+        assertEquals(job.get("status"), "done");
+        assertEquals(job.getLong("id"), getResponseContent(sendPost(NEW_FLOW_PATH + "?async=true", asyncRequest)).getLong("id"));
+        assertEquals(2, nbiSystem.getRegistry().getNumberOfFlows());
+
+        // Rejected requests are not remembered
+        String failingRequest = "{\"tenantId\": " + tenantId + ", \"cookie\": " + cookie + ", \"requestId\": \"f2\"," + batchFlow(vmId, vmId + 100, 41).substring(1);
+        assertEquals(sendPost(NEW_FLOW_PATH, failingRequest).getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_FLOW_PATH, failingRequest).getStatusLine().getStatusCode(), 400);
+        assertTrue(nbiSystem.getMetrics().scrape().contains("nbi_repeated_requests_total 3\n"));
+    }
+
+    @Test
+    public void testCascadingRemovals() throws IOException {
+        ResourceRegistry registry = nbiSystem.getRegistry();
+        for(int cycle = 0; cycle < 30; cycle++) {
+            // A tenant with 3 VMs and flows between them
+            HttpResponse tenantResponse = sendPost(NEW_TENANT_PATH, "{\"name\": churn}");
+            assertEquals(tenantResponse.getStatusLine().getStatusCode(), 200);
+            JSONObject tenantJson = getResponseContent(tenantResponse);
+            long tenantId = tenantJson.getLong("id");
+            long tenantCookie = tenantJson.getLong("cookie");
+            long[] vmIds = new long[3];
+            for(int i = 0; i < vmIds.length; i++) {
+                HttpResponse vmResponse = sendPost(NEW_VM_PATH, "{\"name\": vm" + i + ", \"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "}");
+                assertEquals(vmResponse.getStatusLine().getStatusCode(), 200);
+                vmIds[i] = getResponseContent(vmResponse).getLong("id");
+            }
+            long[] flowIds = new long[3];
+            for(int i = 0; i < flowIds.length; i++) {
+                HttpResponse flowResponse = sendPost(NEW_FLOW_PATH, "{\"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "," +
+                        batchFlow(vmIds[i], vmIds[(i + 1) % vmIds.length], 100 + i).substring(1));
+                assertEquals(flowResponse.getStatusLine().getStatusCode(), 200);
+                flowIds[i] = getResponseContent(flowResponse).getLong("id");
+            }
+            assertEquals(3, registry.getNumberOfVMs());
+            assertEquals(3, registry.getNumberOfFlows());
+
+            // Removing a VM removes the flows from and to it
+            assertEquals(sendPost(REMOVE_VM_PATH, "{\"vmId\": " + vmIds[1] + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 200);
+            assertEquals(2, registry.getNumberOfVMs());
+            assertEquals(1, registry.getNumberOfFlows());
+            assertEquals(sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowIds[0] + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 400);
+            assertEquals(sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowIds[1] + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 400);
+
+            // Removing the tenant removes everything else
+            assertEquals(sendPost(REMOVE_TENANT_PATH, "{\"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 200);
+            assertEquals(sendPost(REMOVE_VM_PATH, "{\"vmId\": " + vmIds[0] + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 400);
+            assertEquals(sendPost(REMOVE_FLOW_PATH, "{\"flowId\": " + flowIds[2] + ", \"cookie\": " + tenantCookie + "}").getStatusLine().getStatusCode(), 400);
+
+            // Nothing is left behind, whatever the number of cycles
+            assertEquals(0, registry.getNumberOfTenants());
+            assertEquals(0, registry.getNumberOfVMs());
+            assertEquals(0, registry.getNumberOfFlows());
+            assertEquals(0, registry.getNumberOfIndexEntries());
+        }
+    }
+
+    @Test
+    public void testClient() throws Exception {
+        for(NBIClient.Protocol protocol : NBIClient.Protocol.values()) {
+            // A single connection, shared by all the requests
+            try(NBIClient client = new NBIClient("localhost", NBI_PORT, protocol, 1, 10000)) {
+                List<CompletableFuture<NBIClient.Reply>> replies = new ArrayList<>();
+                for(int i = 0; i < 20; i++)
+                    replies.add(client.post(NEW_TENANT_PATH, ("{\"name\": \"" + protocol + i + "\"}").getBytes(StandardCharsets.UTF_8)));
+                for(CompletableFuture<NBIClient.Reply> reply : replies) {
+                    assertEquals(200, reply.get().getStatus());
+                    assertTrue(new JSONObject(reply.get().getBodyAsString()).has("cookie"));
+                }
+
+                NBIClient.Reply error = client.call(NEW_TENANT_PATH, "{\"name\": 4}".getBytes(StandardCharsets.UTF_8));
+                assertEquals(400, error.getStatus());
+                assertFalse(error.isOk());
+                assertEquals(-1, error.getRetryAfterSeconds());
+            }
+        }
+        assertEquals(40, nbiSystem.getRegistry().getNumberOfTenants());
+    }
+
+    @Test
+    public void testIndependentInstances() throws IOException {
+        // A second NBI for the same tenant manager, in the same JVM
+        NBISystem otherNBISystem = new NBISystem(tenantManagerSystem, controller, OTHER_NBI_PORT);
+        try {
+            assertEquals(OTHER_NBI_PORT, otherNBISystem.getPort());
+
+            HttpResponse response = sendPost(NEW_TENANT_PATH, "{\"name\": first}");
+            assertEquals(response.getStatusLine().getStatusCode(), 200);
+            JSONObject first = getResponseContent(response);
+            response = sendPost(OTHER_NBI_PORT, NEW_TENANT_PATH, "{\"name\": second}");
+            assertEquals(response.getStatusLine().getStatusCode(), 200);
+            JSONObject second = getResponseContent(response);
+
+            // Each NBI only knows its own tenants
+            assertEquals(sendPost(NEW_VM_PATH, "{\"name\": vm, \"tenantId\": " + first.getLong("id") + ", \"cookie\": " + first.getLong("cookie") + "}").getStatusLine().getStatusCode(), 200);
+            assertEquals(sendPost(OTHER_NBI_PORT, NEW_VM_PATH, "{\"name\": vm, \"tenantId\": " + first.getLong("id") + ", \"cookie\": " + first.getLong("cookie") + "}").getStatusLine().getStatusCode(), 400);
+            assertEquals(sendPost(OTHER_NBI_PORT, NEW_VM_PATH, "{\"name\": vm, \"tenantId\": " + second.getLong("id") + ", \"cookie\": " + second.getLong("cookie") + "}").getStatusLine().getStatusCode(), 200);
+            assertEquals(1, nbiSystem.getRegistry().getNumberOfTenants());
+            assertEquals(1, otherNBISystem.getRegistry().getNumberOfTenants());
+        }
+        finally {
+            otherNBISystem.stop();
+        }
+
+        // Stopping one NBI does not affect the other
+        assertEquals(sendPost(NEW_TENANT_PATH, "{\"name\": third}").getStatusLine().getStatusCode(), 200);
+    }
+
+    @Test
+    public void testConfiguration() throws IOException {
+        NBISystem configuredNBISystem = new NBISystem(tenantManagerSystem, controller, new NBIConfiguration()
+                .setPort(0)
+                .setMinThreads(4)
+                .setMaxThreads(16)
+                .setMaxQueuedRequests(16)
+                .setAcceptQueueSize(64)
+                .setMaxConnections(64)
+                .setMaxInFlightRequests(4));
+        try {
+            // Any free port
+            int port = configuredNBISystem.getPort();
+            assertTrue(port > 0);
+            for(int i = 0; i < 10; i++)
+                assertEquals(sendPost(port, NEW_TENANT_PATH, "{\"name\": configured" + i + "}").getStatusLine().getStatusCode(), 200);
+            assertEquals(10, configuredNBISystem.getRegistry().getNumberOfTenants());
+        }
+        finally {
+            configuredNBISystem.stop();
+        }
+    }
+
+    @Test
+    public void testTenantRate() throws IOException {
+        NBISystem limitedNBISystem = new NBISystem(tenantManagerSystem, controller, new NBIConfiguration()
+                .setPort(0)
+                .setTenantRate(0.01)
+                .setTenantBurst(2));
+        try {
+            int port = limitedNBISystem.getPort();
+            JSONObject greedy = getResponseContent(sendPost(port, NEW_TENANT_PATH, "{\"name\": greedy}"));
+            JSONObject polite = getResponseContent(sendPost(port, NEW_TENANT_PATH, "{\"name\": polite}"));
+            String greedyVM = "{\"name\": vm, \"tenantId\": " + greedy.getLong("id") + ", \"cookie\": " + greedy.getLong("cookie") + "}";
+            String politeVM = "{\"name\": vm, \"tenantId\": " + polite.getLong("id") + ", \"cookie\": " + polite.getLong("cookie") + "}";
+
+            // The burst goes through, further requests are rejected until the bucket refills
+            // Retries answered from the cache do not count
+            String retriedVM = "{\"name\": vm, \"tenantId\": " + greedy.getLong("id") + ", \"cookie\": " + greedy.getLong("cookie") + ", \"requestId\": \"v1\"}";
+            long vmId = getResponseContent(sendPost(port, NEW_VM_PATH, retriedVM)).getLong("id");
+            for(int i = 0; i < 3; i++)
+                assertEquals(vmId, getResponseContent(sendPost(port, NEW_VM_PATH, retriedVM)).getLong("id"));
+            assertEquals(sendPost(port, NEW_VM_PATH, greedyVM).getStatusLine().getStatusCode(), 200);
+            HttpResponse response = sendPost(port, NEW_VM_PATH, greedyVM);
+            assertEquals(response.getStatusLine().getStatusCode(), 429);
+            assertTrue(Integer.parseInt(response.getFirstHeader("Retry-After").getValue()) > 0);
+            assertEquals(2, limitedNBISystem.getRegistry().getNumberOfVMs(greedy.getLong("id")));
+
+            // Other tenants are not affected
+            assertEquals(sendPost(port, NEW_VM_PATH, politeVM).getStatusLine().getStatusCode(), 200);
+        }
+        finally {
+            limitedNBISystem.stop();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        HttpResponse tenantResponse = sendPost(NEW_TENANT_PATH, "{\"name\": metered}");
+        assertEquals(tenantResponse.getStatusLine().getStatusCode(), 200);
+        long tenantId = getResponseContent(tenantResponse).getLong("id");
+        assertEquals(sendPost(NEW_TENANT_PATH, "shit").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_TENANT_PATH, "{}").getStatusLine().getStatusCode(), 400);
+        assertEquals(sendPost(NEW_VM_PATH, "{\"name\": vm, \"tenantId\": " + tenantId + ", \"cookie\": 1}").getStatusLine().getStatusCode(), 400);
+
+        HttpResponse metricsResponse = sendGet("/metrics");
+        assertEquals(metricsResponse.getStatusLine().getStatusCode(), 200);
+        String metrics = EntityUtils.toString(metricsResponse.getEntity());
+        assertTrue(metrics.contains("nbi_requests_total{route=\"newTenant\"} 3\n"));
+        assertTrue(metrics.contains("nbi_request_errors_total{route=\"newTenant\",reason=\"invalid_json\"} 1\n"));
+        assertTrue(metrics.contains("nbi_request_errors_total{route=\"newTenant\",reason=\"missing_key\"} 1\n"));
+        assertTrue(metrics.contains("nbi_request_errors_total{route=\"newVM\",reason=\"invalid_cookie\"} 1\n"));
+        assertTrue(metrics.contains("nbi_request_duration_seconds_count{route=\"newTenant\"} 3\n"));
+        assertTrue(metrics.contains("nbi_parse_duration_seconds_count{route=\"newVM\"} 1\n"));
+        assertTrue(metrics.contains("nbi_tenant_manager_duration_seconds_count{operation=\"createTenant\"} 1\n"));
+        assertTrue(metrics.contains("nbi_tenants 1\n"));
+    }
+
+    @Test
+    public void testErrorMessages() throws IOException {
+        JSONObject tenant = getResponseContent(sendPost(NEW_TENANT_PATH, "{\"name\": messages}"));
+        long tenantId = tenant.getLong("id");
+        long tenantCookie = tenant.getLong("cookie");
+        String vm = "{\"name\": vm, \"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + "}";
+        long source = getResponseContent(sendPost(NEW_VM_PATH, vm.replace("vm,", "vm1,"))).getLong("id");
+        long destination = getResponseContent(sendPost(NEW_VM_PATH, vm.replace("vm,", "vm2,"))).getLong("id");
+        String flow = "{\"name\": flow, \"tenantId\": " + tenantId + ", \"cookie\": " + tenantCookie + ", " +
+                "\"srcIp\": \"10.152.1.1\", \"dstIp\": \"10.152.2.1\", \"srcPort\": 1, \"dstPort\": 2, \"protocol\": 17, " +
+                "\"source\": " + source + ", \"destination\": " + destination + ", \"rate\": 1000, \"burst\": 100, \"latency\": 100}";
+
+        // Same messages as when the bodies were decoded with org.json
+        assertEquals("This is not a valid JSON format", getErrorMessage(sendPost(NEW_TENANT_PATH, "shit")));
+        assertEquals("A key is missing: org.json.JSONException: JSONObject[\"name\"] not found.", getErrorMessage(sendPost(NEW_TENANT_PATH, "{\"id\": 4}")));
+        assertEquals("A key is missing: org.json.JSONException: JSONObject[\"cookie\"] not found.", getErrorMessage(sendPost(NEW_VM_PATH, "{\"name\": ok, \"tenantId\": 4}")));
+        assertEquals("Name should be a string", getErrorMessage(sendPost(NEW_VM_PATH, "{\"name\": 1, \"tenantId\": ok, \"cookie\": 4}")));
+        assertEquals("Rate should be a number", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"latency\": 100", "\"latency\": fast"))));
+        assertEquals("Burst should be an int/long", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"burst\": 100", "\"burst\": 1.5"))));
+
+        // The tenant ID and the cookie are checked before the flow, the existence of the tenant after its fields
+        assertEquals("Tenant ID should be an integer", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"tenantId\": " + tenantId, "\"tenantId\": ok").replace("\"srcPort\": 1", "\"srcPort\": ok"))));
+        assertEquals("Cookie should be an integer", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"cookie\": " + tenantCookie, "\"cookie\": ok").replace("\"srcPort\": 1", "\"srcPort\": ok"))));
+        assertEquals("Source port should be an integer", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"cookie\": " + tenantCookie, "\"cookie\": 1").replace("\"srcPort\": 1", "\"srcPort\": ok"))));
+        assertEquals("Invalid cookie", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"cookie\": " + tenantCookie, "\"cookie\": 1"))));
+        assertEquals("Invalid source VM ID", getErrorMessage(sendPost(NEW_FLOW_PATH, flow.replace("\"source\": " + source, "\"source\": " + (source + destination)))));
+    }
+
     // Helper to send a POST request
     private HttpResponse sendPost(String path, String jsonString) throws IOException {
+        return sendPost(NBI_PORT, path, jsonString);
+    }
+
+    private HttpResponse sendPost(int port, String path, String jsonString) throws IOException {
         HttpClient client = HttpClientBuilder.create().build();
-        HttpPost post = new HttpPost("http://localhost:" + NBI_PORT + "/" + path);
+        HttpPost post = new HttpPost("http://localhost:" + port + "/" + path);
         StringEntity input = new StringEntity(jsonString);
         post.setEntity(input);
         return client.execute(post);
     }
 
+    // Helper to send a GET request
+    private HttpResponse sendGet(String path) throws IOException {
+        HttpClient client = HttpClientBuilder.create().build();
+        return client.execute(new HttpGet("http://localhost:" + NBI_PORT + path));
+    }
+
+    // Helper to get the error message of a rejected request
+    private String getErrorMessage(HttpResponse response) throws IOException {
+        assertEquals(response.getStatusLine().getStatusCode(), 400);
+        return EntityUtils.toString(response.getEntity());
+    }
+
     // Helper to get the JSON Object of a POST request
     private JSONObject getResponseContent(HttpResponse response) throws IOException {
         BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
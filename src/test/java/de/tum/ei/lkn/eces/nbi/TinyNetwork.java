@@ -0,0 +1,121 @@
+package de.tum.ei.lkn.eces.nbi;
+
+import de.tum.ei.lkn.eces.core.Controller;
+import de.tum.ei.lkn.eces.dnm.DNMSystem;
+import de.tum.ei.lkn.eces.dnm.ResidualMode;
+import de.tum.ei.lkn.eces.dnm.config.ACModel;
+import de.tum.ei.lkn.eces.dnm.config.BurstIncreaseModel;
+import de.tum.ei.lkn.eces.dnm.config.DetServConfig;
+import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.Division;
+import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.LowerLimit;
+import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.Summation;
+import de.tum.ei.lkn.eces.dnm.config.costmodels.functions.UpperLimit;
+import de.tum.ei.lkn.eces.dnm.config.costmodels.values.Constant;
+import de.tum.ei.lkn.eces.dnm.config.costmodels.values.QueuePriority;
+import de.tum.ei.lkn.eces.dnm.mappers.DetServConfigMapper;
+import de.tum.ei.lkn.eces.dnm.proxies.DetServProxy;
+import de.tum.ei.lkn.eces.dnm.resourcemanagement.resourceallocation.MHM.MHMRateRatiosAllocation;
+import de.tum.ei.lkn.eces.graph.GraphSystem;
+import de.tum.ei.lkn.eces.network.Host;
+import de.tum.ei.lkn.eces.network.Network;
+import de.tum.ei.lkn.eces.network.NetworkNode;
+import de.tum.ei.lkn.eces.network.NetworkingSystem;
+import de.tum.ei.lkn.eces.network.util.NetworkInterface;
+import de.tum.ei.lkn.eces.routing.RoutingSystem;
+import de.tum.ei.lkn.eces.routing.algorithms.RoutingAlgorithm;
+import de.tum.ei.lkn.eces.routing.algorithms.csp.unicast.cbf.CBFAlgorithm;
+import de.tum.ei.lkn.eces.routing.pathlist.PathListSystem;
+import de.tum.ei.lkn.eces.tenantmanager.TenantManagerSystem;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Two-host network (lundi and mardi) with its tenant manager, shared by the
+ * tests and by the end-to-end benchmarks.
+ *
+ * @author Amaury Van Bemten
+ */
+public final class TinyNetwork {
+    private TinyNetwork() {
+    }
+
+    /**
+     * Configures the logging, the libraries only logging errors.
+     *
+     * @param level Level of the root logger.
+     */
+    public static void configureLogging(Level level) {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(level);
+        Logger.getLogger("de.tum.ei.lkn.eces.dnm").setLevel(Level.ERROR);
+        Logger.getLogger("de.tum.ei.lkn.eces.graph").setLevel(Level.ERROR);
+        Logger.getLogger("de.tum.ei.lkn.eces.network").setLevel(Level.ERROR);
+        Logger.getLogger("org.eclipse.jetty").setLevel(Level.ERROR);
+    }
+
+    /**
+     * Creates a tiny network and its tenant manager.
+     *
+     * @param controller Controller of the systems.
+     * @return The tenant manager of the network.
+     */
+    public static TenantManagerSystem createTenantManager(Controller controller) {
+        GraphSystem graphSystem = new GraphSystem(controller);
+        NetworkingSystem networkingSystem = new NetworkingSystem(controller, graphSystem);
+
+        DetServConfig modelConfig = new DetServConfig(
+                ACModel.MHM,
+                ResidualMode.LEAST_LATENCY,
+                BurstIncreaseModel.NO,
+                false,
+                new LowerLimit(new UpperLimit(
+                        new Division(new Constant(), new Summation(new Constant(), new QueuePriority())),
+                        1), 0),
+                (controller1, scheduler) -> new MHMRateRatiosAllocation(controller1, new double[]{1.0 / 4, 1.0 / 5, 1.0 / 6, 1.0 / 8}));
+
+        // DNC
+        new DNMSystem(controller);
+        DetServProxy proxy = new DetServProxy(controller);
+
+        // Routing
+        new RoutingSystem(controller);
+        RoutingAlgorithm cbf = new CBFAlgorithm(controller);
+        cbf.setProxy(proxy);
+        modelConfig.initCostModel(controller);
+
+        // Path list system
+        new PathListSystem(controller);
+
+        // Create network
+        Network network = networkingSystem.createNetwork();
+        DetServConfigMapper modelingConfigMapper = new DetServConfigMapper(controller);
+        modelingConfigMapper.attachComponent(network.getQueueGraph(), modelConfig);
+
+        Host lundi = networkingSystem.createHost(network, "lundi");
+        Host mardi = networkingSystem.createHost(network, "mardi");
+        NetworkNode lundiNode = networkingSystem.addInterface(lundi, new NetworkInterface("1", "00:00:00:00:00:00"));
+        NetworkNode mardiNode = networkingSystem.addInterface(mardi, new NetworkInterface("2", "00:00:00:00:00:00"));
+
+        NetworkNode node = networkingSystem.createNode(network);
+        networkingSystem.createLinkWithPriorityScheduling(lundiNode, node, 1e9 / 8, 0, new double[]{30000});
+        networkingSystem.createLinkWithPriorityScheduling(node, lundiNode, 1e9 / 8, 0, new double[]{30000});
+        networkingSystem.createLinkWithPriorityScheduling(mardiNode, node, 1e9 / 8, 0, new double[]{30000});
+        networkingSystem.createLinkWithPriorityScheduling(node, mardiNode, 1e9 / 8, 0, new double[]{30000});
+
+        return new TenantManagerSystem(network, cbf, controller);
+    }
+
+    /**
+     * Starts an NBI over a new tiny network. Logging is limited to errors so
+     * that it does not dominate the measurements.
+     *
+     * @param port Port of the NBI.
+     * @return The NBI.
+     */
+    public static NBISystem startNBI(int port) {
+        configureLogging(Level.ERROR);
+        Controller controller = new Controller();
+        return new NBISystem(createTenantManager(controller), controller, port);
+    }
+}
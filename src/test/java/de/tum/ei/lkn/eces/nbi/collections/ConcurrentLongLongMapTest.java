@@ -0,0 +1,99 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLongLongMapTest {
+    @Test
+    public void testBasicOperations() {
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+        assertEquals(-1, map.get(0, -1));
+        map.put(0, 10);
+        map.put(-5, 20);
+        map.put(Long.MAX_VALUE, 30);
+        assertEquals(10, map.get(0, -1));
+        assertEquals(20, map.get(-5, -1));
+        assertEquals(30, map.get(Long.MAX_VALUE, -1));
+        assertEquals(3, map.size());
+
+        map.put(0, 11);
+        assertEquals(11, map.get(0, -1));
+        assertEquals(3, map.size());
+
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertEquals(-1, map.get(0, -1));
+        assertEquals(2, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedKey() {
+        new ConcurrentLongLongMap().put(Long.MIN_VALUE, 1);
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        // Small key space: many collisions, resizes and backward shifts
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+        Map<Long, Long> reference = new HashMap<>();
+        Random random = new Random(42);
+        for(int i = 0; i < 200000; i++) {
+            long key = random.nextInt(2000);
+            if(random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key) != null, map.remove(key));
+            }
+            else {
+                long value = random.nextLong();
+                reference.put(key, value);
+                map.put(key, value);
+            }
+        }
+
+        assertEquals(reference.size(), map.size());
+        for(long key = 0; key < 2000; key++)
+            assertEquals((long) reference.getOrDefault(key, 0L), map.get(key, 0));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        // Stable keys must always be found while other keys are added and removed
+        ConcurrentLongLongMap map = new ConcurrentLongLongMap();
+        for(long key = 0; key < 1000; key++)
+            map.put(key, key * 7);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for(int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while(!stop.get()) {
+                    for(long key = 0; key < 1000; key++) {
+                        if(map.get(key, -1) != key * 7)
+                            errors.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        for(int round = 0; round < 50; round++) {
+            for(long key = 1000; key < 5000; key++)
+                map.put(key, key);
+            for(long key = 1000; key < 5000; key++)
+                map.remove(key);
+        }
+        stop.set(true);
+        for(Thread reader : readers)
+            reader.join();
+
+        assertEquals(0, errors.get());
+        assertEquals(1000, map.size());
+    }
+}
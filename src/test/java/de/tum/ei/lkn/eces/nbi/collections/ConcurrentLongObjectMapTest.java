@@ -0,0 +1,108 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLongObjectMapTest {
+    @Test
+    public void testBasicOperations() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+        assertNull(map.get(0));
+        assertNull(map.put(0, "a"));
+        assertNull(map.put(Long.MIN_VALUE, "b"));
+        assertEquals("a", map.put(0, "c"));
+        assertEquals("c", map.putIfAbsent(0, "d"));
+        assertEquals("c", map.get(0));
+        assertEquals("b", map.get(Long.MIN_VALUE));
+        assertEquals(2, map.size());
+
+        assertFalse(map.remove(0, "a"));
+        assertTrue(map.remove(0, "c"));
+        assertNull(map.get(0));
+        assertEquals("b", map.remove(Long.MIN_VALUE));
+        assertNull(map.remove(Long.MIN_VALUE));
+        assertEquals(0, map.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        new ConcurrentLongObjectMap<String>().put(1, null);
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        // Small key space: many collisions, resizes and backward shifts
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+        Map<Long, Long> reference = new HashMap<>();
+        Random random = new Random(42);
+        for(int i = 0; i < 300000; i++) {
+            long key = random.nextInt(5000);
+            if(random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key), map.remove(key));
+            }
+            else {
+                long value = random.nextLong();
+                assertEquals(reference.put(key, value), map.put(key, value));
+            }
+        }
+
+        assertEquals(reference.size(), map.size());
+        for(long key = 0; key < 5000; key++)
+            assertEquals(reference.get(key), map.get(key));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        // Stable entries must always be found while writers add and remove other ones
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+        for(long key = 0; key < 1000; key++)
+            map.put(key, key);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for(int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while(!stop.get()) {
+                    for(long key = 0; key < 1000; key++) {
+                        Long value = map.get(key);
+                        if(value == null || value != key)
+                            errors.incrementAndGet();
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        Thread[] writers = new Thread[4];
+        for(int i = 0; i < writers.length; i++) {
+            long base = 1000 + i * 100000;
+            writers[i] = new Thread(() -> {
+                for(int round = 0; round < 20; round++) {
+                    for(long key = base; key < base + 5000; key++)
+                        map.put(key, key);
+                    for(long key = base; key < base + 5000; key++) {
+                        if(!map.remove(key, key))
+                            errors.incrementAndGet();
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        for(Thread writer : writers)
+            writer.join();
+        stop.set(true);
+        for(Thread reader : readers)
+            reader.join();
+
+        assertEquals(0, errors.get());
+        assertEquals(1000, map.size());
+    }
+}
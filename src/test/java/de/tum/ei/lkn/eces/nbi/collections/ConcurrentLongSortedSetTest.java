@@ -0,0 +1,120 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentLongSortedSetTest {
+    private static List<Long> toList(PrimitiveIterator.OfLong iterator) {
+        List<Long> values = new ArrayList<>();
+        while(iterator.hasNext())
+            values.add(iterator.nextLong());
+        return values;
+    }
+
+    @Test
+    public void testBasicOperations() {
+        ConcurrentLongSortedSet set = new ConcurrentLongSortedSet();
+        assertFalse(set.contains(0));
+        assertFalse(set.iterator().hasNext());
+        assertTrue(set.add(5));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.add(3));
+        assertFalse(set.add(5));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertEquals(Arrays.asList(Long.MIN_VALUE, 3L, 5L), toList(set.iterator()));
+        assertEquals(Arrays.asList(3L, 5L), toList(set.iterator(Long.MIN_VALUE)));
+        assertEquals(Arrays.asList(5L), toList(set.iterator(3)));
+        assertEquals(Arrays.asList(5L), toList(set.iterator(4)));
+
+        assertTrue(set.remove(3));
+        assertFalse(set.remove(3));
+        assertFalse(set.contains(3));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testPages() {
+        // Increasing values fill pages one after the other, then inserts in the middle split them
+        ConcurrentLongSortedSet set = new ConcurrentLongSortedSet();
+        int count = 10 * ConcurrentLongSortedSet.PAGE_SIZE;
+        for(long value = 0; value < count; value++)
+            set.add(2 * value);
+        for(long value = 0; value < count; value++)
+            set.add(2 * value + 1);
+        assertEquals(2 * count, set.size());
+
+        long expected = 0;
+        for(PrimitiveIterator.OfLong iterator = set.iterator(); iterator.hasNext(); expected++)
+            assertEquals(expected, iterator.nextLong());
+        assertEquals(2 * count, expected);
+
+        for(long value = 0; value < 2 * count; value++)
+            assertTrue(set.remove(value));
+        assertEquals(0, set.size());
+        assertFalse(set.iterator().hasNext());
+    }
+
+    @Test
+    public void testAgainstTreeSet() {
+        ConcurrentLongSortedSet set = new ConcurrentLongSortedSet();
+        TreeSet<Long> reference = new TreeSet<>();
+        Random random = new Random(42);
+        for(int i = 0; i < 200000; i++) {
+            long value = random.nextInt(3000);
+            if(random.nextInt(3) == 0)
+                assertEquals(reference.remove(value), set.remove(value));
+            else
+                assertEquals(reference.add(value), set.add(value));
+
+            if(i % 1000 == 0) {
+                long after = random.nextInt(3000);
+                assertEquals(new ArrayList<>(reference.tailSet(after, false)), toList(set.iterator(after)));
+            }
+        }
+
+        assertEquals(reference.size(), set.size());
+        assertEquals(new ArrayList<>(reference), toList(set.iterator()));
+    }
+
+    @Test
+    public void testIterationDuringUpdates() throws InterruptedException {
+        // Values iterated while others are added and removed stay increasing and include the untouched ones
+        ConcurrentLongSortedSet set = new ConcurrentLongSortedSet();
+        for(long value = 0; value < 10000; value += 2)
+            set.add(value);
+
+        Thread writer = new Thread(() -> {
+            Random random = new Random(7);
+            for(int i = 0; i < 200000; i++) {
+                long value = 2 * random.nextInt(5000) + 1;
+                if(random.nextBoolean())
+                    set.add(value);
+                else
+                    set.remove(value);
+            }
+        });
+        writer.start();
+        while(writer.isAlive()) {
+            long previous = -1;
+            long even = 0;
+            for(PrimitiveIterator.OfLong iterator = set.iterator(); iterator.hasNext(); ) {
+                long value = iterator.nextLong();
+                assertTrue(value > previous);
+                if(value % 2 == 0)
+                    assertEquals(2 * even++, value);
+                previous = value;
+            }
+            assertEquals(5000, even);
+        }
+        writer.join();
+    }
+}
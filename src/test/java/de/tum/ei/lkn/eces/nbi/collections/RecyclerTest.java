@@ -0,0 +1,46 @@
+package de.tum.ei.lkn.eces.nbi.collections;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RecyclerTest {
+    @Test
+    public void testReuse() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        Recycler<Object> recycler = Recycler.withInitial(() -> {
+            created.incrementAndGet();
+            return new Object();
+        });
+
+        // Same object for a thread until it releases it
+        Object first = recycler.get();
+        assertSame(first, recycler.get());
+        assertEquals(1, created.get());
+
+        // Released objects are taken by the next threads instead of creating new ones
+        Recycler.releaseAll();
+        assertEquals(1, recycler.getNumberOfIdleObjects());
+        AtomicReference<Object> other = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            other.set(recycler.get());
+            recycler.release();
+        });
+        thread.start();
+        thread.join();
+        assertSame(first, other.get());
+        assertEquals(1, created.get());
+        assertEquals(1, recycler.getNumberOfIdleObjects());
+
+        // Threads which do not release their objects keep them
+        thread = new Thread(recycler::get);
+        thread.start();
+        thread.join();
+        assertEquals(0, recycler.getNumberOfIdleObjects());
+        assertFalse(first == recycler.get());
+        assertEquals(2, created.get());
+    }
+}
@@ -0,0 +1,182 @@
+package de.tum.ei.lkn.eces.nbi.journal;
+
+import de.tum.ei.lkn.eces.nbi.requests.FlowSpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("nbi-journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            for(Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+        try(Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE)) {
+            assertEquals(0, journal.getRecoveredState().getLastId());
+            journal.createTenant(1, 42, "tenant");
+            journal.createVM(2, 1, "vm1");
+            journal.createVM(3, 1, "vm2");
+            journal.createFlow(4, 1, flow(2, 3));
+            journal.createFlow(5, 1, flow(3, 2));
+            journal.createFlow(6, 1, flow(2, 2));
+            journal.removeFlow(6);
+            // Removes flows 4 and 5 as well
+            journal.removeVM(3);
+            journal.sync();
+            assertTrue(journal.getFlushes() >= 1);
+        }
+
+        try(Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE)) {
+            JournalState state = journal.getRecoveredState();
+            assertEquals(6, state.getLastId());
+            assertEquals(1, state.getTenants().size());
+            assertEquals(42, state.getTenants().get(0).getCookie());
+            assertEquals("tenant", state.getTenants().get(0).getName());
+            assertEquals(1, state.getVMs().size());
+            assertEquals(2, state.getVMs().get(0).getId());
+            assertEquals("vm1", state.getVMs().get(0).getName());
+            assertEquals(0, state.getFlows().size());
+
+            journal.createFlow(7, 1, flow(2, 2));
+            journal.sync();
+        }
+
+        try(Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE)) {
+            JournalState state = journal.getRecoveredState();
+            assertEquals(1, state.getFlows().size());
+            FlowSpec spec = state.getFlows().get(0).getSpec();
+            assertEquals(7, state.getFlows().get(0).getId());
+            assertEquals("flow", spec.getName());
+            assertEquals(0x0a000001, spec.getSrcIp());
+            assertEquals(17, spec.getProtocol());
+            assertEquals(2, spec.getSource());
+            assertEquals(1000, spec.getRate());
+            assertEquals(0.01, spec.getLatency(), 0);
+
+            // Removes everything
+            journal.removeTenant(1);
+            journal.sync();
+        }
+
+        try(Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE)) {
+            JournalState state = journal.getRecoveredState();
+            assertEquals(7, state.getLastId());
+            assertEquals(0, state.getTenants().size());
+            assertEquals(0, state.getVMs().size());
+            assertEquals(0, state.getFlows().size());
+        }
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        try(Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE)) {
+            journal.createTenant(1, 42, "first");
+            journal.createTenant(2, 43, "second");
+            journal.sync();
+        }
+
+        // Damaging the last byte of the second record (the name of the tenant)
+        Path segment = files("journal-").get(0);
+        try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            channel.read(buffer, 0);
+            buffer.flip();
+            int second = 8 + buffer.getInt();
+            buffer.clear();
+            channel.read(buffer, second);
+            buffer.flip();
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), second + 8 + buffer.getInt() - 1);
+        }
+
+        try(Journal journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE)) {
+            JournalState state = journal.getRecoveredState();
+            assertEquals(1, state.getTenants().size());
+            assertEquals("first", state.getTenants().get(0).getName());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        try(Journal journal = new Journal(directory, 4096)) {
+            for(long id = 1; id <= 600; id += 3) {
+                journal.createTenant(id, id, "tenant" + id);
+                journal.createVM(id + 1, id, "vm");
+                journal.createFlow(id + 2, id, flow(id + 1, id + 1));
+                if(id % 2 == 0)
+                    journal.removeTenant(id);
+            }
+            journal.sync();
+        }
+
+        // Full segments were folded into a snapshot
+        assertEquals(1, files("snapshot-").size());
+        assertTrue(files("journal-").size() < 10);
+
+        try(Journal journal = new Journal(directory, 4096)) {
+            JournalState state = journal.getRecoveredState();
+            assertEquals(600, state.getLastId());
+            assertEquals(100, state.getTenants().size());
+            assertEquals(100, state.getVMs().size());
+            assertEquals(100, state.getFlows().size());
+            for(JournalState.FlowEntry flow : state.getFlows())
+                assertEquals(flow.getTenantId() + 1, flow.getSpec().getSource());
+        }
+    }
+
+    @Test
+    public void testFullSegments() throws Exception {
+        try(Journal journal = new Journal(directory, 4096)) {
+            // Without any sync, full segments are forced by the flusher rather than by the appends
+            for(long id = 1; id <= 300; id++)
+                journal.createTenant(id, id, "tenant" + id);
+            long deadline = System.currentTimeMillis() + 10000;
+            while(journal.getFlushes() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertTrue(journal.getFlushes() > 0);
+        }
+
+        try(Journal journal = new Journal(directory, 4096)) {
+            assertEquals(300, journal.getRecoveredState().getTenants().size());
+        }
+    }
+
+    private static FlowSpec flow(long source, long destination) {
+        return new FlowSpec("flow", 0x0a000001, 0x0a000002, 1000, 2000, 17, source, destination, 1000, 1500, 0.01);
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*.log")) {
+            for(Path file : stream)
+                files.add(file);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,193 @@
+package de.tum.ei.lkn.eces.nbi.json;
+
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import de.tum.ei.lkn.eces.nbi.requests.FlowSpec;
+import de.tum.ei.lkn.eces.nbi.requests.Ipv4;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class JsonReaderTest {
+    private static final String FLOW = "{\"tenantId\": 1, \"cookie\": 123456, \"name\": \"flow\", " +
+            "\"srcIp\": \"10.152.1.1\", \"dstIp\": \"10.152.2.1\", \"srcPort\": 1, \"dstPort\": 2, \"protocol\": 17, " +
+            "\"source\": 3, \"destination\": 4, \"rate\": 1000000, \"burst\": 1500, \"latency\": 10}";
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Reads the single value of an object {"a": <value>}
+    private static JsonReader value(String value) throws InvalidRequestException {
+        JsonReader reader = reader("{\"a\": " + value + "}");
+        reader.beginObject();
+        assertTrue(reader.nextField());
+        assertTrue(reader.keyEquals("a"));
+        return reader;
+    }
+
+    private static JsonFields fields(String json, String... names) throws InvalidRequestException {
+        JsonFields fields = new JsonFields(names);
+        fields.read(json.getBytes(StandardCharsets.UTF_8));
+        return fields;
+    }
+
+    @Test
+    public void testNumbers() throws InvalidRequestException {
+        JsonReader reader = value("42");
+        assertEquals(JsonReader.Kind.INTEGER, reader.readValue());
+        assertEquals(42, reader.longValue());
+
+        reader = value("-9223372036854775808");
+        assertEquals(JsonReader.Kind.INTEGER, reader.readValue());
+        assertEquals(Long.MIN_VALUE, reader.longValue());
+
+        reader = value("1.5e3");
+        assertEquals(JsonReader.Kind.DECIMAL, reader.readValue());
+        assertEquals(1500, reader.doubleValue(), 0);
+
+        reader = value("-0");
+        assertEquals(JsonReader.Kind.DECIMAL, reader.readValue());
+
+        // Like org.json, numbers it cannot represent as such are strings
+        assertEquals(JsonReader.Kind.STRING, value("9223372036854775808").readValue());
+        assertEquals(JsonReader.Kind.STRING, value("007").readValue());
+        assertEquals(JsonReader.Kind.STRING, value("10.152.1.1").readValue());
+    }
+
+    @Test
+    public void testLenientValues() throws InvalidRequestException {
+        JsonReader reader = value("some name ");
+        assertEquals(JsonReader.Kind.STRING, reader.readValue());
+        assertEquals("some name", reader.stringValue());
+
+        reader = value("'quoted'");
+        assertEquals(JsonReader.Kind.STRING, reader.readValue());
+        assertEquals("quoted", reader.stringValue());
+
+        reader = value("TRUE");
+        assertEquals(JsonReader.Kind.BOOLEAN, reader.readValue());
+        assertTrue(reader.booleanValue());
+
+        assertEquals(JsonReader.Kind.NULL, value("null").readValue());
+
+        reader = reader("{name: ok, }");
+        reader.beginObject();
+        assertTrue(reader.nextField());
+        assertTrue(reader.keyEquals("name"));
+        assertEquals(JsonReader.Kind.STRING, reader.readValue());
+        assertEquals("ok", reader.stringValue());
+        assertFalse(reader.nextField());
+    }
+
+    @Test
+    public void testEscapes() throws InvalidRequestException {
+        JsonReader reader = value("\"a\\\"b\\\\c\\n\\u00e9\\/d\"");
+        assertEquals(JsonReader.Kind.STRING, reader.readValue());
+        assertEquals("a\"b\\c\n\u00e9/d", reader.stringValue());
+
+        reader = value("\"\u00e9t\u00e9\"");
+        assertEquals(JsonReader.Kind.STRING, reader.readValue());
+        assertEquals("\u00e9t\u00e9", reader.stringValue());
+    }
+
+    @Test
+    public void testFields() throws InvalidRequestException {
+        JsonFields fields = fields("{\"unknown\": {\"nested\": [1, {\"x\": []}]}, \"cookie\": 5000000000, \"tenantId\": 12, \"flows\": [1, 2]}",
+                "tenantId", "cookie", "flows");
+        assertTrue(fields.isInt(0));
+        assertEquals(12, fields.getLong(0));
+        assertTrue(fields.isLong(1));
+        assertFalse(fields.isInt(1));
+        assertEquals(JsonReader.Kind.ARRAY, fields.getKind(2));
+
+        JsonReader reader = fields.enter(2);
+        reader.beginArray();
+        int sum = 0;
+        while(reader.nextElement()) {
+            assertEquals(JsonReader.Kind.INTEGER, reader.readValue());
+            sum += reader.longValue();
+        }
+        assertEquals(3, sum);
+    }
+
+    @Test
+    public void testMissingKey() {
+        try {
+            fields("{\"tenantId\": 1}", "tenantId", "cookie");
+            fail();
+        }
+        catch(InvalidRequestException e) {
+            assertEquals("A key is missing: org.json.JSONException: JSONObject[\"cookie\"] not found.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOptionalKey() throws InvalidRequestException {
+        JsonFields fields = new JsonFields(1, "tenantId", "requestId");
+        fields.read("{\"tenantId\": 1, \"requestId\": \"abc\"}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(fields.has(1));
+        assertEquals("abc", fields.getString(1));
+
+        // Fields of a previous read are forgotten
+        fields.read("{\"tenantId\": 1}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(fields.has(0));
+        assertFalse(fields.has(1));
+        assertFalse(fields.isString(1));
+
+        try {
+            fields.read("{\"requestId\": \"abc\"}".getBytes(StandardCharsets.UTF_8));
+            fail();
+        }
+        catch(InvalidRequestException e) {
+            assertEquals("A key is missing: org.json.JSONException: JSONObject[\"tenantId\"] not found.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] invalid = {"", "[]", "{", "{\"a\" 1}", "{\"a\": \"b}", "{\"a\": 1 \"b\": 2}", "{\"a\": }",
+                "{\"a\": \"\\x\"}", "{\"a\": [1, 2}", "{\"a\": 1, \"a\": 2}"};
+        for(String json : invalid) {
+            try {
+                fields(json, "a");
+                fail(json);
+            }
+            catch(InvalidRequestException e) {
+                assertEquals("This is not a valid JSON format", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testFlowSpec() throws Exception {
+        JsonFields fields = new JsonFields(FlowSpec.FIELDS);
+        fields.read(FLOW.getBytes(StandardCharsets.UTF_8));
+        FlowSpec spec = FlowSpec.fromFields(fields, 0);
+        assertEquals("flow", spec.getName());
+        assertEquals((int) Ipv4.parse("10.152.2.1"), spec.getDstIp());
+        assertEquals(17, spec.getProtocol());
+        assertEquals(1000000, spec.getRate());
+        assertEquals(10, spec.getLatency(), 0);
+
+        fields.read(FLOW.replace("\"10.152.1.1\"", "1").getBytes(StandardCharsets.UTF_8));
+        try {
+            FlowSpec.fromFields(fields, 0);
+            fail();
+        }
+        catch(InvalidRequestException e) {
+            assertEquals("Source IP should be a string representing an IP", e.getMessage());
+        }
+
+        // The latency is reported like the rate, as it always was
+        fields.read(FLOW.replace("\"latency\": 10", "\"latency\": \"10\"").getBytes(StandardCharsets.UTF_8));
+        try {
+            FlowSpec.fromFields(fields, 0);
+            fail();
+        }
+        catch(InvalidRequestException e) {
+            assertEquals("Rate should be a number", e.getMessage());
+        }
+    }
+}
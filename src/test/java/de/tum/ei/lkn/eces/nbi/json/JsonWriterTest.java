@@ -0,0 +1,77 @@
+package de.tum.ei.lkn.eces.nbi.json;
+
+import de.tum.ei.lkn.eces.nbi.exceptions.InvalidRequestException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class JsonWriterTest {
+    private static String string(JsonWriter writer) {
+        return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStructure() {
+        JsonWriter writer = JsonWriter.get()
+                .beginObject()
+                .field("id", 42)
+                .name("flows")
+                .beginArray()
+                .beginObject().field("id", -1).endObject()
+                .beginObject().field("error", "Invalid cookie").endObject()
+                .endArray()
+                .field("empty", (String) null)
+                .endObject();
+        assertEquals("{\"id\": 42, \"flows\": [{\"id\": -1}, {\"error\": \"Invalid cookie\"}], \"empty\": null}", string(writer));
+
+        // The writer of the thread is reused and starts empty
+        writer = JsonWriter.get().beginObject().field("success", 1).endObject();
+        assertEquals("{\"success\": 1}", string(writer));
+    }
+
+    @Test
+    public void testNumbers() {
+        long[] values = {0, 7, -7, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+        for(long value : values)
+            assertEquals(Long.toString(value), string(JsonWriter.get().value(value)));
+    }
+
+    @Test
+    public void testEscaping() throws InvalidRequestException {
+        String name = "a\"b\\c\nd\u0001e\u00e9\u20ac\ud83d\ude00 \u2028";
+        JsonWriter writer = JsonWriter.get().beginObject().field("name", name).endObject();
+        assertEquals("{\"name\": \"a\\\"b\\\\c\\nd\\u0001e\u00e9\u20ac\ud83d\ude00 \\u2028\"}", string(writer));
+
+        // Reading it back gives the original string
+        JsonFields fields = new JsonFields("name");
+        fields.read(writer.toByteArray());
+        assertEquals(name, fields.getString(0));
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonWriter writer = JsonWriter.get().beginObject().name("ids").beginArray().value(1);
+        writer.flushTo(output);
+        assertEquals(0, writer.size());
+        writer.value(2).endArray().field("next", 2).endObject();
+        writer.flushTo(output);
+        assertEquals("{\"ids\": [1, 2], \"next\": 2}", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGrowth() {
+        JsonWriter writer = JsonWriter.get().beginArray();
+        for(int i = 0; i < 10000; i++)
+            writer.value(i);
+        writer.endArray();
+        String result = string(writer);
+        assertTrue(result.startsWith("[0, 1, 2, "));
+        assertTrue(result.endsWith(", 9999]"));
+        assertEquals(result.length(), writer.size());
+    }
+}
@@ -0,0 +1,71 @@
+package de.tum.ei.lkn.eces.nbi.logging;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import spark.Request;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class AuditLogTest {
+    private AuditLog auditLog;
+
+    private static final Request REQUEST = new Request() {
+        @Override
+        public String pathInfo() {
+            return "/newTenant";
+        }
+
+        @Override
+        public byte[] bodyAsBytes() {
+            return "{\"name\": \"tenant\"}".getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        BasicConfigurator.configure();
+        Logger.getLogger(AuditLog.class).setLevel(Level.INFO);
+    }
+
+    @After
+    public void cleanUp() {
+        if(auditLog != null)
+            auditLog.close();
+    }
+
+    @Test
+    public void testSampling() {
+        auditLog = new AuditLog(100000, 0);
+        for(int i = 0; i < 1000; i++)
+            auditLog.record(REQUEST, 200, null, 1000);
+        assertEquals(0, auditLog.getEntries());
+        assertEquals(0, auditLog.getDropped());
+
+        auditLog.setSamplingRate(0.5);
+        for(int i = 0; i < 10000; i++)
+            auditLog.record(REQUEST, 200, null, 1000);
+        assertEquals(0, auditLog.getDropped());
+        assertTrue(auditLog.getEntries() > 4000 && auditLog.getEntries() < 6000);
+    }
+
+    @Test
+    public void testDrops() {
+        auditLog = new AuditLog(10, 1);
+        for(int i = 0; i < 10000; i++)
+            auditLog.record(REQUEST, 400, "Invalid cookie", 1000);
+        // Nothing is lost silently
+        assertEquals(10000, auditLog.getEntries() + auditLog.getDropped());
+        assertTrue(auditLog.getDropped() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSamplingRate() {
+        auditLog = new AuditLog(10, 1.5);
+    }
+}
@@ -0,0 +1,50 @@
+package de.tum.ei.lkn.eces.nbi.logging;
+
+import org.junit.Test;
+import spark.Request;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LogContextTest {
+    private static Request request(byte[] body, AtomicInteger reads) {
+        return new Request() {
+            @Override
+            public String pathInfo() {
+                return "/newFlows";
+            }
+
+            @Override
+            public byte[] bodyAsBytes() {
+                reads.incrementAndGet();
+                return body;
+            }
+        };
+    }
+
+    @Test
+    public void testContext() {
+        AtomicInteger reads = new AtomicInteger();
+        LogContext context = new LogContext(request("{\"a\":\n1}".getBytes(StandardCharsets.UTF_8), reads));
+        assertEquals("/newFlows: {\"a\": 1}: ", context.toString());
+        assertEquals("/newFlows: ", new LogContext(request(new byte[0], reads)).toString());
+    }
+
+    @Test
+    public void testLargeBody() {
+        // Truncated, and built once whatever the number of messages logged
+        byte[] body = new byte[100000];
+        Arrays.fill(body, (byte) 'x');
+        AtomicInteger reads = new AtomicInteger();
+        LogContext context = new LogContext(request(body, reads));
+        String line = context.toString();
+        assertTrue(line.length() < 2 * AuditLog.MAX_BODY_BYTES);
+        assertTrue(line.endsWith("... (100000 bytes): "));
+        for(int i = 0; i < 100; i++)
+            assertSame(line, context.toString());
+        assertEquals(1, reads.get());
+    }
+}
@@ -0,0 +1,63 @@
+package de.tum.ei.lkn.eces.nbi.metrics;
+
+import de.tum.ei.lkn.eces.tenantmanager.exceptions.TenantManagerException;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NBIMetricsTest {
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(1024);
+        histogram.record(1025);
+        histogram.record(3000);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(5, histogram.getCount());
+
+        StringBuilder out = new StringBuilder();
+        histogram.writeTo(out, "test", "route=\"r\"");
+        String text = out.toString();
+        // Up to 1024 ns
+        assertTrue(text.contains("test_bucket{route=\"r\",le=\"1.024E-6\"} 2\n"));
+        // Up to 2048 ns and 4096 ns (cumulative)
+        assertTrue(text.contains("test_bucket{route=\"r\",le=\"2.048E-6\"} 3\n"));
+        assertTrue(text.contains("test_bucket{route=\"r\",le=\"4.096E-6\"} 4\n"));
+        // Beyond the last bound
+        assertTrue(text.contains("test_bucket{route=\"r\",le=\"68.719476736\"} 4\n"));
+        assertTrue(text.contains("test_bucket{route=\"r\",le=\"+Inf\"} 5\n"));
+        assertTrue(text.contains("test_count{route=\"r\"} 5\n"));
+    }
+
+    @Test
+    public void testScrape() throws TenantManagerException {
+        NBIMetrics metrics = new NBIMetrics();
+        RouteMetrics route = metrics.route("newTenant");
+        AtomicLong tenants = new AtomicLong(3);
+        metrics.gauge("nbi_tenants", "Registered tenants.", tenants::get);
+
+        route.request(1000);
+        route.request(2000);
+        route.error(ErrorReason.INVALID_COOKIE);
+        route.parsing(500);
+        assertEquals("tenant", metrics.call(TenantManagerCall.CREATE_TENANT, () -> "tenant"));
+        assertEquals(1, metrics.getCalls(TenantManagerCall.CREATE_TENANT));
+        assertEquals(0, metrics.getCallErrors(TenantManagerCall.CREATE_TENANT));
+        tenants.set(4);
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE nbi_requests_total counter\n"));
+        assertTrue(text.contains("nbi_requests_total{route=\"newTenant\"} 2\n"));
+        assertTrue(text.contains("nbi_request_errors_total{route=\"newTenant\",reason=\"invalid_cookie\"} 1\n"));
+        assertTrue(text.contains("nbi_request_errors_total{route=\"newTenant\",reason=\"missing_key\"} 0\n"));
+        assertTrue(text.contains("nbi_request_duration_seconds_count{route=\"newTenant\"} 2\n"));
+        assertTrue(text.contains("nbi_request_duration_seconds_sum{route=\"newTenant\"} 3.0E-6\n"));
+        assertTrue(text.contains("nbi_parse_duration_seconds_count{route=\"newTenant\"} 1\n"));
+        assertTrue(text.contains("nbi_tenant_manager_duration_seconds_count{operation=\"createTenant\"} 1\n"));
+        assertTrue(text.contains("nbi_tenant_manager_duration_seconds_count{operation=\"deleteFlow\"} 0\n"));
+        assertTrue(text.contains("# TYPE nbi_tenants gauge\nnbi_tenants 4\n"));
+    }
+}
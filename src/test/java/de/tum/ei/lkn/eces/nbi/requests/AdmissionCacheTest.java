@@ -0,0 +1,41 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdmissionCacheTest {
+    private static FlowSpec flow(String name, long rate) {
+        return new FlowSpec(name, (int) Ipv4.parse("10.0.0.1"), (int) Ipv4.parse("10.0.0.2"), 1, 2, 17, 3, 4, rate, 1500, 10);
+    }
+
+    @Test
+    public void testRefusals() {
+        AdmissionCache cache = new AdmissionCache(10);
+        long epoch = cache.getEpoch();
+        cache.refuse(flow("a", 1000000), epoch, "No path");
+
+        // The name of the flow is not part of its specification
+        assertEquals("No path", cache.getRefusal(flow("b", 1000000)));
+        assertNull(cache.getRefusal(flow("a", 1000)));
+
+        // Removals forget the refusals
+        cache.invalidate();
+        assertNull(cache.getRefusal(flow("a", 1000000)));
+        assertEquals(0, cache.size());
+
+        // Refusals overtaken by a removal are not recorded
+        cache.refuse(flow("a", 1000000), epoch, "No path");
+        assertNull(cache.getRefusal(flow("a", 1000000)));
+    }
+
+    @Test
+    public void testCapacity() {
+        AdmissionCache cache = new AdmissionCache(2);
+        for(int i = 1; i <= 3; i++)
+            cache.refuse(flow("a", i), cache.getEpoch(), "No path");
+        assertEquals(2, cache.size());
+        assertNotNull(cache.getRefusal(flow("a", 2)));
+        assertNull(cache.getRefusal(flow("a", 3)));
+    }
+}
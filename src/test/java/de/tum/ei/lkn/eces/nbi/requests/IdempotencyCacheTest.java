@@ -0,0 +1,66 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class IdempotencyCacheTest {
+    @Test
+    public void testRegistration() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 60000);
+        assertNull(cache.register("a", 1));
+
+        // Retries wait for the response to the first request
+        IdempotencyCache.Entry first = cache.register("a", 1);
+        assertNotNull(first);
+        assertEquals(1, first.getFingerprint());
+        assertFalse(first.getResponse().isDone());
+        cache.complete("a", "response".getBytes(StandardCharsets.UTF_8));
+        assertEquals("response", new String(first.getResponse().get(), StandardCharsets.UTF_8));
+        assertSame(first, cache.register("a", 2));
+
+        // Failed requests are forgotten
+        assertNull(cache.register("b", 1));
+        IdempotencyCache.Entry failed = cache.register("b", 1);
+        cache.abandon("b");
+        assertNull(failed.getResponse().get());
+        assertNull(cache.register("b", 1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(10, 60000);
+        assertNull(cache.register("a", 1));
+        cache.complete("a", "job".getBytes(StandardCharsets.UTF_8));
+        IdempotencyCache.Entry answered = cache.register("a", 1);
+        assertEquals("job", new String(answered.getResponse().get(), StandardCharsets.UTF_8));
+
+        // Later retries get the new response
+        cache.update("a", "result".getBytes(StandardCharsets.UTF_8));
+        assertEquals("result", new String(cache.register("a", 1).getResponse().get(), StandardCharsets.UTF_8));
+
+        // Requests which are not registered are not added
+        cache.update("b", "result".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.register("b", 1));
+    }
+
+    @Test
+    public void testEviction() throws InterruptedException {
+        IdempotencyCache cache = new IdempotencyCache(3, 60000);
+        for(int i = 0; i < 5; i++)
+            assertNull(cache.register("request" + i, i));
+        assertEquals(3, cache.size());
+        // The oldest requests were evicted
+        assertNull(cache.register("request0", 0));
+        assertNotNull(cache.register("request4", 4));
+
+        IdempotencyCache expiring = new IdempotencyCache(3, 10);
+        assertNull(expiring.register("a", 1));
+        Thread.sleep(50);
+        assertNull(expiring.register("a", 1));
+        assertEquals(1, expiring.size());
+    }
+}
@@ -0,0 +1,38 @@
+package de.tum.ei.lkn.eces.nbi.requests;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class Ipv4Test {
+    @Test
+    public void testValid() throws Exception {
+        String[] addresses = {"0.0.0.0", "10.152.1.1", "192.168.0.254", "255.255.255.255", "1.10.100.200"};
+        for(String address : addresses) {
+            long parsed = Ipv4.parse(address);
+            assertNotEquals(Ipv4.INVALID, parsed);
+            assertEquals(address, Ipv4.toString((int) parsed));
+            assertEquals(InetAddress.getByName(address), Ipv4.toInetAddress((int) parsed));
+        }
+        assertEquals(0xffffffffL, Ipv4.parse("255.255.255.255"));
+    }
+
+    @Test
+    public void testInvalid() {
+        // Including forms InetAddress accepts (short forms, leading zeros) and hostnames
+        String[] addresses = {"", ".", "10.152.1", "10.152.1.1.1", "10.152.a.1", "10.152.1.256", "10.152.1.1000",
+                "10..1.1", "10.152.1.", ".10.152.1", "010.152.1.1", "10.152.1.-1", " 10.152.1.1", "10.152.1.1 ",
+                "localhost", "example.com", "10.152.1.1\u00e9", "167772161"};
+        for(String address : addresses)
+            assertEquals(address, Ipv4.INVALID, Ipv4.parse(address));
+    }
+
+    @Test
+    public void testParseInData() {
+        byte[] data = "x10.152.1.2y".getBytes();
+        assertEquals((10L << 24) | (152 << 16) | (1 << 8) | 2, Ipv4.parse(data, 1, data.length - 1));
+        assertEquals(Ipv4.INVALID, Ipv4.parse(data, 0, data.length - 1));
+    }
+}
@@ -0,0 +1,46 @@
+package de.tum.ei.lkn.eces.nbi.scheduling;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TenantRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndRate() {
+        // 10 operations per second, bursts of 5
+        TenantRateLimiter limiter = new TenantRateLimiter(10, 5);
+        long now = 1000 * SECOND;
+        for(int i = 0; i < 5; i++)
+            assertEquals(0, limiter.acquire(1, 1, now));
+        long wait = limiter.acquire(1, 1, now);
+        assertEquals(SECOND / 10, wait);
+
+        // Other tenants have their own bucket
+        assertEquals(0, limiter.acquire(2, 1, now));
+
+        // A token is back after 100 ms, the full burst after 500 ms
+        assertEquals(0, limiter.acquire(1, 1, now + wait));
+        assertTrue(limiter.acquire(1, 1, now + wait) > 0);
+        for(int i = 0; i < 5; i++)
+            assertEquals(0, limiter.acquire(1, 1, now + 10 * SECOND));
+        assertTrue(limiter.acquire(1, 1, now + 10 * SECOND) > 0);
+    }
+
+    @Test
+    public void testBatches() {
+        TenantRateLimiter limiter = new TenantRateLimiter(10, 5);
+        long now = 1000 * SECOND;
+        // A batch larger than the burst is admitted, but puts the bucket in debt
+        assertEquals(0, limiter.acquire(1, 20, now));
+        assertEquals(16 * SECOND / 10, limiter.acquire(1, 1, now));
+        assertEquals(0, limiter.acquire(1, 1, now + 16 * SECOND / 10));
+
+        limiter.remove(1);
+        assertEquals(0, limiter.size());
+        assertEquals(0, limiter.acquire(1, 1, now));
+    }
+}
@@ -0,0 +1,202 @@
+package de.tum.ei.lkn.eces.nbi.scheduling;
+
+import de.tum.ei.lkn.eces.tenantmanager.exceptions.TenantManagerException;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TenantSchedulerTest {
+    private TenantScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new TenantScheduler(4);
+    }
+
+    @After
+    public void cleanUp() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testOrderWithinTenant() throws Exception {
+        int tenants = 8;
+        int tasksPerTenant = 500;
+        List<List<Integer>> executions = new ArrayList<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        for(int tenant = 0; tenant < tenants; tenant++) {
+            // Only accessed from the lane of the tenant
+            List<Integer> tenantExecutions = new ArrayList<>();
+            executions.add(tenantExecutions);
+            AtomicInteger tenantRunning = new AtomicInteger();
+            for(int i = 0; i < tasksPerTenant; i++) {
+                int task = i;
+                futures.add(scheduler.submit(tenant, () -> {
+                    if(tenantRunning.incrementAndGet() != 1)
+                        overlaps.incrementAndGet();
+                    running.incrementAndGet();
+                    tenantExecutions.add(task);
+                    running.decrementAndGet();
+                    tenantRunning.decrementAndGet();
+                    return task;
+                }));
+            }
+        }
+
+        for(CompletableFuture<Integer> future : futures)
+            future.get(1, TimeUnit.MINUTES);
+
+        assertEquals(0, overlaps.get());
+        for(List<Integer> tenantExecutions : executions) {
+            assertEquals(tasksPerTenant, tenantExecutions.size());
+            for(int i = 0; i < tasksPerTenant; i++)
+                assertEquals(i, (int) tenantExecutions.get(i));
+        }
+        assertEquals(0, scheduler.getNumberOfActiveLanes());
+    }
+
+    @Test
+    public void testSlowTenantDoesNotBlockOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> slow = scheduler.submit(1, () -> {
+            try {
+                release.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        // Queued behind the slow task of the same tenant
+        CompletableFuture<Integer> queued = scheduler.submit(1, () -> 1);
+
+        // Other tenants go through while tenant 1 is blocked
+        for(int tenant = 2; tenant < 20; tenant++) {
+            int value = tenant;
+            assertEquals(value, (int) scheduler.execute(tenant, () -> value));
+        }
+        assertFalse(slow.isDone());
+        assertFalse(queued.isDone());
+
+        release.countDown();
+        assertEquals(1, (int) queued.get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Assume.assumeTrue(VirtualThreads.isAvailable());
+        TenantScheduler virtualScheduler = new TenantScheduler(2, true);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for(int tenant = 0; tenant < 50; tenant++) {
+                futures.add(virtualScheduler.submit(tenant, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(2);
+                    }
+                    catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return Thread.currentThread().getName();
+                }));
+            }
+
+            for(CompletableFuture<String> future : futures)
+                assertTrue(future.get(1, TimeUnit.MINUTES).startsWith("nbi-lane-"));
+            // The parallelism is still enforced
+            assertTrue(maxRunning.get() <= 2);
+        }
+        finally {
+            virtualScheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        TenantScheduler sequentialScheduler = new TenantScheduler(1);
+        try {
+            sequentialScheduler.setWeight(1, 3);
+            assertEquals(3, sequentialScheduler.getWeight(1));
+            assertEquals(1, sequentialScheduler.getWeight(2));
+
+            // Tenant 1 runs three tasks per turn, tenant 2 one
+            assertEquals(Arrays.asList(1L, 1L, 1L, 2L, 1L, 1L, 1L, 2L, 2L, 2L, 2L, 2L), runBusyTenants(sequentialScheduler));
+        }
+        finally {
+            sequentialScheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadWeights() throws Exception {
+        Assume.assumeTrue(VirtualThreads.isAvailable());
+        TenantScheduler virtualScheduler = new TenantScheduler(1, true);
+        try {
+            virtualScheduler.setWeight(1, 3);
+
+            // Whichever lane gets the permit first, tenant 1 runs three tasks for each task of tenant 2 while both are busy
+            List<Long> executions = runBusyTenants(virtualScheduler);
+            assertEquals(6, executions.subList(0, 8).stream().filter(tenant -> tenant == 1L).count());
+        }
+        finally {
+            virtualScheduler.shutdown();
+        }
+    }
+
+    // Submits 6 tasks for each of tenants 1 and 2 while the scheduler (of parallelism 1) is busy, returns the tenants in execution order
+    private static List<Long> runBusyTenants(TenantScheduler scheduler) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(0, () -> {
+            try {
+                release.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        List<Long> executions = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for(int i = 0; i < 6; i++) {
+            for(long tenant = 1; tenant <= 2; tenant++) {
+                long value = tenant;
+                futures.add(scheduler.submit(tenant, () -> executions.add(value)));
+            }
+        }
+        // Leaving the lanes (threads) the time to wait for their turn
+        Thread.sleep(100);
+        release.countDown();
+        for(CompletableFuture<Object> future : futures)
+            future.get(1, TimeUnit.MINUTES);
+        return executions;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionIsRethrown() throws TenantManagerException {
+        scheduler.execute(3, () -> {
+            throw new IllegalStateException("expected");
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new TenantScheduler(0);
+    }
+}
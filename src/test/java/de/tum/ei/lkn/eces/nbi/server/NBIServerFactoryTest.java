@@ -0,0 +1,103 @@
+package de.tum.ei.lkn.eces.nbi.server;
+
+import de.tum.ei.lkn.eces.nbi.NBIConfiguration;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NBIServerFactoryTest {
+    private static final int MAX_THREADS = 16;
+    private static final int MAX_QUEUED_REQUESTS = 4;
+    private static final int REQUESTS = 40;
+
+    @Test
+    public void testFullQueue() throws Exception {
+        NBIConfiguration configuration = new NBIConfiguration()
+                .setMaxQueuedRequests(MAX_QUEUED_REQUESTS)
+                .setRetryAfterSeconds(7)
+                .setHttp2(false);
+        NBIServerFactory factory = new NBIServerFactory(configuration);
+        Server server = factory.create(MAX_THREADS, MAX_THREADS, 60000);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.setConnectors(new Connector[]{connector});
+
+        // Requests hold their threads until released, so that the next ones fill the queue
+        CountDownLatch release = new CountDownLatch(1);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                baseRequest.setHandled(true);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(200);
+            }
+        });
+        server.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(REQUESTS);
+        try {
+            int port = connector.getLocalPort();
+            AtomicInteger rejected = new AtomicInteger();
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for(int i = 0; i < REQUESTS; i++) {
+                statuses.add(clients.submit(() -> {
+                    // Each request on its own connection, without retries
+                    HttpResponse response = HttpClientBuilder.create().disableAutomaticRetries().build()
+                            .execute(new HttpGet("http://localhost:" + port + "/"));
+                    int status = response.getStatusLine().getStatusCode();
+                    if(status == 503) {
+                        assertEquals("7", response.getFirstHeader("Retry-After").getValue());
+                        rejected.incrementAndGet();
+                    }
+                    return status;
+                }));
+            }
+
+            // At most one request per thread and one per slot of the queue wait for the release
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while(rejected.get() < REQUESTS - MAX_THREADS - MAX_QUEUED_REQUESTS && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            release.countDown();
+
+            // Every request got a response: none of the connections was closed
+            int ok = 0;
+            for(Future<Integer> status : statuses) {
+                int code = status.get(30, TimeUnit.SECONDS);
+                assertTrue(code == 200 || code == 503);
+                if(code == 200)
+                    ok++;
+            }
+            assertEquals(REQUESTS, ok + rejected.get());
+            assertTrue(rejected.get() >= REQUESTS - MAX_THREADS - MAX_QUEUED_REQUESTS);
+            assertTrue(factory.getRejectedRequests() >= rejected.get());
+        }
+        finally {
+            release.countDown();
+            clients.shutdownNow();
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.tum.ei.lkn.eces.nbi.tokens;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TokenGeneratorTest {
+    @Test
+    public void testRange() {
+        long or = 0;
+        for(int i = 0; i < 100000; i++) {
+            long token = TokenGenerator.nextToken();
+            assertTrue(token > 0);
+            assertTrue(token < (1L << TokenGenerator.TOKEN_BITS));
+            or |= token;
+        }
+        // All the bits are used
+        assertEquals((1L << TokenGenerator.TOKEN_BITS) - 1, or);
+    }
+
+    @Test
+    public void testUniqueness() throws InterruptedException {
+        int threads = 8;
+        int tokensPerThread = 20000;
+        Set<Long> tokens = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                for(int j = 0; j < tokensPerThread; j++) {
+                    if(!tokens.add(TokenGenerator.nextToken()))
+                        duplicates.incrementAndGet();
+                }
+            });
+            workers[i].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(threads * tokensPerThread, tokens.size());
+    }
+
+    @Test
+    public void testMatches() {
+        long token = TokenGenerator.nextToken();
+        assertTrue(TokenGenerator.matches(token, token));
+        assertFalse(TokenGenerator.matches(token, token + 1));
+        assertFalse(TokenGenerator.matches(token, -token));
+        assertFalse(TokenGenerator.matches(token, token ^ (1L << 63)));
+    }
+}